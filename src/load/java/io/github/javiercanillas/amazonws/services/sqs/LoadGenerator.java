@@ -0,0 +1,261 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import io.awspring.cloud.messaging.listener.SqsMessageDeletionPolicy;
+import lombok.Getter;
+import lombok.Setter;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.PropertiesPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load generator: producer threads send to a queue of an {@link InMemoryQueueMessagingTemplate} at a target
+ * rate, and a synthetic listener records the time every message took from the moment it was meant to be sent until it
+ * was handed to the listener.
+ * <p>
+ * Producers follow an open-loop schedule: each message has a fixed time it is meant to be sent at, and latency is
+ * measured from that time rather than from the actual send. A producer held up by a slow send doesn't wait less for
+ * the next messages, it sends them late and their latency says so, instead of hiding the stall as a closed loop would.
+ * <p>
+ * Arguments are {@code key=value} pairs: {@code load.*} settings, without the prefix, and any
+ * {@code cloud.aws.sqs.in-memory.*} setting of the engine, so that configurations can be compared on the same box:
+ * <pre>
+ * mvn -P load verify -Dload.args="rate=50000 producers=4 cloud.aws.sqs.in-memory.defaults.workers.max=4"
+ * </pre>
+ */
+public final class LoadGenerator {
+
+    private static final String QUEUE_NAME = "load";
+
+    private static final String INTENDED_AT_HEADER = "load-intended-at";
+
+    private static final String ENGINE_PREFIX = "cloud.aws.sqs.in-memory.";
+
+    private final Settings settings;
+
+    private final InMemoryQueueMessagingProperties engine;
+
+    private final Recorder latencies = new Recorder(3);
+
+    private final LongAdder sent = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private LoadGenerator(final Settings settings, final InMemoryQueueMessagingProperties engine) {
+        this.settings = settings;
+        this.engine = engine;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final var arguments = new Properties();
+        for (final var arg : args) {
+            final var separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            final var key = arg.substring(0, separator);
+            arguments.setProperty(key.startsWith(ENGINE_PREFIX) ? key : "load." + key, arg.substring(separator + 1));
+        }
+        final var environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new PropertiesPropertySource("arguments", arguments));
+        final var binder = Binder.get(environment);
+        final var settings = binder.bind("load", Settings.class).orElseGet(Settings::new);
+        final var engine = binder.bind("cloud.aws.sqs.in-memory", InMemoryQueueMessagingProperties.class)
+                .orElseGet(InMemoryQueueMessagingProperties::new);
+        new LoadGenerator(settings, engine).run();
+    }
+
+    private void run() throws InterruptedException, IOException, NoSuchMethodException {
+        final var template = new InMemoryQueueMessagingTemplate(new InMemoryAwsSqsClient(), this.engine);
+        try {
+            final var consume = Listener.class.getMethod("consume", Message.class);
+            for (var i = 0; i < Math.max(1, this.settings.getListeners()); i++) {
+                template.register(new Listener(this.latencies, this.settings.getWork().toNanos()), consume,
+                        Set.of(QUEUE_NAME), SqsMessageDeletionPolicy.ON_SUCCESS);
+            }
+            template.start();
+            this.measure(template);
+        } finally {
+            template.destroy();
+        }
+    }
+
+    private void measure(final InMemoryQueueMessagingTemplate template) throws InterruptedException, IOException {
+        final var producers = Math.max(1, this.settings.getProducers());
+        final var intervalInNanos = TimeUnit.SECONDS.toNanos(1L) / (double) this.settings.getRate();
+        final var payload = "x".repeat(Math.max(0, this.settings.getPayloadSize()));
+        final var startTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100L);
+        final var measureFrom = startTime + this.settings.getWarmup().toNanos();
+        final var endTime = measureFrom + this.settings.getDuration().toNanos();
+        System.out.printf("Sending %,d messages/s of %,d bytes from %d producers for %s after a warmup of %s%n",
+                this.settings.getRate(), payload.length(), producers, this.settings.getDuration(),
+                this.settings.getWarmup());
+
+        final var threads = new ArrayList<Thread>(producers);
+        for (var p = 0; p < producers; p++) {
+            // producers take turns, so that together they send at the target rate, evenly spaced
+            final var first = p;
+            final var thread = new Thread(() -> this.produce(template, payload, startTime, endTime, first, producers,
+                    intervalInNanos), "load-producer-" + p);
+            thread.setDaemon(true);
+            threads.add(thread);
+        }
+        threads.forEach(Thread::start);
+
+        awaitUntil(measureFrom);
+        // whatever was recorded during the warmup is discarded
+        this.latencies.getIntervalHistogram();
+        final var sentBefore = this.sent.sum();
+        for (final var thread : threads) {
+            thread.join();
+        }
+        final var drained = template.awaitIdle(QUEUE_NAME, this.settings.getDrainTimeout());
+        final var measuredInNanos = System.nanoTime() - measureFrom;
+        final var histogram = this.latencies.getIntervalHistogram();
+        this.report(histogram, this.sent.sum() - sentBefore, measuredInNanos, drained);
+    }
+
+    private void produce(final InMemoryQueueMessagingTemplate template, final String payload, final long startTime,
+                         final long endTime, final int first, final int producers, final double intervalInNanos) {
+        for (long k = first; ; k += producers) {
+            final var intendedAt = startTime + (long) (k * intervalInNanos);
+            if (intendedAt - endTime >= 0L) {
+                return;
+            }
+            awaitUntil(intendedAt);
+            try {
+                template.convertAndSend(QUEUE_NAME, payload, Map.of(INTENDED_AT_HEADER, intendedAt));
+                this.sent.increment();
+            } catch (MessagingException e) {
+                this.rejected.increment();
+            }
+        }
+    }
+
+    private void report(final Histogram histogram, final long sentCount, final long measuredInNanos,
+                        final boolean drained) throws IOException {
+        final var seconds = measuredInNanos / 1e9d;
+        System.out.printf("Sent:        %,d messages, %,.0f messages/s, %,d rejected%n", sentCount,
+                sentCount / seconds, this.rejected.sum());
+        System.out.printf("Completed:   %,d messages, %,.0f messages/s%s%n", histogram.getTotalCount(),
+                histogram.getTotalCount() / seconds, drained ? "" : ", not drained before the timeout");
+        System.out.printf("Latency:     p50 %s, p90 %s, p99 %s, p99.9 %s, max %s%n",
+                micros(histogram.getValueAtPercentile(50d)), micros(histogram.getValueAtPercentile(90d)),
+                micros(histogram.getValueAtPercentile(99d)), micros(histogram.getValueAtPercentile(99.9d)),
+                micros(histogram.getMaxValue()));
+        if (this.settings.getHistogramFile() != null) {
+            try (var out = new PrintStream(new FileOutputStream(this.settings.getHistogramFile()))) {
+                histogram.outputPercentileDistribution(out, 1000d);
+            }
+            System.out.println("Percentile distribution, in microseconds, written to "
+                    + this.settings.getHistogramFile());
+        }
+    }
+
+    private static String micros(final long nanos) {
+        return String.format("%,.1fus", nanos / 1000d);
+    }
+
+    private static void awaitUntil(final long timeInNanos) {
+        for (var remaining = timeInNanos - System.nanoTime(); remaining > 0L;
+             remaining = timeInNanos - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    /**
+     * Settings of a run, bound from the arguments without their {@code load.} prefix.
+     */
+    @Getter
+    @Setter
+    public static class Settings {
+
+        /**
+         * Messages sent per second, all producers together.
+         */
+        private int rate = 10_000;
+
+        /**
+         * Threads sending messages.
+         */
+        private int producers = 4;
+
+        /**
+         * Listeners registered on the queue.
+         */
+        private int listeners = 1;
+
+        /**
+         * Characters of every payload.
+         */
+        private int payloadSize = 256;
+
+        /**
+         * Time each listener invocation keeps its thread busy, standing for the work of a real listener.
+         */
+        private Duration work = Duration.ZERO;
+
+        /**
+         * Time spent sending before measuring, for the JIT to settle.
+         */
+        private Duration warmup = Duration.ofSeconds(5);
+
+        /**
+         * Time spent sending while measuring.
+         */
+        private Duration duration = Duration.ofSeconds(30);
+
+        /**
+         * Maximum time to wait for the listener once every message was sent.
+         */
+        private Duration drainTimeout = Duration.ofSeconds(30);
+
+        /**
+         * File the percentile distribution is written to, in the format HdrHistogram plotters read, if any.
+         */
+        private String histogramFile;
+    }
+
+    /**
+     * Synthetic listener, recording the latency of every message it is handed.
+     */
+    public static class Listener {
+
+        private final Recorder latencies;
+
+        private final long workInNanos;
+
+        Listener(final Recorder latencies, final long workInNanos) {
+            this.latencies = latencies;
+            this.workInNanos = workInNanos;
+        }
+
+        public void consume(final Message<String> message) {
+            final var intendedAt = message.getHeaders().get(INTENDED_AT_HEADER, Long.class);
+            if (intendedAt != null) {
+                this.latencies.recordValue(Math.max(0L, System.nanoTime() - intendedAt));
+            }
+            if (this.workInNanos > 0L) {
+                final var until = System.nanoTime() + this.workInNanos;
+                while (System.nanoTime() - until < 0L) {
+                    Thread.onSpinWait();
+                }
+            }
+        }
+    }
+}
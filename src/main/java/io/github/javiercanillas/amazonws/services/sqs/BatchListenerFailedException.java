@@ -0,0 +1,41 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Thrown by a batch listener, or used to complete the {@link java.util.concurrent.CompletionStage} it returns, when
+ * only some messages of the batch failed. Only those are put back in the queue, while the rest are deleted.
+ */
+public class BatchListenerFailedException extends RuntimeException {
+
+    private static final long serialVersionUID = 4127364581260185433L;
+
+    private final Set<Integer> failedIndexes;
+
+    /**
+     * @param message description of the exception
+     * @param failedIndexes positions in the batch of the messages that failed
+     */
+    public BatchListenerFailedException(final String message, final Collection<Integer> failedIndexes) {
+        this(message, failedIndexes, null);
+    }
+
+    /**
+     * @param message description of the exception
+     * @param failedIndexes positions in the batch of the messages that failed
+     * @param cause the cause of the failure
+     */
+    public BatchListenerFailedException(final String message, final Collection<Integer> failedIndexes,
+                                        final Throwable cause) {
+        super(message, cause);
+        this.failedIndexes = Set.copyOf(failedIndexes);
+    }
+
+    /**
+     * @return positions in the batch of the messages that failed
+     */
+    public Set<Integer> getFailedIndexes() {
+        return this.failedIndexes;
+    }
+}
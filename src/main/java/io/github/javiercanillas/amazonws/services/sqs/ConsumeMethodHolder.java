@@ -12,24 +12,69 @@ import org.springframework.messaging.support.MessageHeaderAccessor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Parameter;
+import java.lang.reflect.ParameterizedType;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 
 @Slf4j
 public class ConsumeMethodHolder {
     private final Object bean;
     private final Method method;
     private final SqsMessageDeletionPolicy deletionPolicy;
+    private final boolean batch;
+    private final LongAdder invocations;
+    private final ListenerAccounting accounting;
+    private final PayloadConverter payloadConverter;
 
     public ConsumeMethodHolder(final Object bean, final Method method, final SqsMessageDeletionPolicy deletionPolicy) {
+        this(bean, method, deletionPolicy, false);
+    }
+
+    /**
+     * @param accounting whether CPU time and allocated bytes of every invocation should be sampled
+     */
+    public ConsumeMethodHolder(final Object bean, final Method method, final SqsMessageDeletionPolicy deletionPolicy,
+                               final boolean accounting) {
+        this(bean, method, deletionPolicy, accounting, null);
+    }
+
+    /**
+     * @param payloadConverter deserializes payloads into the types the listener takes, null to hand them as they are
+     */
+    ConsumeMethodHolder(final Object bean, final Method method, final SqsMessageDeletionPolicy deletionPolicy,
+                        final boolean accounting, final PayloadConverter payloadConverter) {
+        this.payloadConverter = payloadConverter;
         this.bean = bean;
         this.method = method;
         this.deletionPolicy = deletionPolicy;
+        this.batch = Arrays.stream(method.getParameters()).anyMatch(ConsumeMethodHolder::isBatchParameter);
+        this.invocations = new LongAdder();
+        this.accounting = accounting ? ListenerAccounting.create() : null;
+    }
+
+    /**
+     * @return true if the listener takes a whole batch of messages, as a {@code List} of payloads or of
+     * {@link Message messages}, instead of one message at a time
+     */
+    public boolean isBatch() {
+        return this.batch;
+    }
+
+    /**
+     * @return true if messages are only removed once acknowledged, which may happen after the listener returned
+     */
+    boolean isAcknowledgedLater() {
+        return SqsMessageDeletionPolicy.NEVER.equals(this.deletionPolicy);
     }
 
     /**
@@ -38,29 +83,190 @@ public class ConsumeMethodHolder {
      * @return if message should be requeued or not
      */
     public boolean invoke(final Message<?> message) {
+        return this.invokeAsync(message).getNow(false);
+    }
+
+    /**
+     * Invokes the listener, resolving its outcome once known. Listeners returning a {@link CompletionStage} are
+     * resolved when it completes, and with {@link SqsMessageDeletionPolicy#NEVER} the outcome is pending until the
+     * message is acknowledged, from whatever thread, or the listener fails.
+     *
+     * @param message the content to be invoked with
+     * @return a future telling whether the message should be removed from the queue or not
+     */
+    public CompletableFuture<Boolean> invokeAsync(final Message<?> message) {
         Objects.requireNonNull(message, "content must not be null");
+        if (this.batch) {
+            return this.invokeBatchAsync(List.of(message)).thenApply(removed -> removed.get(0));
+        }
         final var ack = new InnerAcknowledgment();
         var invocationParameters = this.completeInvocationParameters(message, ack);
 
         if (!invocationParameters.isEmpty()) {
-            var errored = false;
-            try {
-                this.method.invoke(this.bean, invocationParameters.toArray());
-            } catch (IllegalAccessException | InvocationTargetException e) {
-                log.error("Error invoking method.", e);
-                errored = true;
-            }
+            final var event = FlightRecorderEvents.beginListener(this, this.deletionPolicy, 1);
+            return this.resolve(this.call(invocationParameters), ack, 1)
+                    .whenComplete((removed, error) -> FlightRecorderEvents.endListener(event, removed))
+                    .thenApply(removed -> removed.get(0));
+        } else {
+            return CompletableFuture.completedFuture(true);
+        }
+    }
 
-            if (this.deletionPolicy.equals(SqsMessageDeletionPolicy.ALWAYS)) {
-                return false;
-            } else if (this.deletionPolicy.equals(SqsMessageDeletionPolicy.NEVER)) {
-                return ack.isAcknowledge();
+    /**
+     * Invokes a batch listener with the given messages. Outcomes are resolved as in {@link #invokeAsync(Message)},
+     * for the whole batch, unless the listener fails with a {@link BatchListenerFailedException}, in which case only
+     * the messages it reports are kept.
+     *
+     * @param messages the contents to be invoked with
+     * @return a future telling, for each message, whether it should be removed from the queue or not
+     */
+    public CompletableFuture<List<Boolean>> invokeBatchAsync(final List<Message<?>> messages) {
+        Objects.requireNonNull(messages, "contents must not be null");
+        if (!this.batch) {
+            throw new NotImplementedException("Method " + method.getName() + " from class "
+                    + this.bean.getClass().getSimpleName() + " doesn't take batches");
+        }
+        final var ack = new InnerAcknowledgment();
+        final var invocationParameters = this.completeBatchInvocationParameters(messages, ack);
+        final var event = FlightRecorderEvents.beginListener(this, this.deletionPolicy, messages.size());
+        return this.resolve(this.call(invocationParameters), ack, messages.size())
+                .whenComplete((removed, error) -> FlightRecorderEvents.endListener(event, removed));
+    }
+
+    /**
+     * @return the counters of this listener so far
+     */
+    public ListenerStatistics getStatistics() {
+        final var statistics = ListenerStatistics.builder()
+                .listener(this.toString())
+                .invocations(this.invocations.sum())
+                .cpuTime(Duration.ZERO);
+        if (this.accounting != null) {
+            statistics.sampled(this.accounting.getSampled())
+                    .cpuTime(Duration.ofNanos(this.accounting.getCpuTimeInNanos()))
+                    .allocatedBytes(this.accounting.getAllocatedBytes());
+        }
+        return statistics.build();
+    }
+
+    private CompletableFuture<?> call(final List<Object> invocationParameters) {
+        this.invocations.increment();
+        final var sampling = this.accounting;
+        if (sampling == null) {
+            return this.doCall(invocationParameters);
+        }
+        final var startAllocatedBytes = sampling.currentAllocatedBytes();
+        final var startCpuTime = sampling.currentCpuTime();
+        try {
+            return this.doCall(invocationParameters);
+        } finally {
+            sampling.record(startCpuTime, startAllocatedBytes);
+        }
+    }
+
+    private CompletableFuture<?> doCall(final List<Object> invocationParameters) {
+        try {
+            return toFuture(this.method.invoke(this.bean, invocationParameters.toArray()))
+                    .whenComplete((value, error) -> {
+                        if (error != null) {
+                            log.error("Error completing method.", error);
+                        }
+                    });
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            log.error("Error invoking method.", e);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private CompletableFuture<List<Boolean>> resolve(final CompletableFuture<?> outcome,
+                                                     final InnerAcknowledgment ack, final int size) {
+        if (this.deletionPolicy.equals(SqsMessageDeletionPolicy.ALWAYS)) {
+            return outcome.handle((value, error) -> Collections.nCopies(size, false));
+        } else if (this.deletionPolicy.equals(SqsMessageDeletionPolicy.NEVER)) {
+            outcome.whenComplete((value, error) -> {
+                if (error != null) {
+                    ack.acknowledged.complete(false);
+                }
+            });
+            return ack.acknowledged.thenApply(acknowledged -> Collections.nCopies(size, acknowledged));
+        } else {
+            return outcome.handle((value, error) -> error == null
+                    ? Collections.nCopies(size, true)
+                    : removedDespite(error, size));
+        }
+    }
+
+    private static List<Boolean> removedDespite(final Throwable error, final int size) {
+        var cause = error;
+        while ((cause instanceof CompletionException || cause instanceof InvocationTargetException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (!(cause instanceof BatchListenerFailedException)) {
+            return Collections.nCopies(size, false);
+        }
+        final var failedIndexes = ((BatchListenerFailedException) cause).getFailedIndexes();
+        final var removed = new ArrayList<Boolean>(size);
+        for (var i = 0; i < size; i++) {
+            removed.add(!failedIndexes.contains(i));
+        }
+        return removed;
+    }
+
+    private static CompletableFuture<?> toFuture(final Object result) {
+        if (result instanceof CompletionStage) {
+            return ((CompletionStage<?>) result).toCompletableFuture();
+        } else {
+            return CompletableFuture.completedFuture(result);
+        }
+    }
+
+    /**
+     * A batch parameter is an unannotated {@code List}, taking the payloads of the batch, or a {@code List} of
+     * {@link Message messages}. A {@code List} annotated with {@link Payload} is still a single message payload, and
+     * one annotated with {@link Header} or {@link Headers} is taken from the headers of a single message.
+     */
+    private static boolean isBatchParameter(final Parameter parameter) {
+        if (parameter.getType() != List.class || parameter.isAnnotationPresent(Header.class)
+                || parameter.isAnnotationPresent(Headers.class)) {
+            return false;
+        }
+        return !parameter.isAnnotationPresent(Payload.class) || isMessageList(parameter);
+    }
+
+    private static boolean isMessageList(final Parameter parameter) {
+        if (!(parameter.getParameterizedType() instanceof ParameterizedType)) {
+            return false;
+        }
+        var elementType = ((ParameterizedType) parameter.getParameterizedType()).getActualTypeArguments()[0];
+        if (elementType instanceof ParameterizedType) {
+            elementType = ((ParameterizedType) elementType).getRawType();
+        }
+        return elementType == Message.class;
+    }
+
+    private List<Object> completeBatchInvocationParameters(final List<Message<?>> messages,
+                                                           final InnerAcknowledgment ack) {
+        var invocationParameters = new ArrayList<>(this.method.getParameterCount());
+        for (var parameter : method.getParameters()) {
+            if (isBatchParameter(parameter)) {
+                if (isMessageList(parameter)) {
+                    invocationParameters.add(Collections.unmodifiableList(messages));
+                } else {
+                    final var payloadType = elementTypeOf(parameter);
+                    final var payloads = new ArrayList<>(messages.size());
+                    messages.forEach(message -> payloads.add(this.payloadOf(message, payloadType)));
+                    invocationParameters.add(payloads);
+                }
+            } else if (parameter.getType().isAssignableFrom(Acknowledgment.class)) {
+                invocationParameters.add(ack);
             } else {
-                return !errored;
+                throw new NotImplementedException("Cannot handle parameter " + parameter.getName()
+                        + " of batch method " + method.getName() + " from class "
+                        + this.bean.getClass().getSimpleName());
             }
-        } else {
-            return true;
         }
+        return invocationParameters;
     }
 
     private List<Object> completeInvocationParameters(final Message<?> message, final InnerAcknowledgment ack) {
@@ -93,7 +299,7 @@ public class ConsumeMethodHolder {
         } else if (parameterType.isAssignableFrom(Acknowledgment.class)) {
             invocationParameters.add(ack);
         } else if (parameter.isAnnotationPresent(Payload.class)) {
-            invocationParameters.add(message.getPayload());
+            invocationParameters.add(this.payloadOf(message, parameterType));
         } else if (parameter.isAnnotationPresent(Header.class)) {
             final var headerAnnotation = parameter.getAnnotation(Header.class);
             if (messageHeaders.containsKey(headerAnnotation.name())) {
@@ -112,20 +318,44 @@ public class ConsumeMethodHolder {
         return true;
     }
 
+    private Object payloadOf(final Message<?> message, final Class<?> payloadType) {
+        return this.payloadConverter != null
+                ? this.payloadConverter.deserialize(message, payloadType)
+                : message.getPayload();
+    }
+
+    private static Class<?> elementTypeOf(final Parameter parameter) {
+        if (parameter.getParameterizedType() instanceof ParameterizedType) {
+            final var elementType = ((ParameterizedType) parameter.getParameterizedType()).getActualTypeArguments()[0];
+            if (elementType instanceof Class) {
+                return (Class<?>) elementType;
+            }
+        }
+        return Object.class;
+    }
+
+    @Override
+    public String toString() {
+        return this.bean.getClass().getSimpleName() + "." + this.method.getName();
+    }
+
+    /**
+     * Acknowledgment that can be used after the listener returned, from any thread.
+     */
     static class InnerAcknowledgment implements Acknowledgment {
 
-        private boolean acknowledge = false;
+        private final CompletableFuture<Boolean> acknowledged = new CompletableFuture<>();
 
         @Override
         public Future<?> acknowledge() {
-            this.acknowledge = true;
+            this.acknowledged.complete(true);
             var resp = new CompletableFuture<>();
             resp.complete(new Object());
             return resp;
         }
 
         public boolean isAcknowledge() {
-            return this.acknowledge;
+            return this.acknowledged.getNow(false);
         }
     }
 }
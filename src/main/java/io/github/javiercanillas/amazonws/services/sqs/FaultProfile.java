@@ -0,0 +1,165 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Draws the latency and faults of a queue from its settings. Each kind of decision has its own random sequence, all of
+ * them derived from the seed and the queue name, so that turning on one fault doesn't change the outcome of the
+ * others, and the same calls made in the same order get the same outcomes run after run.
+ */
+final class FaultProfile {
+
+    private final Latency sendLatency;
+
+    private final Latency receiveLatency;
+
+    private final double throttleRate;
+
+    private final double duplicateRate;
+
+    private final double reorderRate;
+
+    private final long reorderWindowInMillis;
+
+    private final SplittableRandom throttles;
+
+    private final SplittableRandom duplicates;
+
+    private final SplittableRandom reorders;
+
+    private final SplittableRandom pollThrottles;
+
+    private FaultProfile(final String queueName, final InMemoryQueueMessagingProperties.Faults settings) {
+        final var root = new SplittableRandom(settings.getSeed() * 31L + Objects.hashCode(queueName));
+        this.sendLatency = new Latency(settings.getSendLatency(), root.split());
+        this.receiveLatency = new Latency(settings.getReceiveLatency(), root.split());
+        this.throttles = root.split();
+        this.duplicates = root.split();
+        this.reorders = root.split();
+        // split last, so that the sequences above stay the same as before workers had their own
+        this.pollThrottles = root.split();
+        this.throttleRate = settings.getThrottleRate();
+        this.duplicateRate = settings.getDuplicateRate();
+        this.reorderRate = settings.getReorderRate();
+        this.reorderWindowInMillis = Math.max(0L, settings.getReorderWindow().toMillis());
+    }
+
+    /**
+     * @param queueName name of the queue, combined with the seed
+     * @param settings latency and faults of the queue
+     * @return the profile of the queue, or null if disabled
+     */
+    static FaultProfile of(final String queueName, final InMemoryQueueMessagingProperties.Faults settings) {
+        return settings.isEnabled() ? new FaultProfile(queueName, settings) : null;
+    }
+
+    /**
+     * Blocks the calling thread for a send round trip. An interrupt cuts it short, leaving the thread interrupted.
+     */
+    void awaitSend() {
+        pause(this.sendLatency.next());
+    }
+
+    /**
+     * Blocks the calling thread for a receive round trip. An interrupt cuts it short, leaving the thread interrupted.
+     */
+    void awaitReceive() {
+        pause(this.receiveLatency.next());
+    }
+
+    /**
+     * @return nanoseconds a receive round trip takes, for those that can't block
+     */
+    long nextReceiveLatencyInNanos() {
+        return this.receiveLatency.next();
+    }
+
+    /**
+     * @return true if the call should be rejected as throttled
+     */
+    boolean throttled() {
+        return draw(this.throttles, this.throttleRate);
+    }
+
+    /**
+     * Same as {@link #throttled()}, drawn from a sequence of its own by workers once they took messages, so that
+     * how often idle workers poll doesn't change the outcome of requests.
+     *
+     * @return true if the poll that took the messages should be retried after backing off
+     */
+    boolean pollThrottled() {
+        return draw(this.pollThrottles, this.throttleRate);
+    }
+
+    /**
+     * @return true if the message being sent should be delivered twice
+     */
+    boolean duplicated() {
+        return draw(this.duplicates, this.duplicateRate);
+    }
+
+    /**
+     * @return milliseconds the message being sent should be held back for, zero if not reordered
+     */
+    long nextReorderDelayInMillis() {
+        synchronized (this.reorders) {
+            if (this.reorderRate <= 0d || this.reorders.nextDouble() >= this.reorderRate
+                    || this.reorderWindowInMillis == 0L) {
+                return 0L;
+            }
+            return 1L + this.reorders.nextLong(this.reorderWindowInMillis);
+        }
+    }
+
+    private static boolean draw(final SplittableRandom random, final double rate) {
+        if (rate <= 0d) {
+            return false;
+        }
+        synchronized (random) {
+            return random.nextDouble() < rate;
+        }
+    }
+
+    private static void pause(final long nanos) {
+        final var deadline = System.nanoTime() + nanos;
+        for (var remaining = nanos; remaining > 0L && !Thread.currentThread().isInterrupted();
+             remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    /**
+     * A minimum plus an exponentially distributed tail, capped at a maximum.
+     */
+    private static final class Latency {
+
+        private final long minInNanos;
+
+        private final double tailInNanos;
+
+        private final long maxInNanos;
+
+        private final SplittableRandom random;
+
+        private Latency(final InMemoryQueueMessagingProperties.Latency settings, final SplittableRandom random) {
+            this.minInNanos = Math.max(0L, settings.getMin().toNanos());
+            this.tailInNanos = Math.max(0L, settings.getTail().toNanos());
+            this.maxInNanos = Math.max(this.minInNanos, settings.getMax().toNanos());
+            this.random = random;
+        }
+
+        long next() {
+            if (this.tailInNanos == 0d) {
+                return this.minInNanos;
+            }
+            final double u;
+            synchronized (this.random) {
+                u = this.random.nextDouble();
+            }
+            final var tail = (long) (-this.tailInNanos * Math.log(1d - u));
+            return Math.min(this.maxInNanos, this.minInNanos + tail);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * An SNS subscription filter policy, compiled once into matchers that are evaluated against message headers, which
+ * play the role of the SNS message attributes.
+ *
+ * Supported conditions are exact string and numeric values, {@code prefix}, {@code suffix}, {@code anything-but},
+ * {@code numeric} ranges and {@code exists}. As in SNS, every attribute of the policy must match, while matching any of
+ * the conditions listed for an attribute is enough.
+ */
+public class FilterPolicy implements Predicate<Map<String, Object>> {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * A policy accepting every message.
+     */
+    public static final FilterPolicy ACCEPT_ALL = new FilterPolicy("{}", List.of());
+
+    private final String source;
+    private final List<AttributeMatcher> matchers;
+
+    private FilterPolicy(final String source, final List<AttributeMatcher> matchers) {
+        this.source = source;
+        this.matchers = matchers;
+    }
+
+    /**
+     * @param policy the JSON filter policy, as it would be set on an SNS subscription
+     * @return the compiled policy
+     * @throws IllegalArgumentException if the policy is not valid
+     */
+    public static FilterPolicy compile(final String policy) {
+        Objects.requireNonNull(policy, "policy must not be null");
+        final JsonNode root;
+        try {
+            root = OBJECT_MAPPER.readTree(policy);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid filter policy: " + policy, e);
+        }
+        if (root == null || !root.isObject()) {
+            throw new IllegalArgumentException("Filter policy must be a JSON object: " + policy);
+        }
+        final var matchers = new ArrayList<AttributeMatcher>();
+        root.fields().forEachRemaining(field -> matchers.add(compileAttribute(field.getKey(), field.getValue())));
+        return new FilterPolicy(policy, List.copyOf(matchers));
+    }
+
+    @Override
+    public boolean test(final Map<String, Object> attributes) {
+        for (final var matcher : this.matchers) {
+            if (!matcher.matches(attributes)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return this.source;
+    }
+
+    private static AttributeMatcher compileAttribute(final String name, final JsonNode conditions) {
+        if (!conditions.isArray()) {
+            throw new IllegalArgumentException("Conditions of attribute " + name + " must be an array");
+        }
+        final var conditionList = new ArrayList<Condition>();
+        conditions.forEach(condition -> conditionList.add(compileCondition(name, condition)));
+        return new AttributeMatcher(name, conditionList.toArray(new Condition[0]));
+    }
+
+    private static Condition compileCondition(final String name, final JsonNode condition) {
+        if (condition.isTextual()) {
+            final var expected = condition.textValue();
+            return (present, value) -> present && value != null && expected.equals(value.toString());
+        } else if (condition.isNumber()) {
+            final var expected = condition.doubleValue();
+            return (present, value) -> {
+                final var number = toNumber(value);
+                return number != null && number == expected;
+            };
+        } else if (condition.isBoolean()) {
+            final var expected = condition.booleanValue();
+            return (present, value) -> present && value != null && String.valueOf(expected).equals(value.toString());
+        } else if (condition.isNull()) {
+            return (present, value) -> present && value == null;
+        } else if (condition.isObject() && condition.size() == 1) {
+            final var operator = condition.fieldNames().next();
+            final var operand = condition.get(operator);
+            switch (operator) {
+                case "prefix":
+                    return textCondition(name, operator, operand, String::startsWith);
+                case "suffix":
+                    return textCondition(name, operator, operand, String::endsWith);
+                case "exists":
+                    final var exists = operand.asBoolean();
+                    return (present, value) -> present == exists;
+                case "anything-but":
+                    return anythingBut(name, operand);
+                case "numeric":
+                    return numeric(name, operand);
+                default:
+                    throw new IllegalArgumentException("Unsupported operator " + operator + " for attribute " + name);
+            }
+        }
+        throw new IllegalArgumentException("Unsupported condition " + condition + " for attribute " + name);
+    }
+
+    private static Condition textCondition(final String name, final String operator, final JsonNode operand,
+                                           final TextPredicate predicate) {
+        if (!operand.isTextual()) {
+            throw new IllegalArgumentException("Operator " + operator + " of attribute " + name + " expects a string");
+        }
+        final var expected = operand.textValue();
+        return (present, value) -> present && value != null && predicate.test(value.toString(), expected);
+    }
+
+    private static Condition anythingBut(final String name, final JsonNode operand) {
+        if (operand.isObject()) {
+            final var excluded = compileCondition(name, operand);
+            return (present, value) -> present && !excluded.matches(true, value);
+        }
+        final var excluded = new ArrayList<Condition>();
+        if (operand.isArray()) {
+            operand.forEach(item -> excluded.add(compileCondition(name, item)));
+        } else {
+            excluded.add(compileCondition(name, operand));
+        }
+        return (present, value) -> {
+            if (!present) {
+                return false;
+            }
+            for (final var condition : excluded) {
+                if (condition.matches(true, value)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private static Condition numeric(final String name, final JsonNode operand) {
+        if (!operand.isArray() || operand.size() % 2 != 0 || operand.size() == 0) {
+            throw new IllegalArgumentException("Operator numeric of attribute " + name
+                    + " expects pairs of comparison and number");
+        }
+        final var comparisons = new ArrayList<Predicate<Double>>();
+        for (var i = 0; i < operand.size(); i += 2) {
+            final var comparison = operand.get(i).asText();
+            if (!operand.get(i + 1).isNumber()) {
+                throw new IllegalArgumentException("Operator numeric of attribute " + name + " expects numbers");
+            }
+            final var bound = operand.get(i + 1).doubleValue();
+            switch (comparison) {
+                case "=":
+                    comparisons.add(number -> number == bound);
+                    break;
+                case ">":
+                    comparisons.add(number -> number > bound);
+                    break;
+                case ">=":
+                    comparisons.add(number -> number >= bound);
+                    break;
+                case "<":
+                    comparisons.add(number -> number < bound);
+                    break;
+                case "<=":
+                    comparisons.add(number -> number <= bound);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported numeric comparison " + comparison
+                            + " for attribute " + name);
+            }
+        }
+        return (present, value) -> {
+            final var number = toNumber(value);
+            if (number == null) {
+                return false;
+            }
+            for (final var comparison : comparisons) {
+                if (!comparison.test(number)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private static Double toNumber(final Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof String) {
+            try {
+                return Double.valueOf((String) value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    @FunctionalInterface
+    private interface Condition {
+        boolean matches(boolean present, Object value);
+    }
+
+    @FunctionalInterface
+    private interface TextPredicate {
+        boolean test(String value, String expected);
+    }
+
+    private static class AttributeMatcher {
+
+        private final String name;
+        private final Condition[] conditions;
+
+        AttributeMatcher(final String name, final Condition[] conditions) {
+            this.name = name;
+            this.conditions = conditions;
+        }
+
+        boolean matches(final Map<String, Object> attributes) {
+            final var present = attributes.containsKey(this.name);
+            final var value = present ? attributes.get(this.name) : null;
+            for (final var condition : this.conditions) {
+                if (condition.matches(present, value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
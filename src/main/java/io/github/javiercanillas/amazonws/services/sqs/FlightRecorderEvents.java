@@ -0,0 +1,163 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import io.awspring.cloud.messaging.listener.SqsMessageDeletionPolicy;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.util.List;
+
+/**
+ * JDK Flight Recorder events following messages through the in-memory queues, so that a recording shows queueing and
+ * listener latency alongside GC and thread activity. Every event is created only to check whether it is enabled, an
+ * allocation the JIT compiler removes, so disabled events cost next to nothing.
+ */
+final class FlightRecorderEvents {
+
+    private static final String CATEGORY = "In-Memory SQS";
+
+    private FlightRecorderEvents() {
+    }
+
+    static void enqueued(final String queueName, final int queueSize, final long delayInMillis) {
+        final var event = new MessageEnqueued();
+        if (event.shouldCommit()) {
+            event.queue = queueName;
+            event.queueSize = queueSize;
+            event.delay = delayInMillis;
+            event.commit();
+        }
+    }
+
+    /**
+     * @param entries entries just taken, still holding the time they became visible
+     */
+    static void delivered(final String queueName, final List<SqsInstance.Entry> entries) {
+        if (entries.isEmpty() || !new MessageDelivered().isEnabled()) {
+            return;
+        }
+        final var now = System.nanoTime();
+        for (final var entry : entries) {
+            delivered(queueName, now - entry.getConsumeOnTimeInNanos());
+        }
+    }
+
+    static void delivered(final String queueName, final long queueTimeInNanos) {
+        final var event = new MessageDelivered();
+        if (event.shouldCommit()) {
+            event.queue = queueName;
+            event.queueTime = queueTimeInNanos;
+            event.commit();
+        }
+    }
+
+    static void requeued(final String queueName, final boolean expired) {
+        final var event = new MessageRequeued();
+        if (event.shouldCommit()) {
+            event.queue = queueName;
+            event.expired = expired;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return an event already begun if listener invocations are recorded, null otherwise
+     */
+    static ListenerInvoked beginListener(final ConsumeMethodHolder listener, final SqsMessageDeletionPolicy deletionPolicy,
+                                         final int messages) {
+        final var event = new ListenerInvoked();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.listener = listener.toString();
+        event.deletionPolicy = deletionPolicy.name();
+        event.messages = messages;
+        event.begin();
+        return event;
+    }
+
+    static void endListener(final ListenerInvoked event, final List<Boolean> removed) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.removed = (int) removed.stream().filter(Boolean.TRUE::equals).count();
+            event.commit();
+        }
+    }
+
+    @Name("io.github.javiercanillas.sqs.MessageEnqueued")
+    @Label("Message Enqueued")
+    @Category(CATEGORY)
+    @Description("A message was sent to an in-memory queue")
+    @StackTrace(false)
+    static class MessageEnqueued extends Event {
+
+        @Label("Queue")
+        String queue;
+
+        @Label("Queue Size")
+        @Description("Messages sent to the queue and not deleted yet, this one included")
+        int queueSize;
+
+        @Label("Delay")
+        @Timespan(Timespan.MILLISECONDS)
+        long delay;
+    }
+
+    @Name("io.github.javiercanillas.sqs.MessageDelivered")
+    @Label("Message Delivered")
+    @Category(CATEGORY)
+    @Description("A message was taken from an in-memory queue, for a listener or a receive")
+    @StackTrace(false)
+    static class MessageDelivered extends Event {
+
+        @Label("Queue")
+        String queue;
+
+        @Label("Queue Time")
+        @Description("Time the message waited in the queue since it became visible")
+        @Timespan(Timespan.NANOSECONDS)
+        long queueTime;
+    }
+
+    @Name("io.github.javiercanillas.sqs.MessageRequeued")
+    @Label("Message Requeued")
+    @Category(CATEGORY)
+    @Description("A message taken by a listener was put back in its in-memory queue, or discarded if expired")
+    @StackTrace(false)
+    static class MessageRequeued extends Event {
+
+        @Label("Queue")
+        String queue;
+
+        @Label("Expired")
+        boolean expired;
+    }
+
+    @Name("io.github.javiercanillas.sqs.ListenerInvoked")
+    @Label("Listener Invoked")
+    @Category(CATEGORY)
+    @Description("A listener was invoked, lasting until its outcome was known")
+    @StackTrace(false)
+    static class ListenerInvoked extends Event {
+
+        @Label("Listener")
+        String listener;
+
+        @Label("Deletion Policy")
+        String deletionPolicy;
+
+        @Label("Messages")
+        int messages;
+
+        @Label("Removed")
+        @Description("Messages the outcome removed from the queue")
+        int removed;
+    }
+}
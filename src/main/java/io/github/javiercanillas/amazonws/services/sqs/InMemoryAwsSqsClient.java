@@ -1,37 +1,155 @@
 package io.github.javiercanillas.amazonws.services.sqs;
 
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.handlers.AsyncHandler;
 import com.amazonaws.services.sqs.AmazonSQSAsyncClient;
+import com.amazonaws.services.sqs.model.AmazonSQSException;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.BatchEntryIdsNotDistinctException;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
 import com.amazonaws.services.sqs.model.ChangeMessageVisibilityRequest;
 import com.amazonaws.services.sqs.model.ChangeMessageVisibilityResult;
+import com.amazonaws.services.sqs.model.CreateQueueRequest;
+import com.amazonaws.services.sqs.model.CreateQueueResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageResult;
+import com.amazonaws.services.sqs.model.EmptyBatchRequestException;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
+import com.amazonaws.services.sqs.model.GetQueueUrlRequest;
+import com.amazonaws.services.sqs.model.GetQueueUrlResult;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.QueueAttributeName;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+import com.amazonaws.services.sqs.model.TooManyEntriesInBatchRequestException;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.Md5Utils;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.awspring.cloud.messaging.core.MessageAttributeDataTypes;
+import io.awspring.cloud.messaging.core.QueueMessageUtils;
+import io.awspring.cloud.messaging.core.SqsMessageHeaders;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.MessagingException;
+import org.springframework.util.MimeType;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.function.Function;
 
 /**
- * Instances of this class are used to simulate an AWS SQS client. Right now, this class only mimics the change of
- * a message visibility timeout since it is the only method required by the SQS solution.
+ * Instances of this class are used to simulate an AWS SQS client. Besides the change of a message visibility timeout
+ * required by the SQS listener solution, the data-plane calls (send, receive and delete, their batch variants, queue
+ * URLs and attributes) are served by the queues of the {@link InMemoryQueueMessagingTemplate} it is bound to.
  *
+ * Queue URLs are made of {@link #QUEUE_URL_PREFIX} and the queue name, and queues are created on first use, as the
+ * template does.
+ *
+ * Asynchronous variants complete on the calling thread whenever the result is already available. Long-poll receives
+ * with nothing to receive are parked without holding a thread, and completed on a small internal executor, so the
+ * number of concurrent pollers is not bound to the number of threads.
  */
 @Getter
 @Setter
 @SuppressWarnings("deprecation")
 public class InMemoryAwsSqsClient extends AmazonSQSAsyncClient {
 
+    public static final String QUEUE_URL_PREFIX = "https://sqs.in-memory.localhost/000000000000/";
+    public static final int MAX_NUMBER_OF_MESSAGES = 10;
+    public static final int MAX_WAIT_TIME_SECONDS = 20;
+    public static final int MAX_BATCH_ENTRIES = 10;
+    public static final int MAX_VISIBILITY_TIMEOUT_SECONDS = 43_200;
+    private static final int ASYNC_THREADS = 2;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * Headers of a message that are not sent as message attributes.
+     */
+    private static final Set<String> RESERVED_HEADERS = Set.of(MessageHeaders.TIMESTAMP, "MessageId",
+            "ReceiptHandle", "sourceData", SqsMessageHeaders.SQS_DELAY_HEADER,
+            SqsMessageHeaders.SQS_SENT_TIMESTAMP, SqsMessageHeaders.SQS_APPROXIMATE_RECEIVE_COUNT,
+            SqsMessageHeaders.SQS_APPROXIMATE_FIRST_RECEIVE_TIMESTAMP, "SenderId");
+
     /**
      * This map contains the mapping between messages and the assigned timeouts.
      */
     private final ConcurrentHashMap<String, Integer> handles;
 
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile InMemoryQueueMessagingTemplate template;
+
+    /**
+     * Completes parked receives and runs their timers.
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final ScheduledExecutorService asyncExecutor;
+
     /**
      * Default constructor.
      */
     public InMemoryAwsSqsClient() {
         this.handles = new ConcurrentHashMap<>();
+        final var executor = new ScheduledThreadPoolExecutor(ASYNC_THREADS, runnable -> {
+            final var thread = new Thread(runnable, "in-memory-sqs-async");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // parked receives cancel their timers once completed, which shouldn't linger in the queue
+        executor.setRemoveOnCancelPolicy(true);
+        this.asyncExecutor = executor;
     }
 
     /**
-     * Changes the visibility timeout of a message.
+     * Binds this client to the template holding the queues it serves.
+     *
+     * @param queueMessagingTemplate the template
+     */
+    void bind(final InMemoryQueueMessagingTemplate queueMessagingTemplate) {
+        this.template = queueMessagingTemplate;
+    }
+
+    /**
+     * Changes the visibility timeout of a message. Messages received through {@link #receiveMessage} are hidden for
+     * the given time from now on, while for the ones handed to listeners the timeout is applied once they are put
+     * back in the queue.
      *
      * @param request this objet contains information required to change the timeout.
      *
@@ -40,10 +158,45 @@ public class InMemoryAwsSqsClient extends AmazonSQSAsyncClient {
     @Override
     public ChangeMessageVisibilityResult changeMessageVisibility(final ChangeMessageVisibilityRequest request) {
         var handle = request.getReceiptHandle();
-        handles.put(handle, request.getVisibilityTimeout());
+        if (handle == null || handle.isEmpty()) {
+            throw receiptHandleIsInvalid(handle);
+        }
+        final var visibilityTimeout = request.getVisibilityTimeout();
+        if (visibilityTimeout == null || visibilityTimeout < 0 || visibilityTimeout > MAX_VISIBILITY_TIMEOUT_SECONDS) {
+            throw invalidParameter("VisibilityTimeout must be between 0 and " + MAX_VISIBILITY_TIMEOUT_SECONDS);
+        }
+        if (request.getQueueUrl() == null || this.template == null
+                || !this.queueOf(request.getQueueUrl()).changeVisibility(handle,
+                        Duration.ofSeconds(request.getVisibilityTimeout()))) {
+            handles.put(handle, request.getVisibilityTimeout());
+        }
         return new ChangeMessageVisibilityResult();
     }
 
+    /**
+     * Changes the visibility timeout of several messages, as {@link #changeMessageVisibility} does for each of them.
+     * Entries that can't be changed are reported as failed, without keeping the others from being changed.
+     */
+    @Override
+    public ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(
+            final ChangeMessageVisibilityBatchRequest request) {
+        final var entries = request.getEntries();
+        checkBatch(entries, ChangeMessageVisibilityBatchRequestEntry::getId);
+        queueNameOf(request.getQueueUrl());
+        final var results = new ArrayList<ChangeMessageVisibilityBatchResultEntry>(entries.size());
+        final var failures = new ArrayList<BatchResultErrorEntry>();
+        for (final var entry : entries) {
+            try {
+                this.changeMessageVisibility(new ChangeMessageVisibilityRequest(request.getQueueUrl(),
+                        entry.getReceiptHandle(), entry.getVisibilityTimeout()));
+                results.add(new ChangeMessageVisibilityBatchResultEntry().withId(entry.getId()));
+            } catch (AmazonSQSException e) {
+                failures.add(failureOf(entry.getId(), e));
+            }
+        }
+        return new ChangeMessageVisibilityBatchResult().withSuccessful(results).withFailed(failures);
+    }
+
     /**
      * Getter.
      *
@@ -54,4 +207,480 @@ public class InMemoryAwsSqsClient extends AmazonSQSAsyncClient {
     public Integer getHandle(final String aKey) {
         return this.handles.get(aKey);
     }
+
+    @Override
+    public GetQueueUrlResult getQueueUrl(final GetQueueUrlRequest request) {
+        this.queueOf(request.getQueueName());
+        return new GetQueueUrlResult().withQueueUrl(QUEUE_URL_PREFIX + request.getQueueName());
+    }
+
+    @Override
+    public CreateQueueResult createQueue(final CreateQueueRequest request) {
+        this.queueOf(request.getQueueName());
+        return new CreateQueueResult().withQueueUrl(QUEUE_URL_PREFIX + request.getQueueName());
+    }
+
+    @Override
+    public GetQueueAttributesResult getQueueAttributes(final GetQueueAttributesRequest request) {
+        final var queueName = queueNameOf(request.getQueueUrl());
+        final var sqsManager = this.queueOf(request.getQueueUrl());
+        final var statistics = sqsManager.getStatistics();
+        final var attributes = new HashMap<String, String>();
+        attributes.put(QueueAttributeName.ApproximateNumberOfMessages.toString(),
+                String.valueOf(statistics.getVisible()));
+        // messages received through the API are held as delayed ones, but SQS counts them as not visible
+        attributes.put(QueueAttributeName.ApproximateNumberOfMessagesNotVisible.toString(),
+                String.valueOf(statistics.getInFlight() + statistics.getReceived()));
+        attributes.put(QueueAttributeName.ApproximateNumberOfMessagesDelayed.toString(),
+                String.valueOf(Math.max(0, statistics.getDelayed() - statistics.getReceived())));
+        attributes.put(QueueAttributeName.MessageRetentionPeriod.toString(),
+                String.valueOf(sqsManager.getRetentionPeriod().getSeconds()));
+        attributes.put(QueueAttributeName.VisibilityTimeout.toString(),
+                String.valueOf(sqsManager.getVisibilityTimeout().getSeconds()));
+        attributes.put(QueueAttributeName.DelaySeconds.toString(), "0");
+        attributes.put(QueueAttributeName.ReceiveMessageWaitTimeSeconds.toString(), "0");
+        attributes.put(QueueAttributeName.QueueArn.toString(), "arn:aws:sqs:in-memory:000000000000:" + queueName);
+        final var names = request.getAttributeNames();
+        if (names != null && !names.isEmpty() && !names.contains(QueueAttributeName.All.toString())) {
+            attributes.keySet().retainAll(names);
+        }
+        return new GetQueueAttributesResult().withAttributes(attributes);
+    }
+
+    @Override
+    public SendMessageResult sendMessage(final SendMessageRequest request) {
+        this.admit(request.getQueueUrl());
+        final var message = this.send(request.getQueueUrl(), request.getMessageBody(),
+                request.getMessageAttributes(), request.getDelaySeconds());
+        return new SendMessageResult()
+                .withMessageId(message.getMessageId())
+                .withMD5OfMessageBody(message.getMD5OfBody());
+    }
+
+    @Override
+    public SendMessageBatchResult sendMessageBatch(final SendMessageBatchRequest request) {
+        final var entries = request.getEntries();
+        checkBatch(entries, SendMessageBatchRequestEntry::getId);
+        this.admit(request.getQueueUrl());
+        final var results = new ArrayList<SendMessageBatchResultEntry>(entries.size());
+        final var failures = new ArrayList<BatchResultErrorEntry>();
+        for (final var entry : entries) {
+            // as SQS does, an entry that can't be sent doesn't keep the others from being sent
+            try {
+                final var message = this.send(request.getQueueUrl(), entry.getMessageBody(),
+                        entry.getMessageAttributes(), entry.getDelaySeconds());
+                results.add(new SendMessageBatchResultEntry()
+                        .withId(entry.getId())
+                        .withMessageId(message.getMessageId())
+                        .withMD5OfMessageBody(message.getMD5OfBody()));
+            } catch (AmazonSQSException e) {
+                failures.add(failureOf(entry.getId(), e));
+            } catch (MessagingException e) {
+                failures.add(failureOf(entry.getId(), internalFailure(e)));
+            }
+        }
+        return new SendMessageBatchResult().withSuccessful(results).withFailed(failures);
+    }
+
+    /**
+     * Receives messages, waiting up to {@code waitTimeSeconds} for a first one. The calling thread is blocked while
+     * waiting, as it happens with the real client.
+     */
+    @Override
+    public ReceiveMessageResult receiveMessage(final ReceiveMessageRequest request) {
+        final var maxNumberOfMessages = maxNumberOfMessagesOf(request);
+        final var waitTime = waitTimeOf(request);
+        final var sqsManager = this.admit(request.getQueueUrl());
+        final List<SqsInstance.Delivery> deliveries;
+        try {
+            deliveries = sqsManager.receive(maxNumberOfMessages, waitTime, visibilityTimeoutOf(request, sqsManager));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException(e);
+        }
+        return toResult(deliveries);
+    }
+
+    /**
+     * Receives messages without blocking the calling thread. Unlike the real client, no thread is taken from a pool
+     * while waiting for messages.
+     */
+    @Override
+    public Future<ReceiveMessageResult> receiveMessageAsync(
+            final ReceiveMessageRequest request,
+            final AsyncHandler<ReceiveMessageRequest, ReceiveMessageResult> asyncHandler) {
+        return withHandler(request, asyncHandler, this.receive(request));
+    }
+
+    /**
+     * Same as {@link #receiveMessageAsync(ReceiveMessageRequest, AsyncHandler)}, without any handler.
+     */
+    CompletableFuture<ReceiveMessageResult> receive(final ReceiveMessageRequest request) {
+        try {
+            final var sqsManager = this.admit(request.getQueueUrl());
+            return sqsManager
+                    .receiveAsync(maxNumberOfMessagesOf(request), waitTimeOf(request),
+                            visibilityTimeoutOf(request, sqsManager), this.asyncExecutor)
+                    .thenApply(InMemoryAwsSqsClient::toResult);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public Future<SendMessageResult> sendMessageAsync(
+            final SendMessageRequest request,
+            final AsyncHandler<SendMessageRequest, SendMessageResult> asyncHandler) {
+        return completeInline(request, asyncHandler, this::sendMessage);
+    }
+
+    @Override
+    public Future<SendMessageBatchResult> sendMessageBatchAsync(
+            final SendMessageBatchRequest request,
+            final AsyncHandler<SendMessageBatchRequest, SendMessageBatchResult> asyncHandler) {
+        return completeInline(request, asyncHandler, this::sendMessageBatch);
+    }
+
+    @Override
+    public Future<DeleteMessageResult> deleteMessageAsync(
+            final DeleteMessageRequest request,
+            final AsyncHandler<DeleteMessageRequest, DeleteMessageResult> asyncHandler) {
+        return completeInline(request, asyncHandler, this::deleteMessage);
+    }
+
+    @Override
+    public Future<DeleteMessageBatchResult> deleteMessageBatchAsync(
+            final DeleteMessageBatchRequest request,
+            final AsyncHandler<DeleteMessageBatchRequest, DeleteMessageBatchResult> asyncHandler) {
+        return completeInline(request, asyncHandler, this::deleteMessageBatch);
+    }
+
+    @Override
+    public Future<ChangeMessageVisibilityResult> changeMessageVisibilityAsync(
+            final ChangeMessageVisibilityRequest request,
+            final AsyncHandler<ChangeMessageVisibilityRequest, ChangeMessageVisibilityResult> asyncHandler) {
+        return completeInline(request, asyncHandler, this::changeMessageVisibility);
+    }
+
+    @Override
+    public Future<ChangeMessageVisibilityBatchResult> changeMessageVisibilityBatchAsync(
+            final ChangeMessageVisibilityBatchRequest request,
+            final AsyncHandler<ChangeMessageVisibilityBatchRequest, ChangeMessageVisibilityBatchResult> asyncHandler) {
+        return completeInline(request, asyncHandler, this::changeMessageVisibilityBatch);
+    }
+
+    @Override
+    public Future<GetQueueUrlResult> getQueueUrlAsync(
+            final GetQueueUrlRequest request,
+            final AsyncHandler<GetQueueUrlRequest, GetQueueUrlResult> asyncHandler) {
+        return completeInline(request, asyncHandler, this::getQueueUrl);
+    }
+
+    @Override
+    public Future<CreateQueueResult> createQueueAsync(
+            final CreateQueueRequest request,
+            final AsyncHandler<CreateQueueRequest, CreateQueueResult> asyncHandler) {
+        return completeInline(request, asyncHandler, this::createQueue);
+    }
+
+    @Override
+    public Future<GetQueueAttributesResult> getQueueAttributesAsync(
+            final GetQueueAttributesRequest request,
+            final AsyncHandler<GetQueueAttributesRequest, GetQueueAttributesResult> asyncHandler) {
+        return completeInline(request, asyncHandler, this::getQueueAttributes);
+    }
+
+    @Override
+    public void shutdown() {
+        this.asyncExecutor.shutdownNow();
+        super.shutdown();
+    }
+
+    @Override
+    public DeleteMessageResult deleteMessage(final DeleteMessageRequest request) {
+        final var handle = request.getReceiptHandle();
+        if (handle == null || handle.isEmpty() || !this.queueOf(request.getQueueUrl()).delete(handle)) {
+            throw receiptHandleIsInvalid(handle);
+        }
+        return new DeleteMessageResult();
+    }
+
+    @Override
+    public DeleteMessageBatchResult deleteMessageBatch(final DeleteMessageBatchRequest request) {
+        final var entries = request.getEntries();
+        checkBatch(entries, DeleteMessageBatchRequestEntry::getId);
+        final var sqsManager = this.queueOf(request.getQueueUrl());
+        final var results = new ArrayList<DeleteMessageBatchResultEntry>(entries.size());
+        final var failures = new ArrayList<BatchResultErrorEntry>();
+        for (final var entry : entries) {
+            if (sqsManager.delete(entry.getReceiptHandle())) {
+                results.add(new DeleteMessageBatchResultEntry().withId(entry.getId()));
+            } else {
+                failures.add(failureOf(entry.getId(), receiptHandleIsInvalid(entry.getReceiptHandle())));
+            }
+        }
+        return new DeleteMessageBatchResult().withSuccessful(results).withFailed(failures);
+    }
+
+    /**
+     * Runs a call that never waits on the calling thread, completing the future and the handler right away.
+     */
+    private static <Q extends AmazonWebServiceRequest, R> Future<R> completeInline(
+            final Q request, final AsyncHandler<Q, R> asyncHandler, final Function<Q, R> call) {
+        CompletableFuture<R> future;
+        try {
+            future = CompletableFuture.completedFuture(call.apply(request));
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        return withHandler(request, asyncHandler, future);
+    }
+
+    /**
+     * @return a future completed once the handler, if any, has been notified, as the real client does
+     */
+    private static <Q extends AmazonWebServiceRequest, R> Future<R> withHandler(
+            final Q request, final AsyncHandler<Q, R> asyncHandler, final CompletableFuture<R> future) {
+        if (asyncHandler == null) {
+            return future;
+        }
+        return future.whenComplete((result, error) -> {
+            if (error == null) {
+                asyncHandler.onSuccess(request, result);
+            } else {
+                final var cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause()
+                        : error;
+                asyncHandler.onError(cause instanceof Exception
+                        ? (Exception) cause
+                        : new SdkClientException(cause.getMessage(), cause));
+            }
+        });
+    }
+
+    private static ReceiveMessageResult toResult(final List<SqsInstance.Delivery> deliveries) {
+        final var messages = new ArrayList<com.amazonaws.services.sqs.model.Message>(deliveries.size());
+        for (final var delivery : deliveries) {
+            messages.add(toSqsMessage(delivery));
+        }
+        return new ReceiveMessageResult().withMessages(messages);
+    }
+
+    private static int maxNumberOfMessagesOf(final ReceiveMessageRequest request) {
+        final var maxNumberOfMessages = valueOrDefault(request.getMaxNumberOfMessages(), 1);
+        if (maxNumberOfMessages < 1 || maxNumberOfMessages > MAX_NUMBER_OF_MESSAGES) {
+            throw invalidParameter("MaxNumberOfMessages must be between 1 and " + MAX_NUMBER_OF_MESSAGES);
+        }
+        return maxNumberOfMessages;
+    }
+
+    private static Duration waitTimeOf(final ReceiveMessageRequest request) {
+        final var waitTimeSeconds = valueOrDefault(request.getWaitTimeSeconds(), 0);
+        if (waitTimeSeconds < 0 || waitTimeSeconds > MAX_WAIT_TIME_SECONDS) {
+            throw invalidParameter("WaitTimeSeconds must be between 0 and " + MAX_WAIT_TIME_SECONDS);
+        }
+        return Duration.ofSeconds(waitTimeSeconds);
+    }
+
+    private static Duration visibilityTimeoutOf(final ReceiveMessageRequest request, final SqsManager sqsManager) {
+        return request.getVisibilityTimeout() != null
+                ? Duration.ofSeconds(request.getVisibilityTimeout())
+                : sqsManager.getVisibilityTimeout();
+    }
+
+    private com.amazonaws.services.sqs.model.Message send(final String queueUrl, final String body,
+                                                          final Map<String, MessageAttributeValue> attributes,
+                                                          final Integer delaySeconds) {
+        final var queueName = queueNameOf(queueUrl);
+        final var sqsMessage = new com.amazonaws.services.sqs.model.Message()
+                .withMessageId(UUID.randomUUID().toString())
+                .withBody(body)
+                .withMD5OfBody(md5Of(body))
+                .withMessageAttributes(attributes);
+        final Map<String, Object> additionalHeaders = delaySeconds != null
+                ? Map.of(SqsMessageHeaders.SQS_DELAY_HEADER, delaySeconds)
+                : Map.of();
+        try {
+            this.requireTemplate().sendAdmitted(queueName,
+                    QueueMessageUtils.createMessage(sqsMessage, additionalHeaders));
+        } catch (MessageTooLongException e) {
+            throw invalidParameter("One or more parameters are invalid. Reason: Message must be shorter than "
+                    + e.getMaxSize() + " bytes.");
+        }
+        return sqsMessage;
+    }
+
+    /**
+     * Draws whether a request to the queue is throttled, once per request and before any of its entries is applied.
+     *
+     * @return the queue the request is admitted to
+     */
+    private SqsManager admit(final String queueUrl) {
+        final var sqsManager = this.queueOf(queueUrl);
+        try {
+            sqsManager.checkThrottled();
+        } catch (QueueThrottledException e) {
+            throw throttled(e);
+        }
+        return sqsManager;
+    }
+
+    private SqsManager queueOf(final String queueUrl) {
+        return this.requireTemplate().getOrCreateQueue(queueNameOf(queueUrl));
+    }
+
+    private InMemoryQueueMessagingTemplate requireTemplate() {
+        final var bound = this.template;
+        if (bound == null) {
+            throw new IllegalStateException("In-memory SQS client is not bound to an InMemoryQueueMessagingTemplate");
+        }
+        return bound;
+    }
+
+    /**
+     * @param queueUrl a queue URL, or just the queue name
+     * @return the name of the queue
+     */
+    static String queueNameOf(final String queueUrl) {
+        if (queueUrl == null || queueUrl.isEmpty()) {
+            throw invalidParameter("A queue URL is required");
+        }
+        return queueUrl.substring(queueUrl.lastIndexOf('/') + 1);
+    }
+
+    static <T> void checkBatch(final Collection<T> entries, final Function<T, String> idOf) {
+        if (entries == null || entries.isEmpty()) {
+            throw new EmptyBatchRequestException("The batch request doesn't contain any entries");
+        }
+        if (entries.size() > MAX_BATCH_ENTRIES) {
+            throw new TooManyEntriesInBatchRequestException("Maximum number of entries per request are "
+                    + MAX_BATCH_ENTRIES);
+        }
+        final var ids = new HashSet<String>();
+        for (final var entry : entries) {
+            if (!ids.add(idOf.apply(entry))) {
+                throw new BatchEntryIdsNotDistinctException("Id " + idOf.apply(entry) + " repeated");
+            }
+        }
+    }
+
+    private static com.amazonaws.services.sqs.model.Message toSqsMessage(final SqsInstance.Delivery delivery) {
+        final var message = delivery.getMessage();
+        final var headers = message.getHeaders();
+        final var body = bodyOf(message);
+        final var messageId = headers.get("MessageId") instanceof String
+                ? (String) headers.get("MessageId")
+                : String.valueOf(headers.getId());
+        final var attributes = new HashMap<String, String>();
+        attributes.put(SqsMessageHeaders.SQS_SENT_TIMESTAMP, String.valueOf(headers.getTimestamp()));
+        attributes.put(SqsMessageHeaders.SQS_APPROXIMATE_RECEIVE_COUNT, String.valueOf(delivery.getReceiveCount()));
+        attributes.put(SqsMessageHeaders.SQS_APPROXIMATE_FIRST_RECEIVE_TIMESTAMP,
+                String.valueOf(delivery.getFirstReceiveTimeInMillis()));
+        return new com.amazonaws.services.sqs.model.Message()
+                .withMessageId(messageId)
+                .withReceiptHandle(delivery.getReceiptHandle())
+                .withBody(body)
+                .withMD5OfBody(md5Of(body))
+                .withAttributes(attributes)
+                .withMessageAttributes(messageAttributesOf(headers));
+    }
+
+    private static String bodyOf(final Message<?> message) {
+        final var payload = message.getPayload();
+        if (payload instanceof String) {
+            return (String) payload;
+        } else if (payload instanceof byte[]) {
+            return new String((byte[]) payload, StandardCharsets.UTF_8);
+        }
+        try {
+            return OBJECT_MAPPER.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new SdkClientException("Couldn't serialize payload of type " + payload.getClass().getName(), e);
+        }
+    }
+
+    private static Map<String, MessageAttributeValue> messageAttributesOf(final MessageHeaders headers) {
+        final var attributes = new HashMap<String, MessageAttributeValue>();
+        headers.forEach((name, value) -> {
+            if (RESERVED_HEADERS.contains(name) || value == null) {
+                return;
+            }
+            if (value instanceof String || value instanceof UUID || value instanceof MimeType) {
+                attributes.put(name, new MessageAttributeValue()
+                        .withDataType(MessageAttributeDataTypes.STRING)
+                        .withStringValue(value.toString()));
+            } else if (value instanceof Number) {
+                attributes.put(name, new MessageAttributeValue()
+                        .withDataType(MessageAttributeDataTypes.NUMBER + "." + value.getClass().getName())
+                        .withStringValue(value.toString()));
+            } else if (value instanceof ByteBuffer) {
+                attributes.put(name, new MessageAttributeValue()
+                        .withDataType(MessageAttributeDataTypes.BINARY)
+                        .withBinaryValue(((ByteBuffer) value).asReadOnlyBuffer()));
+            } else if (value instanceof byte[]) {
+                attributes.put(name, new MessageAttributeValue()
+                        .withDataType(MessageAttributeDataTypes.BINARY)
+                        .withBinaryValue(ByteBuffer.wrap((byte[]) value)));
+            }
+        });
+        return attributes;
+    }
+
+    static String md5Of(final String body) {
+        return BinaryUtils.toHex(Md5Utils.computeMD5Hash(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static int valueOrDefault(final Integer value, final int defaultValue) {
+        return value != null ? value : defaultValue;
+    }
+
+    private static AmazonSQSException invalidParameter(final String message) {
+        final var exception = new AmazonSQSException(message);
+        exception.setErrorCode("InvalidParameterValue");
+        exception.setStatusCode(400);
+        return exception;
+    }
+
+    /**
+     * Same error SQS gives for receipt handles of messages already deleted, expired or received again since.
+     */
+    static AmazonSQSException receiptHandleIsInvalid(final String receiptHandle) {
+        final var exception = new AmazonSQSException("The input receipt handle \"" + receiptHandle
+                + "\" is not a valid receipt handle.");
+        exception.setErrorCode("ReceiptHandleIsInvalid");
+        exception.setStatusCode(400);
+        return exception;
+    }
+
+    /**
+     * @return the failed entry of a batch result, for the given error
+     */
+    static BatchResultErrorEntry failureOf(final String id, final AmazonSQSException error) {
+        return new BatchResultErrorEntry()
+                .withId(id)
+                .withCode(error.getErrorCode())
+                .withMessage(error.getErrorMessage())
+                .withSenderFault(error.getStatusCode() < 500);
+    }
+
+    /**
+     * Same error SQS gives when it fails on its own side, for a message the queue couldn't take, as when it is
+     * stopped or its shared ring is full.
+     */
+    private static AmazonSQSException internalFailure(final MessagingException cause) {
+        final var exception = new AmazonSQSException(cause.getMessage());
+        exception.setErrorCode("InternalFailure");
+        exception.setStatusCode(500);
+        return exception;
+    }
+
+    /**
+     * Same error SQS gives when throttling, which the AWS SDK retries with a backoff.
+     */
+    private static AmazonSQSException throttled(final QueueThrottledException cause) {
+        final var exception = new AmazonSQSException(cause.getMessage());
+        exception.setErrorCode("RequestThrottled");
+        exception.setStatusCode(403);
+        return exception;
+    }
 }
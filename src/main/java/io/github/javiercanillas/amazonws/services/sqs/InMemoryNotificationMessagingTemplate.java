@@ -0,0 +1,228 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import io.awspring.cloud.messaging.core.NotificationMessagingTemplate;
+import io.awspring.cloud.messaging.core.TopicMessageChannel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.core.DestinationResolver;
+import org.springframework.messaging.core.MessagePostProcessor;
+import org.springframework.messaging.support.GenericMessage;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory replacement of {@link NotificationMessagingTemplate}. Topics live only in this template, and publishing to
+ * one of them delivers the message to every subscribed in-memory queue whose filter policy accepts it.
+ *
+ * A single immutable message is built per publication and shared by every subscribed queue, so the cost of a fan-out
+ * doesn't grow with the size of the payload.
+ */
+@Slf4j
+public class InMemoryNotificationMessagingTemplate extends NotificationMessagingTemplate {
+
+    private final InMemoryQueueMessagingTemplate queueMessagingTemplate;
+
+    private final Map<String, List<Subscription>> topics;
+
+    private final LongAdder failedDeliveries;
+
+    public InMemoryNotificationMessagingTemplate(final InMemoryQueueMessagingTemplate queueMessagingTemplate) {
+        // there is no real SNS client behind, topic names are used as they come
+        super(null, (DestinationResolver<String>) name -> name, null);
+        Objects.requireNonNull(queueMessagingTemplate, "queueMessagingTemplate must not be null");
+        this.queueMessagingTemplate = queueMessagingTemplate;
+        this.topics = new ConcurrentHashMap<>();
+        this.failedDeliveries = new LongAdder();
+    }
+
+    /**
+     * Subscribes a queue to a topic, receiving every message published to it.
+     *
+     * @param topicName name of the topic
+     * @param queueName name of the in-memory queue
+     */
+    public void subscribe(final String topicName, final String queueName) {
+        this.subscribe(topicName, queueName, FilterPolicy.ACCEPT_ALL);
+    }
+
+    /**
+     * Subscribes a queue to a topic, receiving only the messages accepted by the given filter policy.
+     *
+     * @param topicName name of the topic
+     * @param queueName name of the in-memory queue
+     * @param filterPolicy JSON filter policy, as it would be set on an SNS subscription
+     */
+    public void subscribe(final String topicName, final String queueName, final String filterPolicy) {
+        this.subscribe(topicName, queueName, FilterPolicy.compile(filterPolicy));
+    }
+
+    /**
+     * Subscribes a queue to a topic, receiving only the messages accepted by the given filter policy. A queue
+     * subscribed twice to the same topic has its filter policy replaced.
+     *
+     * @param topicName name of the topic
+     * @param queueName name of the in-memory queue
+     * @param filterPolicy compiled filter policy
+     */
+    public void subscribe(final String topicName, final String queueName, final FilterPolicy filterPolicy) {
+        Objects.requireNonNull(topicName, "topicName must not be null");
+        Objects.requireNonNull(queueName, "queueName must not be null");
+        Objects.requireNonNull(filterPolicy, "filterPolicy must not be null");
+        log.info("Subscribing queue {} to topic {} with filter policy {}", queueName, topicName, filterPolicy);
+        final var subscriptions = this.topics.computeIfAbsent(topicName, k -> new CopyOnWriteArrayList<>());
+        synchronized (subscriptions) {
+            subscriptions.removeIf(subscription -> subscription.queueName.equals(queueName));
+            subscriptions.add(new Subscription(queueName, filterPolicy));
+        }
+    }
+
+    /**
+     * @param topicName name of the topic
+     * @param queueName name of the in-memory queue
+     * @return true if the queue was subscribed to the topic
+     */
+    public boolean unsubscribe(final String topicName, final String queueName) {
+        final var subscriptions = this.topics.get(topicName);
+        if (subscriptions == null) {
+            return false;
+        }
+        synchronized (subscriptions) {
+            return subscriptions.removeIf(subscription -> subscription.queueName.equals(queueName));
+        }
+    }
+
+    /**
+     * Delivers a message to every queue subscribed to the given topic whose filter policy accepts it. The very same
+     * message instance is handed to every queue. As SNS does, each subscription is delivered to on its own: a queue
+     * rejecting the message doesn't keep the others from getting it, and is counted in {@link #getFailedDeliveries()}.
+     *
+     * @param topicName name of the topic
+     * @param message the message to publish
+     * @return number of queues the message was delivered to
+     */
+    public int publish(final String topicName, final Message<?> message) {
+        Objects.requireNonNull(message, "message must not be null");
+        final var subscriptions = this.topics.getOrDefault(topicName, Collections.emptyList());
+        var delivered = 0;
+        var failed = 0;
+        for (final var subscription : subscriptions) {
+            if (subscription.filterPolicy.test(message.getHeaders())) {
+                try {
+                    this.queueMessagingTemplate.send(subscription.queueName, message);
+                    delivered++;
+                } catch (MessagingException e) {
+                    log.warn("Message published to topic {} couldn't be delivered to queue {}", topicName,
+                            subscription.queueName, e);
+                    failed++;
+                }
+            }
+        }
+        if (failed > 0) {
+            this.failedDeliveries.add(failed);
+        }
+        log.trace("Message published to topic {} was delivered to {} queues, {} failed", topicName, delivered,
+                failed);
+        return delivered;
+    }
+
+    /**
+     * @return number of deliveries to subscribed queues that failed since this template was created
+     */
+    public long getFailedDeliveries() {
+        return this.failedDeliveries.sum();
+    }
+
+    @Override
+    protected TopicMessageChannel resolveMessageChannel(final String physicalResourceIdentifier) {
+        return new InMemoryTopicMessageChannel(physicalResourceIdentifier);
+    }
+
+    @Override
+    public void sendNotification(final String destinationName, final Object message, final String subject) {
+        this.convertAndSend(destinationName, message, subjectHeaders(subject));
+    }
+
+    @Override
+    public void sendNotification(final Object message, final String subject) {
+        final var destination = (InMemoryTopicMessageChannel) this.getRequiredDefaultDestination();
+        this.convertAndSend(destination.topicName, message, subjectHeaders(subject));
+    }
+
+    @Override
+    public void send(final String destinationName, final Message<?> message) {
+        this.publish(destinationName, message);
+    }
+
+    @Override
+    public <T> void convertAndSend(final String destinationName, final T payload) {
+        this.convertAndSend(destinationName, payload, (Map<String, Object>) null);
+    }
+
+    @Override
+    public <T> void convertAndSend(final String destinationName, final T payload, final Map<String, Object> headers) {
+        var id = UUID.randomUUID().toString();
+        Map<String, Object> newHeaders = new HashMap<>();
+        if (headers != null) {
+            newHeaders.putAll(headers);
+        }
+        newHeaders.put("id", id);
+        newHeaders.put("ReceiptHandle", id);
+        this.publish(destinationName, new GenericMessage<>(payload, newHeaders));
+    }
+
+    @Override
+    public <T> void convertAndSend(final String destinationName, final T payload,
+                                   final MessagePostProcessor postProcessor) {
+        // To simplify, we will do nothing with the postProcessor
+        this.convertAndSend(destinationName, payload);
+    }
+
+    @Override
+    public <T> void convertAndSend(final String destinationName, final T payload, final Map<String, Object> headers,
+                                   final MessagePostProcessor postProcessor) {
+        // To simplify, we will do nothing with the postProcessor
+        this.convertAndSend(destinationName, payload, headers);
+    }
+
+    private static Map<String, Object> subjectHeaders(final String subject) {
+        return subject != null
+                ? Collections.singletonMap(TopicMessageChannel.NOTIFICATION_SUBJECT_HEADER, subject)
+                : null;
+    }
+
+    private static class Subscription {
+
+        private final String queueName;
+        private final FilterPolicy filterPolicy;
+
+        Subscription(final String queueName, final FilterPolicy filterPolicy) {
+            this.queueName = queueName;
+            this.filterPolicy = filterPolicy;
+        }
+    }
+
+    private class InMemoryTopicMessageChannel extends TopicMessageChannel {
+
+        private final String topicName;
+
+        InMemoryTopicMessageChannel(final String topicName) {
+            super(null, topicName);
+            this.topicName = topicName;
+        }
+
+        @Override
+        protected boolean sendInternal(final Message<?> message, final long timeout) {
+            publish(this.topicName, message);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Actuator endpoint looking inside the in-memory queues, available when Spring Boot Actuator is on the classpath. It
+ * lists the queues with their counters, peeks at the next messages of a queue without consuming them, and purges a
+ * queue. Unknown queues are answered with a 404.
+ */
+@Endpoint(id = "sqs")
+public class InMemoryQueueEndpoint {
+
+    static final int DEFAULT_PEEK = 10;
+
+    private final InMemoryQueueMessagingTemplate queueMessagingTemplate;
+
+    public InMemoryQueueEndpoint(final InMemoryQueueMessagingTemplate queueMessagingTemplate) {
+        Objects.requireNonNull(queueMessagingTemplate, "queueMessagingTemplate must not be null");
+        this.queueMessagingTemplate = queueMessagingTemplate;
+    }
+
+    /**
+     * @return the counters of every known queue, by queue name
+     */
+    @ReadOperation
+    public Map<String, QueueStatistics> queues() {
+        return this.queueMessagingTemplate.getStatistics();
+    }
+
+    /**
+     * @param queueName name of the queue
+     * @param peek maximum number of visible messages to look at, ten if not given
+     * @return the counters of the queue along with its next visible messages, or null if unknown
+     */
+    @ReadOperation
+    public Map<String, Object> queue(@Selector final String queueName, @Nullable final Integer peek) {
+        try {
+            final var details = new LinkedHashMap<String, Object>();
+            details.put("statistics", this.queueMessagingTemplate.getStatistics(queueName));
+            details.put("messages", this.queueMessagingTemplate.peek(queueName, peek != null ? peek : DEFAULT_PEEK)
+                    .stream()
+                    .map(InMemoryQueueEndpoint::toDetail)
+                    .collect(Collectors.toList()));
+            return details;
+        } catch (MessagingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param queueName name of the queue
+     * @return the number of messages discarded, or null if unknown
+     */
+    @DeleteOperation
+    public Map<String, Object> purge(@Selector final String queueName) {
+        try {
+            return Map.of("purged", this.queueMessagingTemplate.purge(queueName));
+        } catch (MessagingException e) {
+            return null;
+        }
+    }
+
+    private static Map<String, Object> toDetail(final Message<?> message) {
+        final var detail = new LinkedHashMap<String, Object>();
+        detail.put("id", String.valueOf(message.getHeaders().getId()));
+        detail.put("headers", message.getHeaders().entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> String.valueOf(entry.getValue()))));
+        detail.put("payload", String.valueOf(message.getPayload()));
+        return detail;
+    }
+}
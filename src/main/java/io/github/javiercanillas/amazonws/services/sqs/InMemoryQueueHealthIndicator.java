@@ -0,0 +1,48 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Reports the in-memory queues as down while some listener is stuck, as found by the watchdog, so that a queue
+ * silently backing up is noticed. Available when Spring Boot Actuator is on the classpath.
+ */
+public class InMemoryQueueHealthIndicator extends AbstractHealthIndicator {
+
+    private final InMemoryQueueMessagingTemplate queueMessagingTemplate;
+
+    public InMemoryQueueHealthIndicator(final InMemoryQueueMessagingTemplate queueMessagingTemplate) {
+        super("In-memory SQS health check failed");
+        Objects.requireNonNull(queueMessagingTemplate, "queueMessagingTemplate must not be null");
+        this.queueMessagingTemplate = queueMessagingTemplate;
+    }
+
+    @Override
+    protected void doHealthCheck(final Health.Builder builder) {
+        final var stuckListeners = this.queueMessagingTemplate.getStuckListeners();
+        if (stuckListeners.isEmpty()) {
+            builder.up();
+        } else {
+            builder.down().withDetail("stuckListeners", stuckListeners.stream()
+                    .map(InMemoryQueueHealthIndicator::toDetail)
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    private static Map<String, Object> toDetail(final StuckListener stuckListener) {
+        final var detail = new LinkedHashMap<String, Object>();
+        detail.put("queue", stuckListener.getQueue());
+        detail.put("listener", stuckListener.getListener());
+        detail.put("thread", stuckListener.getThread());
+        detail.put("duration", stuckListener.getDuration().toString());
+        detail.put("stackTrace", stuckListener.getStackTrace().stream()
+                .map(StackTraceElement::toString)
+                .collect(Collectors.toList()));
+        return detail;
+    }
+}
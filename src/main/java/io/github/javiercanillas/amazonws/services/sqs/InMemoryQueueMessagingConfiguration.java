@@ -1,10 +1,14 @@
 package io.github.javiercanillas.amazonws.services.sqs;
 
 import io.awspring.cloud.messaging.listener.QueueMessageHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.net.InetSocketAddress;
+
 /**
  * This configuration class presents an internal implementation of SQS. It will be enabled by default when this property
  * is set as false. This property should match with the one enabling it in `io.awspring.cloud.autoconfigure.messaging.SqsAutoConfiguration`
@@ -13,11 +17,13 @@ import org.springframework.context.annotation.Configuration;
  */
 @ConditionalOnProperty(value = "cloud.aws.sqs.enabled", havingValue = "false")
 @Configuration(value = "Mocked SQS spring configuration")
+@EnableConfigurationProperties(InMemoryQueueMessagingProperties.class)
 public class InMemoryQueueMessagingConfiguration {
 
     @Bean
-    public InMemoryQueueMessagingTemplate queueMessagingTemplate(final InMemoryAwsSqsClient amazonSqs) {
-        return new InMemoryQueueMessagingTemplate(amazonSqs);
+    public InMemoryQueueMessagingTemplate queueMessagingTemplate(final InMemoryAwsSqsClient amazonSqs,
+                                                                 final InMemoryQueueMessagingProperties properties) {
+        return new InMemoryQueueMessagingTemplate(amazonSqs, properties);
     }
 
     @Bean
@@ -35,5 +41,63 @@ public class InMemoryQueueMessagingConfiguration {
         return new QueueMessageHandler();
     }
 
+    /**
+     * In-memory SNS topics, fanning out to the in-memory queues. It will be enabled when `cloud.aws.sns.enabled` is also
+     * set as false, matching the property of `io.awspring.cloud.autoconfigure.messaging.SnsAutoConfiguration`.
+     */
+    @Bean
+    @ConditionalOnProperty(value = "cloud.aws.sns.enabled", havingValue = "false")
+    public InMemoryNotificationMessagingTemplate notificationMessagingTemplate(
+            final InMemoryQueueMessagingTemplate queueMessagingTemplate) {
+        return new InMemoryNotificationMessagingTemplate(queueMessagingTemplate);
+    }
+
+    /**
+     * SQS-compatible HTTP endpoint, only when {@code cloud.aws.sqs.in-memory.http.enabled} is set as true. It takes
+     * the template only to be created once the client is bound to its queues.
+     */
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    @ConditionalOnProperty(value = "cloud.aws.sqs.in-memory.http.enabled", havingValue = "true")
+    public InMemorySqsHttpServer inMemorySqsHttpServer(final InMemoryAwsSqsClient amazonSqs,
+                                                       final InMemoryQueueMessagingTemplate queueMessagingTemplate,
+                                                       final InMemoryQueueMessagingProperties properties) {
+        final var http = properties.getHttp();
+        return new InMemorySqsHttpServer(amazonSqs, new InetSocketAddress(http.getHost(), http.getPort()),
+                http.getThreads());
+    }
+
+    /**
+     * Reactive facade of the in-memory queues, only when Reactor is on the classpath.
+     */
+    @Configuration(value = "Mocked SQS reactive spring configuration")
+    @ConditionalOnClass(name = "reactor.core.publisher.Flux")
+    public static class Reactive {
+
+        @Bean
+        public InMemoryReactiveQueueReceiver reactiveQueueReceiver(
+                final InMemoryQueueMessagingTemplate queueMessagingTemplate) {
+            return new InMemoryReactiveQueueReceiver(queueMessagingTemplate);
+        }
+    }
+
+    /**
+     * Health and admin endpoint of the in-memory queues, only when Spring Boot Actuator is on the classpath.
+     */
+    @Configuration(value = "Mocked SQS actuator spring configuration")
+    @ConditionalOnClass(name = "org.springframework.boot.actuate.health.HealthIndicator")
+    public static class Actuator {
+
+        @Bean
+        public InMemoryQueueHealthIndicator inMemorySqsHealthIndicator(
+                final InMemoryQueueMessagingTemplate queueMessagingTemplate) {
+            return new InMemoryQueueHealthIndicator(queueMessagingTemplate);
+        }
+
+        @Bean
+        public InMemoryQueueEndpoint inMemorySqsEndpoint(final InMemoryQueueMessagingTemplate queueMessagingTemplate) {
+            return new InMemoryQueueEndpoint(queueMessagingTemplate);
+        }
+    }
+
 
 }
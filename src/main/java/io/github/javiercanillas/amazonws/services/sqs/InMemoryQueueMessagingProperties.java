@@ -0,0 +1,504 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Settings of the in-memory SQS implementation, bound from the {@code cloud.aws.sqs.in-memory} prefix.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "cloud.aws.sqs.in-memory")
+public class InMemoryQueueMessagingProperties {
+
+    private final Shutdown shutdown = new Shutdown();
+
+    private final Watchdog watchdog = new Watchdog();
+
+    private final Http http = new Http();
+
+    private final Shared shared = new Shared();
+
+    /**
+     * Settings applied to queues that are not listed in {@link #queues}, and to the settings listed queues leave
+     * unset.
+     */
+    private final Queue defaults = Queue.withDefaults();
+
+    /**
+     * Settings of specific queues, by queue name, overriding some of the {@link #defaults}.
+     */
+    private final Map<String, Queue> queues = new HashMap<>();
+
+    /**
+     * Interval between two sweeps of expired messages.
+     */
+    private Duration expirationInterval = Duration.ofSeconds(1);
+
+    /**
+     * Interval between two looks at the queues in elastic mode, deciding whether they need more workers.
+     */
+    private Duration scalingInterval = Duration.ofMillis(100);
+
+    /**
+     * @param queueName name of a queue
+     * @return the settings of the given queue, those it leaves unset taken from the defaults
+     */
+    public Queue getQueue(final String queueName) {
+        final var overrides = this.queues.get(queueName);
+        if (overrides == null) {
+            return this.defaults;
+        }
+        final var queue = new Queue();
+        queue.inherit(overrides);
+        queue.inherit(this.defaults);
+        return queue;
+    }
+
+    /**
+     * Settings of a queue. Those left unset by a queue listed in {@link #queues} are taken from {@link #defaults},
+     * which holds every setting.
+     */
+    @Getter
+    @Setter
+    public static class Queue {
+
+        /**
+         * Time a message is kept before being discarded. SQS accepts values from 60 seconds to 14 days.
+         */
+        private Duration retentionPeriod;
+
+        /**
+         * Time a message handed to a listener, or received through the SQS API, remains invisible when nobody
+         * deletes it. Listeners acknowledging later than this have their messages put back in the queue.
+         */
+        private Duration visibilityTimeout;
+
+        /**
+         * Maximum number of messages handed to listeners whose outcome is still pending, as it happens with
+         * listeners returning a {@link java.util.concurrent.CompletionStage}. Messages only waiting to be acknowledged
+         * by listeners that already returned don't count, so a listener that never acknowledges doesn't hold up the
+         * queue.
+         */
+        private Integer maxInFlight;
+
+        /**
+         * Maximum number of visible messages the consumer thread takes at once, to hand them one by one to listeners
+         * handling a single message at a time.
+         */
+        private Integer dispatchBatchSize;
+
+        /**
+         * Maximum number of messages handed at once to batch listeners, those taking a {@code List} of payloads or
+         * of messages.
+         */
+        private Integer batchSize;
+
+        /**
+         * Maximum time spent filling a batch once its first message was taken.
+         */
+        private Duration batchMaxWait;
+
+        /**
+         * Whether the CPU time and bytes allocated by every listener invocation are sampled, to be looked at through
+         * {@link InMemoryQueueMessagingTemplate#getListenerStatistics(String)}.
+         */
+        @Getter(AccessLevel.NONE)
+        private Boolean accounting;
+
+        /**
+         * Whether payloads are serialized when sent and deserialized when received, through the message converter
+         * of the template, as they would be on their way through SQS. It costs what it costs in production, and
+         * keeps listeners from seeing changes made to a payload once sent.
+         */
+        @Getter(AccessLevel.NONE)
+        private Boolean serialization;
+
+        /**
+         * Largest message accepted, counting its payload and headers as SQS counts its body and attributes. Larger
+         * messages are rejected with a {@link MessageTooLongException}. Zero or a negative value accepts any size.
+         */
+        private Integer maxMessageSize;
+
+        private final Workers workers = new Workers();
+
+        private final Compression compression = new Compression();
+
+        private final Faults faults = new Faults();
+
+        /**
+         * @return settings holding the default value of every setting
+         */
+        public static Queue withDefaults() {
+            final var queue = new Queue();
+            queue.retentionPeriod = SqsInstance.DEFAULT_RETENTION_PERIOD;
+            queue.visibilityTimeout = Duration.ofSeconds(30);
+            queue.maxInFlight = 10;
+            queue.dispatchBatchSize = 10;
+            queue.batchSize = 10;
+            queue.batchMaxWait = Duration.ofMillis(100);
+            queue.accounting = false;
+            queue.serialization = false;
+            queue.maxMessageSize = MessageSize.SQS_MAX_MESSAGE_SIZE;
+            queue.workers.inherit(Workers.withDefaults());
+            queue.compression.inherit(Compression.withDefaults());
+            queue.faults.inherit(Faults.withDefaults());
+            return queue;
+        }
+
+        public boolean isAccounting() {
+            return Boolean.TRUE.equals(this.accounting);
+        }
+
+        public boolean isSerialization() {
+            return Boolean.TRUE.equals(this.serialization);
+        }
+
+        /**
+         * Takes every setting left unset from the given settings.
+         */
+        void inherit(final Queue parent) {
+            this.retentionPeriod = orElse(this.retentionPeriod, parent.retentionPeriod);
+            this.visibilityTimeout = orElse(this.visibilityTimeout, parent.visibilityTimeout);
+            this.maxInFlight = orElse(this.maxInFlight, parent.maxInFlight);
+            this.dispatchBatchSize = orElse(this.dispatchBatchSize, parent.dispatchBatchSize);
+            this.batchSize = orElse(this.batchSize, parent.batchSize);
+            this.batchMaxWait = orElse(this.batchMaxWait, parent.batchMaxWait);
+            this.accounting = orElse(this.accounting, parent.accounting);
+            this.serialization = orElse(this.serialization, parent.serialization);
+            this.maxMessageSize = orElse(this.maxMessageSize, parent.maxMessageSize);
+            this.workers.inherit(parent.workers);
+            this.compression.inherit(parent.compression);
+            this.faults.inherit(parent.faults);
+        }
+    }
+
+    /**
+     * Latency and faults added to a queue so that it behaves more like SQS does over the network. Every random
+     * decision is drawn from the seed, so that a run can be repeated.
+     */
+    @Getter
+    @Setter
+    public static class Faults {
+
+        /**
+         * Whether the latency and faults below are applied.
+         */
+        @Getter(AccessLevel.NONE)
+        private Boolean enabled;
+
+        /**
+         * Seed of the random decisions, combined with the queue name so that queues don't mirror each other.
+         */
+        private Long seed;
+
+        /**
+         * Time taken by every send, before the message is added to the queue.
+         */
+        private final Latency sendLatency = new Latency();
+
+        /**
+         * Time taken by every receive, either through the template, the SQS client or the workers of the listeners.
+         */
+        private final Latency receiveLatency = new Latency();
+
+        /**
+         * Share of sends and receives rejected as throttled, from 0 to 1.
+         */
+        private Double throttleRate;
+
+        /**
+         * Share of messages delivered twice, from 0 to 1, as SQS standard queues deliver at least once.
+         */
+        private Double duplicateRate;
+
+        /**
+         * Share of messages held back for a random time up to the reorder window, from 0 to 1, so that they are
+         * delivered after messages sent later.
+         */
+        private Double reorderRate;
+
+        private Duration reorderWindow;
+
+        static Faults withDefaults() {
+            final var faults = new Faults();
+            faults.enabled = false;
+            faults.seed = 0L;
+            faults.sendLatency.inherit(Latency.withDefaults());
+            faults.receiveLatency.inherit(Latency.withDefaults());
+            faults.throttleRate = 0d;
+            faults.duplicateRate = 0d;
+            faults.reorderRate = 0d;
+            faults.reorderWindow = Duration.ofMillis(100);
+            return faults;
+        }
+
+        public boolean isEnabled() {
+            return Boolean.TRUE.equals(this.enabled);
+        }
+
+        void inherit(final Faults parent) {
+            this.enabled = orElse(this.enabled, parent.enabled);
+            this.seed = orElse(this.seed, parent.seed);
+            this.sendLatency.inherit(parent.sendLatency);
+            this.receiveLatency.inherit(parent.receiveLatency);
+            this.throttleRate = orElse(this.throttleRate, parent.throttleRate);
+            this.duplicateRate = orElse(this.duplicateRate, parent.duplicateRate);
+            this.reorderRate = orElse(this.reorderRate, parent.reorderRate);
+            this.reorderWindow = orElse(this.reorderWindow, parent.reorderWindow);
+        }
+    }
+
+    /**
+     * Round-trip time of a call: a minimum, plus an exponentially distributed tail of the given mean, capped at the
+     * maximum.
+     */
+    @Getter
+    @Setter
+    public static class Latency {
+
+        private Duration min;
+
+        private Duration tail;
+
+        private Duration max;
+
+        static Latency withDefaults() {
+            final var latency = new Latency();
+            latency.min = Duration.ZERO;
+            latency.tail = Duration.ZERO;
+            latency.max = Duration.ofSeconds(1);
+            return latency;
+        }
+
+        void inherit(final Latency parent) {
+            this.min = orElse(this.min, parent.min);
+            this.tail = orElse(this.tail, parent.tail);
+            this.max = orElse(this.max, parent.max);
+        }
+    }
+
+    /**
+     * Compression of the large payloads of a queue while they are held, expanded back once delivered.
+     */
+    @Getter
+    @Setter
+    public static class Compression {
+
+        /**
+         * Whether {@code String} and {@code byte[]} payloads above the threshold are compressed.
+         */
+        @Getter(AccessLevel.NONE)
+        private Boolean enabled;
+
+        /**
+         * Bytes a payload must take to be compressed.
+         */
+        private Integer threshold;
+
+        /**
+         * Deflate level, from 1 for the fastest to 9 for the smallest.
+         */
+        private Integer level;
+
+        static Compression withDefaults() {
+            final var compression = new Compression();
+            compression.enabled = false;
+            compression.threshold = 16 * 1024;
+            compression.level = 1;
+            return compression;
+        }
+
+        public boolean isEnabled() {
+            return Boolean.TRUE.equals(this.enabled);
+        }
+
+        void inherit(final Compression parent) {
+            this.enabled = orElse(this.enabled, parent.enabled);
+            this.threshold = orElse(this.threshold, parent.threshold);
+            this.level = orElse(this.level, parent.level);
+        }
+    }
+
+    /**
+     * Threads consuming a queue for its listeners. Setting a maximum above the minimum turns on the elastic mode, where
+     * workers are added while the queue falls behind and retire once idle.
+     */
+    @Getter
+    @Setter
+    public static class Workers {
+
+        /**
+         * Workers always kept consuming from the queue.
+         */
+        private Integer min;
+
+        /**
+         * Maximum number of workers in elastic mode.
+         */
+        private Integer max;
+
+        /**
+         * Visible messages per worker above which another worker is added.
+         */
+        private Integer backlogPerWorker;
+
+        /**
+         * Time the oldest visible message may have been waiting before another worker is added.
+         */
+        private Duration maxMessageAge;
+
+        /**
+         * Time an added worker waits for messages before retiring.
+         */
+        private Duration idleTimeout;
+
+        static Workers withDefaults() {
+            final var workers = new Workers();
+            workers.min = 1;
+            workers.max = 1;
+            workers.backlogPerWorker = 100;
+            workers.maxMessageAge = Duration.ofSeconds(1);
+            workers.idleTimeout = Duration.ofSeconds(30);
+            return workers;
+        }
+
+        void inherit(final Workers parent) {
+            this.min = orElse(this.min, parent.min);
+            this.max = orElse(this.max, parent.max);
+            this.backlogPerWorker = orElse(this.backlogPerWorker, parent.backlogPerWorker);
+            this.maxMessageAge = orElse(this.maxMessageAge, parent.maxMessageAge);
+            this.idleTimeout = orElse(this.idleTimeout, parent.idleTimeout);
+        }
+    }
+
+    private static <T> T orElse(final T value, final T fallback) {
+        return value != null ? value : fallback;
+    }
+
+    /**
+     * Looks for listeners holding their worker for too long, which would otherwise silently stop their queue.
+     */
+    @Getter
+    @Setter
+    public static class Watchdog {
+
+        /**
+         * Time a listener invocation may run before being reported as stuck. The watchdog is disabled while zero, as
+         * it is by default, or negative.
+         */
+        private Duration threshold = Duration.ZERO;
+
+        /**
+         * Interval between two looks for stuck listeners.
+         */
+        private Duration interval = Duration.ofSeconds(1);
+    }
+
+    /**
+     * SQS-compatible HTTP endpoint serving the in-memory queues to clients outside of this application.
+     */
+    @Getter
+    @Setter
+    public static class Http {
+
+        /**
+         * Whether the endpoint is started along with the application.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Address listened to.
+         */
+        private String host = "localhost";
+
+        /**
+         * Port listened to, zero to pick any free port.
+         */
+        private int port = 9324;
+
+        /**
+         * Threads reading requests and writing responses. Long-poll receives don't hold any while waiting.
+         */
+        private int threads = 4;
+    }
+
+    /**
+     * Queues shared with other processes of the same host through memory-mapped files, so that co-located services
+     * exchange messages without a real SQS.
+     */
+    @Getter
+    @Setter
+    public static class Shared {
+
+        /**
+         * Directory holding one file per shared queue, the same for every process sharing them. Nothing is shared
+         * unless it is set.
+         */
+        private String directory;
+
+        /**
+         * Names of the shared queues, every queue if empty.
+         */
+        private Set<String> queues = new HashSet<>();
+
+        /**
+         * Consumer group of this process. Processes of the same group compete for the messages of a shared queue,
+         * while every group gets all of them.
+         */
+        private String consumerGroup = "default";
+
+        /**
+         * Bytes of pending messages a shared queue holds before rejecting new ones. Only used by the process creating
+         * its file.
+         */
+        private int capacity = 4 * 1024 * 1024;
+
+        /**
+         * Messages taken ahead from a shared queue by a process listening to it.
+         */
+        private int prefetch = 10;
+
+        /**
+         * Time after which senders stop waiting for a consumer group none of whose processes took messages, letting
+         * new messages overwrite those it didn't take. Zero waits forever.
+         */
+        private Duration groupTimeout = Duration.ofSeconds(30);
+
+        /**
+         * @param queueName name of a queue
+         * @return true if the given queue is shared with other processes
+         */
+        public boolean isShared(final String queueName) {
+            return this.directory != null && (this.queues.isEmpty() || this.queues.contains(queueName));
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class Shutdown {
+
+        /**
+         * Whether visible messages should still be handed to listeners before stopping the consumers.
+         */
+        private boolean drain = false;
+
+        /**
+         * Maximum time spent draining visible messages.
+         */
+        private Duration drainTimeout = Duration.ofSeconds(10);
+
+        /**
+         * Maximum time spent waiting for the consumer threads to finish once they were asked to stop.
+         */
+        private Duration timeout = Duration.ofSeconds(5);
+    }
+}
@@ -0,0 +1,25 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+/**
+ * JUnit 5 extension that {@link InMemoryQueueMessagingTemplate#reset() resets} the in-memory queues of the Spring test
+ * context before each test, so messages left behind by a previous test don't leak into the next one while the context
+ * is still reused from the cache. It must be registered after {@link SpringExtension}:
+ * <pre>
+ * &#64;SpringBootTest
+ * &#64;ExtendWith(InMemoryQueueMessagingResetExtension.class)
+ * class MyTest { ... }
+ * </pre>
+ */
+public class InMemoryQueueMessagingResetExtension implements BeforeEachCallback {
+
+    @Override
+    public void beforeEach(final ExtensionContext context) {
+        SpringExtension.getApplicationContext(context)
+                .getBeanProvider(InMemoryQueueMessagingTemplate.class)
+                .ifAvailable(InMemoryQueueMessagingTemplate::reset);
+    }
+}
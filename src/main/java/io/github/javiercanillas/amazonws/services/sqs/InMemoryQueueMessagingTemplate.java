@@ -5,22 +5,33 @@ import io.awspring.cloud.messaging.core.QueueMessagingTemplate;
 import io.awspring.cloud.messaging.listener.SqsMessageDeletionPolicy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessagingException;
 import org.springframework.messaging.core.MessagePostProcessor;
 import org.springframework.messaging.support.GenericMessage;
 
+import java.io.IOException;
 import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
 
 @Slf4j
-public class InMemoryQueueMessagingTemplate extends QueueMessagingTemplate implements DisposableBean {
+public class InMemoryQueueMessagingTemplate extends QueueMessagingTemplate implements DisposableBean, SmartLifecycle {
 
     private static final String DEFAULT = "__DEFAULT__";
 
@@ -28,19 +39,170 @@ public class InMemoryQueueMessagingTemplate extends QueueMessagingTemplate imple
 
     private final InMemoryAwsSqsClient client;
 
+    private final InMemoryQueueMessagingProperties properties;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final PayloadConverter payloadConverter;
+
+    private volatile TrafficRecorder recorder;
+
+    private volatile LongConsumer latencyObserver;
+
+    private volatile boolean accepting;
+
+    /**
+     * Whether the queues created are started. The template runs from the moment it is created, as its queues did
+     * before it took part of the lifecycle, until stopped.
+     */
+    private volatile boolean running;
+
+    /**
+     * Guards the switch between running and stopped against the queues being created meanwhile.
+     */
+    private final Object lifecycleLock = new Object();
+
     public InMemoryQueueMessagingTemplate(final InMemoryAwsSqsClient amazonSqs) {
+        this(amazonSqs, new InMemoryQueueMessagingProperties());
+    }
+
+    public InMemoryQueueMessagingTemplate(final InMemoryAwsSqsClient amazonSqs,
+                                          final InMemoryQueueMessagingProperties properties) {
         super(amazonSqs);
         this.instances = new ConcurrentHashMap<>();
-        var manager = new SqsManager(new SqsInstance(), false, amazonSqs);
         this.client = amazonSqs;
-        this.instances.put(DEFAULT, manager);
+        this.properties = properties;
+        this.payloadConverter = new PayloadConverter(this::getMessageConverter);
+        this.accepting = true;
+        this.running = true;
+        this.instances.put(DEFAULT, this.newManager(DEFAULT, false));
+        amazonSqs.bind(this);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final var thread = new Thread(runnable, "in-memory-sqs-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final var interval = properties.getExpirationInterval().toMillis();
+        this.scheduler.scheduleAtFixedRate(this::expire, interval, interval, TimeUnit.MILLISECONDS);
+        final var scalingInterval = properties.getScalingInterval().toMillis();
+        this.scheduler.scheduleAtFixedRate(this::scale, scalingInterval, scalingInterval, TimeUnit.MILLISECONDS);
+        final var watchdog = properties.getWatchdog();
+        if (!watchdog.getThreshold().isZero() && !watchdog.getThreshold().isNegative()) {
+            final var watchInterval = watchdog.getInterval().toMillis();
+            this.scheduler.scheduleAtFixedRate(this::getStuckListeners, watchInterval, watchInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private SqsManager newManager(final String queueName, final boolean createConsumer) {
+        final var queueProperties = this.properties.getQueue(queueName);
+        final var sqsManager = new SqsManager(queueName, new SqsInstance(queueProperties.getRetentionPeriod()),
+                createConsumer, this.client, queueProperties);
+        if (queueProperties.isSerialization()) {
+            sqsManager.deserializeThrough(this.payloadConverter);
+        }
+        sqsManager.observeLatencies(this.latencyObserver);
+        if (createConsumer && this.properties.getShared().isShared(queueName)) {
+            sqsManager.share(SharedMemoryTransport.open(queueName, this.properties.getShared()));
+        }
+        return sqsManager;
+    }
+
+    private void expire() {
+        try {
+            this.instances.values().forEach(SqsManager::expire);
+        } catch (RuntimeException e) {
+            log.error("Couldn't discard expired messages", e);
+        }
+    }
+
+    private void scale() {
+        try {
+            for (final var sqsManager : this.instances.values()) {
+                if (sqsManager.isElastic()) {
+                    sqsManager.scale();
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Couldn't scale workers", e);
+        }
+    }
+
+    @Override
+    public void start() {
+        synchronized (this.lifecycleLock) {
+            this.accepting = true;
+            this.running = true;
+            this.instances.values().forEach(SqsManager::start);
+        }
+    }
+
+    /**
+     * Stops in phases: new messages are rejected first, then visible messages are optionally handed to listeners
+     * until the drain timeout, and finally every consumer thread is interrupted at once and joined until the shutdown
+     * timeout.
+     */
+    @Override
+    public void stop() {
+        final var startTime = System.nanoTime();
+        final List<SqsManager> sqsManagerList;
+        synchronized (this.lifecycleLock) {
+            this.accepting = false;
+            this.running = false;
+            sqsManagerList = new ArrayList<>(this.instances.values());
+        }
+        final var shutdown = this.properties.getShutdown();
+        var drained = false;
+        var alive = 0L;
+        try {
+            if (shutdown.isDrain()) {
+                drained = this.drain(sqsManagerList, shutdown.getDrainTimeout());
+            }
+            sqsManagerList.forEach(SqsManager::stop);
+            final var deadline = System.nanoTime() + shutdown.getTimeout().toNanos();
+            for (final var sqsManager : sqsManagerList) {
+                sqsManager.awaitTermination(Duration.ofNanos(Math.max(0L, deadline - System.nanoTime())));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            alive = sqsManagerList.stream().filter(SqsManager::hasConsumer).count();
+        }
+        final var elapsed = Duration.ofNanos(System.nanoTime() - startTime);
+        if (alive > 0) {
+            log.warn("In-memory SQS stopped in {} ms for {} queues (drained: {}), {} consumer threads are still alive",
+                    elapsed.toMillis(), sqsManagerList.size(), drained, alive);
+        } else {
+            log.info("In-memory SQS stopped in {} ms for {} queues (drained: {})", elapsed.toMillis(),
+                    sqsManagerList.size(), drained);
+        }
+    }
+
+    private boolean drain(final List<SqsManager> sqsManagerList, final Duration timeout) throws InterruptedException {
+        final var deadline = System.nanoTime() + timeout.toNanos();
+        var drained = true;
+        for (final var sqsManager : sqsManagerList) {
+            // queues nobody consumes from can't be drained
+            if (sqsManager.hasConsumer()) {
+                final var remaining = Math.max(0L, deadline - System.nanoTime());
+                drained &= sqsManager.awaitDrained(Duration.ofNanos(remaining));
+            }
+        }
+        return drained;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return this.running;
     }
 
     @Override
     public void destroy() {
-        final var sqsManagerList = new ArrayList<SqsManager>(this.instances.values());
+        if (this.accepting) {
+            this.stop();
+        }
+        this.scheduler.shutdownNow();
         this.instances.clear();
-        sqsManagerList.forEach(SqsManager::stop);
     }
 
     public boolean register(final Object bean, final Method method, final Set<String> queueNames,
@@ -50,15 +212,7 @@ public class InMemoryQueueMessagingTemplate extends QueueMessagingTemplate imple
                 queueNames, deletionPolicy);
 
 
-        queueNames.forEach(queueName -> {
-            var sqsManager = this.instances.get(queueName);
-            if (sqsManager == null) {
-                sqsManager = new SqsManager(new SqsInstance(), true, this.client);
-                sqsManager.start();
-                this.instances.put(queueName, sqsManager);
-            }
-            sqsManager.addListener(bean, method, deletionPolicy);
-        });
+        queueNames.forEach(queueName -> this.getOrCreateQueue(queueName).addListener(bean, method, deletionPolicy));
         return true;
     }
 
@@ -75,6 +229,165 @@ public class InMemoryQueueMessagingTemplate extends QueueMessagingTemplate imple
         return true;
     }
 
+    /**
+     * Blocks until every message sent to the given queue has been deleted, either by its listeners or by a receive.
+     *
+     * @param queueName name of the queue to wait for
+     * @param timeout maximum time to wait
+     * @return true if the queue became idle, false if the timeout elapsed first
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public boolean awaitIdle(final String queueName, final Duration timeout) throws InterruptedException {
+        final var sqsManager = this.instances.get(queueName);
+        if (sqsManager != null) {
+            return sqsManager.awaitIdle(timeout);
+        } else {
+            throw new MessagingException("Couldn't find resource by name: " + queueName);
+        }
+    }
+
+    /**
+     * Blocks until every known queue is idle, sharing the given timeout among all of them.
+     *
+     * @param timeout maximum time to wait
+     * @return true if all queues became idle, false if the timeout elapsed first
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public boolean awaitAllIdle(final Duration timeout) throws InterruptedException {
+        final var deadline = System.nanoTime() + timeout.toNanos();
+        for (final var sqsManager : new ArrayList<>(this.instances.values())) {
+            final var remaining = Math.max(0L, deadline - System.nanoTime());
+            if (!sqsManager.awaitIdle(Duration.ofNanos(remaining))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return estimated bytes of the messages held by every known queue, either visible or delayed
+     */
+    public long getHeldBytes() {
+        return this.instances.values().stream().mapToLong(SqsManager::getHeldBytes).sum();
+    }
+
+    /**
+     * @param queueName name of the queue
+     * @return the current counters of the given queue
+     */
+    public QueueStatistics getStatistics(final String queueName) {
+        final var sqsManager = this.instances.get(queueName);
+        if (sqsManager != null) {
+            return sqsManager.getStatistics();
+        } else {
+            throw new MessagingException("Couldn't find resource by name: " + queueName);
+        }
+    }
+
+    /**
+     * @return the current counters of every known queue, by queue name
+     */
+    public Map<String, QueueStatistics> getStatistics() {
+        return this.instances.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().getStatistics()));
+    }
+
+    /**
+     * Looks for listener invocations running for longer than the watchdog threshold, logging the stack of their
+     * thread the first time each one is found. It is done periodically, unless the watchdog is disabled.
+     *
+     * @return the listener invocations currently stuck, on every known queue
+     */
+    public List<StuckListener> getStuckListeners() {
+        final var threshold = this.properties.getWatchdog().getThreshold();
+        if (threshold.isZero() || threshold.isNegative()) {
+            return Collections.emptyList();
+        }
+        try {
+            return this.instances.values().stream()
+                    .flatMap(sqsManager -> sqsManager.findStuckListeners(threshold).stream())
+                    .collect(Collectors.toList());
+        } catch (RuntimeException e) {
+            log.error("Couldn't look for stuck listeners", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * @param queueName name of the queue
+     * @return the current counters of every listener of the given queue
+     */
+    public List<ListenerStatistics> getListenerStatistics(final String queueName) {
+        final var sqsManager = this.instances.get(queueName);
+        if (sqsManager != null) {
+            return sqsManager.getListenerStatistics();
+        } else {
+            throw new MessagingException("Couldn't find resource by name: " + queueName);
+        }
+    }
+
+    /**
+     * @return the current counters of the listeners of every known queue, by queue name
+     */
+    public Map<String, List<ListenerStatistics>> getListenerStatistics() {
+        return this.instances.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().getListenerStatistics()));
+    }
+
+    /**
+     * Looks at the next visible messages of the given queue, without consuming them.
+     *
+     * @param queueName name of the queue
+     * @param maxMessages maximum number of messages to look at
+     * @return the next visible messages, in the order they would be consumed
+     */
+    @SuppressWarnings("java:S1452")
+    public List<Message<?>> peek(final String queueName, final int maxMessages) {
+        final var sqsManager = this.instances.get(queueName);
+        if (sqsManager != null) {
+            return sqsManager.peek(maxMessages);
+        } else {
+            throw new MessagingException("Couldn't find resource by name: " + queueName);
+        }
+    }
+
+    /**
+     * Discards every message waiting on the given queue, keeping its listeners and consumer thread.
+     *
+     * @param queueName name of the queue to purge
+     * @return number of messages discarded
+     */
+    public int purge(final String queueName) {
+        final var sqsManager = this.instances.get(queueName);
+        if (sqsManager != null) {
+            return sqsManager.purge();
+        } else {
+            throw new MessagingException("Couldn't find resource by name: " + queueName);
+        }
+    }
+
+    /**
+     * Discards every message waiting on every known queue. Each queue is emptied by swapping its storage, so the
+     * cost depends on the number of queues and not on the number of messages.
+     *
+     * @return number of messages discarded
+     */
+    public int purgeAll() {
+        return this.instances.values().stream()
+                .mapToInt(SqsManager::purge)
+                .sum();
+    }
+
+    /**
+     * Brings every queue back to an empty state, as a new context would, without restarting consumers nor losing
+     * listener registrations. Pending visibility changes are forgotten too.
+     */
+    public void reset() {
+        final var purged = this.purgeAll();
+        this.client.getHandles().clear();
+        log.debug("Reset discarded {} messages", purged);
+    }
+
     @Override
     public Message<?> receive() {
         return this.instances.get(DEFAULT).receive();
@@ -183,17 +496,97 @@ public class InMemoryQueueMessagingTemplate extends QueueMessagingTemplate imple
 
     @Override
     public void send(final Message<?> message) {
+        this.checkAccepting();
         this.instances.get(DEFAULT).send(message);
     }
 
     @Override
     public void send(final String destinationName, final Message<?> message) {
-        var sqsManager = this.instances.computeIfAbsent(destinationName, k -> {
-            var newInstance = new SqsManager(new SqsInstance(), false, this.client);
-            newInstance.start();
-            return newInstance;
-        });
-        sqsManager.send(message);
+        this.checkAccepting();
+        final var sqsManager = this.getOrCreateQueue(destinationName);
+        sqsManager.checkThrottled();
+        this.send(destinationName, sqsManager, message);
+    }
+
+    /**
+     * Same as {@link #send(String, Message)}, for a request {@link SqsManager#checkThrottled() admitted} already, as
+     * every entry of a batch is.
+     */
+    void sendAdmitted(final String destinationName, final Message<?> message) {
+        this.checkAccepting();
+        this.send(destinationName, this.getOrCreateQueue(destinationName), message);
+    }
+
+    private void send(final String destinationName, final SqsManager sqsManager, final Message<?> message) {
+        final var sent = sqsManager.isSerializing()
+                ? this.payloadConverter.serialize(message)
+                : message;
+        sqsManager.sendAdmitted(sent);
+        final var currentRecorder = this.recorder;
+        if (currentRecorder != null) {
+            currentRecorder.record(destinationName, sent);
+        }
+    }
+
+    /**
+     * Starts recording every message sent to a queue by name into the given file, until the returned recorder is
+     * closed. Messages are recorded as sent, after serialization if the queue serializes payloads.
+     *
+     * @param file file to record to, replaced if it exists
+     * @return the recorder, to be closed once done
+     * @throws IOException if the file can't be opened
+     * @throws IllegalStateException if another recording is in progress
+     */
+    public synchronized TrafficRecorder record(final Path file) throws IOException {
+        if (this.recorder != null) {
+            throw new IllegalStateException("Already recording");
+        }
+        final var newRecorder = new TrafficRecorder(file, this::stopRecording);
+        this.recorder = newRecorder;
+        return newRecorder;
+    }
+
+    private synchronized void stopRecording(final TrafficRecorder stopped) {
+        if (this.recorder == stopped) {
+            this.recorder = null;
+        }
+    }
+
+    /**
+     * @param observer told the latency in nanoseconds of every message deleted by a listener from now on, or null to
+     *                 stop telling
+     */
+    void observeLatencies(final LongConsumer observer) {
+        this.latencyObserver = observer;
+        this.instances.values().forEach(sqsManager -> sqsManager.observeLatencies(observer));
+    }
+
+    /**
+     * Every queue is created once, whoever comes first, either sending to it or listening to it. Its workers are
+     * started along with its first listener, as long as the template is running, or otherwise once it is started.
+     */
+    SqsManager getOrCreateQueue(final String queueName) {
+        final var existing = this.instances.get(queueName);
+        if (existing != null) {
+            return existing;
+        }
+        final var sqsManager = this.instances.computeIfAbsent(queueName, k -> this.newManager(k, true));
+        // started once in the map, so that a concurrent start or stop either sees it or is seen by it
+        synchronized (this.lifecycleLock) {
+            if (this.running) {
+                sqsManager.start();
+            }
+        }
+        return sqsManager;
+    }
+
+    /**
+     * @param queueName name of the queue, created without consumer if it didn't exist yet
+     * @param emitter receives the messages of the queue, as many as requested
+     * @return a demand-driven stream of the messages of the queue
+     */
+    SqsManager.MessageStream openStream(final String queueName, final Consumer<Message<?>> emitter) {
+        return this.getOrCreateQueue(queueName).openStream(emitter, this.scheduler);
     }
 
     @Override
@@ -201,19 +594,16 @@ public class InMemoryQueueMessagingTemplate extends QueueMessagingTemplate imple
         destination.send(message);
     }
 
-    private <T> T convert(final Class<T> targetClass, final Message<?> received) {
-        final var optionalPayload = Optional.ofNullable(received)
-                .map(Message::getPayload);
-        if (optionalPayload.isPresent()) {
-            return optionalPayload
-                    .filter(targetClass::isInstance)
-                    .map(targetClass::cast)
-                    .orElseThrow(() -> new MessagingException("Cannot convert "
-                            + optionalPayload.get().getClass()
-                            + " to "
-                            + targetClass.getClassLoader()));
-        } else {
-            return null;
+    private void checkAccepting() {
+        if (!this.accepting) {
+            throw new MessagingException("In-memory SQS is stopped, messages are not accepted anymore");
         }
     }
+
+    /**
+     * Payloads of other types are deserialized through the message converter, as serialized payloads are.
+     */
+    private <T> T convert(final Class<T> targetClass, final Message<?> received) {
+        return received != null ? this.payloadConverter.deserialize(received, targetClass) : null;
+    }
 }
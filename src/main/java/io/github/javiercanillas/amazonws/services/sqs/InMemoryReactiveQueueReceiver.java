@@ -0,0 +1,57 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import org.reactivestreams.Subscription;
+import org.springframework.messaging.Message;
+import reactor.core.publisher.Flux;
+
+import java.util.Objects;
+
+/**
+ * Reactive facade of the in-memory queues, available when Reactor is on the classpath. Each subscription takes
+ * messages from the queue only as the downstream requests them, with no polling involved: they are emitted right away
+ * when visible, or as soon as they are sent or their delay elapses, on the thread doing so. Other threads finding the
+ * subscriber busy leave their messages to the thread emitting to it, instead of waiting for it. Use {@code publishOn}
+ * to move the processing elsewhere.
+ *
+ * Emitted messages are deleted from the queue, as with {@link InMemoryQueueMessagingTemplate#receive(String)}, while
+ * messages not requested yet are left for other consumers. Cancelling a subscription leaves every message it didn't
+ * emit in the queue.
+ */
+public class InMemoryReactiveQueueReceiver {
+
+    private final InMemoryQueueMessagingTemplate queueMessagingTemplate;
+
+    public InMemoryReactiveQueueReceiver(final InMemoryQueueMessagingTemplate queueMessagingTemplate) {
+        Objects.requireNonNull(queueMessagingTemplate, "queueMessagingTemplate must not be null");
+        this.queueMessagingTemplate = queueMessagingTemplate;
+    }
+
+    /**
+     * @param queueName name of the queue, created if it didn't exist yet
+     * @return an endless stream of the messages of the queue, following the downstream demand
+     */
+    @SuppressWarnings("java:S1452")
+    public Flux<Message<?>> receive(final String queueName) {
+        Objects.requireNonNull(queueName, "queueName must not be null");
+        return Flux.from(subscriber -> {
+            final var stream = this.queueMessagingTemplate.openStream(queueName, subscriber::onNext);
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(final long count) {
+                    if (count <= 0L) {
+                        stream.cancel();
+                        subscriber.onError(new IllegalArgumentException(
+                                "Spec. Rule 3.9 - Cannot request a non strictly positive number: " + count));
+                    } else {
+                        stream.request(count);
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    stream.cancel();
+                }
+            });
+        });
+    }
+}
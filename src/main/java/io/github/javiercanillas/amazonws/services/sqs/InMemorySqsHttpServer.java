@@ -0,0 +1,457 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sqs.model.AmazonSQSException;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityRequest;
+import com.amazonaws.services.sqs.model.CreateQueueRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.GetQueueUrlRequest;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.util.BinaryUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SQS-compatible HTTP endpoint, speaking the AWS JSON 1.0 protocol of SQS as current AWS SDKs do, so that services
+ * that are not Spring or not Java can use the in-memory queues. Requests are served by the {@link InMemoryAwsSqsClient}
+ * and so by the very same queues the template and its listeners use.
+ *
+ * Long-poll receives with nothing to receive are parked without holding any thread, and answered from whatever thread
+ * makes a message visible, or from a timer once their wait time elapses, so a few threads serve any number of pollers.
+ *
+ * Supported actions are SendMessage, ReceiveMessage, DeleteMessage, ChangeMessageVisibility, their batch variants,
+ * GetQueueUrl, CreateQueue and GetQueueAttributes.
+ */
+@Slf4j
+public class InMemorySqsHttpServer {
+
+    static final String CONTENT_TYPE = "application/x-amz-json-1.0";
+    private static final String TARGET_HEADER = "X-Amz-Target";
+    private static final String TARGET_PREFIX = "AmazonSQS.";
+    private static final String ERROR_PREFIX = "com.amazonaws.sqs#";
+    private static final String ACCOUNT_PATH = "/000000000000/";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final InMemoryAwsSqsClient client;
+    private final InetSocketAddress address;
+    private final int threads;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param client the client serving the requests, bound to the template holding the queues
+     * @param address address to listen to, with port zero to pick any free port
+     * @param threads threads reading requests and writing responses
+     */
+    public InMemorySqsHttpServer(final InMemoryAwsSqsClient client, final InetSocketAddress address,
+                                 final int threads) {
+        Objects.requireNonNull(client, "client must not be null");
+        Objects.requireNonNull(address, "address must not be null");
+        this.client = client;
+        this.address = address;
+        this.threads = Math.max(1, threads);
+    }
+
+    public synchronized void start() throws IOException {
+        if (this.server != null) {
+            return;
+        }
+        final var count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(this.threads, runnable -> {
+            final var thread = new Thread(runnable, "in-memory-sqs-http-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(this.address, 0);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+        log.info("In-memory SQS listening on {}", this.getEndpoint());
+    }
+
+    public synchronized void stop() {
+        if (this.server == null) {
+            return;
+        }
+        this.server.stop(0);
+        this.executor.shutdownNow();
+        this.server = null;
+    }
+
+    /**
+     * @return the port listened to, once started
+     */
+    public synchronized int getPort() {
+        if (this.server == null) {
+            throw new IllegalStateException("In-memory SQS HTTP server is not started");
+        }
+        return this.server.getAddress().getPort();
+    }
+
+    /**
+     * @return the endpoint to configure SQS clients with, once started
+     */
+    public String getEndpoint() {
+        return "http://" + this.address.getHostString() + ":" + this.getPort();
+    }
+
+    private void handle(final HttpExchange exchange) {
+        CompletableFuture<ObjectNode> response;
+        try {
+            final var target = exchange.getRequestHeaders().getFirst(TARGET_HEADER);
+            if (!"POST".equals(exchange.getRequestMethod()) || target == null || !target.startsWith(TARGET_PREFIX)) {
+                throw error("UnsupportedOperation", "Only POST requests of the AWS JSON 1.0 protocol are supported");
+            }
+            final JsonNode request;
+            try (var body = exchange.getRequestBody()) {
+                request = OBJECT_MAPPER.readTree(body);
+            }
+            if (request == null || !request.isObject()) {
+                throw error("InvalidParameterValue", "Request body must be a JSON object");
+            }
+            response = this.dispatch(target.substring(TARGET_PREFIX.length()), request);
+        } catch (IOException | RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        response.whenComplete((node, error) -> this.respond(exchange, node, error));
+    }
+
+    private CompletableFuture<ObjectNode> dispatch(final String action, final JsonNode request) {
+        switch (action) {
+            case "SendMessage":
+                return CompletableFuture.completedFuture(this.sendMessage(request));
+            case "SendMessageBatch":
+                return CompletableFuture.completedFuture(this.sendMessageBatch(request));
+            case "ReceiveMessage":
+                return this.client.receive(toReceiveMessageRequest(request)).thenApply(this::toResponse);
+            case "DeleteMessage":
+                this.client.deleteMessage(new DeleteMessageRequest(queueUrlOf(request),
+                        text(request, "ReceiptHandle")));
+                return CompletableFuture.completedFuture(OBJECT_MAPPER.createObjectNode());
+            case "DeleteMessageBatch":
+                return CompletableFuture.completedFuture(this.deleteMessageBatch(request));
+            case "ChangeMessageVisibility":
+                this.client.changeMessageVisibility(new ChangeMessageVisibilityRequest(queueUrlOf(request),
+                        text(request, "ReceiptHandle"), request.path("VisibilityTimeout").asInt()));
+                return CompletableFuture.completedFuture(OBJECT_MAPPER.createObjectNode());
+            case "ChangeMessageVisibilityBatch":
+                return CompletableFuture.completedFuture(this.changeMessageVisibilityBatch(request));
+            case "GetQueueUrl":
+                this.client.getQueueUrl(new GetQueueUrlRequest(text(request, "QueueName")));
+                return CompletableFuture.completedFuture(this.queueUrlResponse(text(request, "QueueName")));
+            case "CreateQueue":
+                this.client.createQueue(new CreateQueueRequest(text(request, "QueueName")));
+                return CompletableFuture.completedFuture(this.queueUrlResponse(text(request, "QueueName")));
+            case "GetQueueAttributes":
+                return CompletableFuture.completedFuture(this.getQueueAttributes(request));
+            default:
+                throw error("UnsupportedOperation", "Action " + action + " is not supported");
+        }
+    }
+
+    private ObjectNode sendMessage(final JsonNode request) {
+        final var result = this.client.sendMessage(new SendMessageRequest()
+                .withQueueUrl(queueUrlOf(request))
+                .withMessageBody(text(request, "MessageBody"))
+                .withDelaySeconds(integer(request, "DelaySeconds"))
+                .withMessageAttributes(messageAttributesOf(request.path("MessageAttributes"))));
+        final var response = OBJECT_MAPPER.createObjectNode()
+                .put("MessageId", result.getMessageId())
+                .put("MD5OfMessageBody", result.getMD5OfMessageBody());
+        putAttributesMd5(response, request.path("MessageAttributes"));
+        return response;
+    }
+
+    private ObjectNode sendMessageBatch(final JsonNode request) {
+        final var entries = new ArrayList<SendMessageBatchRequestEntry>();
+        request.path("Entries").forEach(entry -> entries.add(new SendMessageBatchRequestEntry()
+                .withId(text(entry, "Id"))
+                .withMessageBody(text(entry, "MessageBody"))
+                .withDelaySeconds(integer(entry, "DelaySeconds"))
+                .withMessageAttributes(messageAttributesOf(entry.path("MessageAttributes")))));
+        final var result = this.client.sendMessageBatch(new SendMessageBatchRequest()
+                .withQueueUrl(queueUrlOf(request))
+                .withEntries(entries));
+        final var response = OBJECT_MAPPER.createObjectNode();
+        final var successful = response.putArray("Successful");
+        for (final var entry : result.getSuccessful()) {
+            final var node = successful.addObject()
+                    .put("Id", entry.getId())
+                    .put("MessageId", entry.getMessageId())
+                    .put("MD5OfMessageBody", entry.getMD5OfMessageBody());
+            putAttributesMd5(node, attributesOf(request.path("Entries"), entry.getId()));
+        }
+        putFailed(response, result.getFailed());
+        return response;
+    }
+
+    private ObjectNode deleteMessageBatch(final JsonNode request) {
+        final var entries = new ArrayList<DeleteMessageBatchRequestEntry>();
+        request.path("Entries").forEach(entry -> entries.add(
+                new DeleteMessageBatchRequestEntry(text(entry, "Id"), text(entry, "ReceiptHandle"))));
+        final var result = this.client.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrlOf(request),
+                entries));
+        final var response = OBJECT_MAPPER.createObjectNode();
+        final var successful = response.putArray("Successful");
+        result.getSuccessful().forEach(entry -> successful.addObject().put("Id", entry.getId()));
+        putFailed(response, result.getFailed());
+        return response;
+    }
+
+    private ObjectNode changeMessageVisibilityBatch(final JsonNode request) {
+        final var entries = new ArrayList<ChangeMessageVisibilityBatchRequestEntry>();
+        request.path("Entries").forEach(entry -> entries.add(new ChangeMessageVisibilityBatchRequestEntry()
+                .withId(text(entry, "Id"))
+                .withReceiptHandle(text(entry, "ReceiptHandle"))
+                .withVisibilityTimeout(integer(entry, "VisibilityTimeout"))));
+        final var result = this.client.changeMessageVisibilityBatch(new ChangeMessageVisibilityBatchRequest()
+                .withQueueUrl(queueUrlOf(request))
+                .withEntries(entries));
+        final var response = OBJECT_MAPPER.createObjectNode();
+        final var successful = response.putArray("Successful");
+        result.getSuccessful().forEach(entry -> successful.addObject().put("Id", entry.getId()));
+        putFailed(response, result.getFailed());
+        return response;
+    }
+
+    private static void putFailed(final ObjectNode response, final List<BatchResultErrorEntry> failures) {
+        final var failed = response.putArray("Failed");
+        failures.forEach(failure -> failed.addObject()
+                .put("Id", failure.getId())
+                .put("Code", failure.getCode())
+                .put("Message", failure.getMessage())
+                .put("SenderFault", failure.getSenderFault()));
+    }
+
+    /**
+     * @return the message attributes of the entry with the given id, missing if there is none
+     */
+    private static JsonNode attributesOf(final JsonNode entries, final String id) {
+        for (final var entry : entries) {
+            if (id.equals(entry.path("Id").asText())) {
+                return entry.path("MessageAttributes");
+            }
+        }
+        return MissingNode.getInstance();
+    }
+
+    private ObjectNode getQueueAttributes(final JsonNode request) {
+        final var names = new ArrayList<String>();
+        request.path("AttributeNames").forEach(name -> names.add(name.asText()));
+        final var result = this.client.getQueueAttributes(new GetQueueAttributesRequest(queueUrlOf(request), names));
+        final var response = OBJECT_MAPPER.createObjectNode();
+        final var attributes = response.putObject("Attributes");
+        result.getAttributes().forEach(attributes::put);
+        return response;
+    }
+
+    private ObjectNode queueUrlResponse(final String queueName) {
+        return OBJECT_MAPPER.createObjectNode().put("QueueUrl", this.getEndpoint() + ACCOUNT_PATH + queueName);
+    }
+
+    private ObjectNode toResponse(final ReceiveMessageResult result) {
+        final var response = OBJECT_MAPPER.createObjectNode();
+        final var messages = response.putArray("Messages");
+        for (final var message : result.getMessages()) {
+            final var node = messages.addObject()
+                    .put("MessageId", message.getMessageId())
+                    .put("ReceiptHandle", message.getReceiptHandle())
+                    .put("MD5OfBody", message.getMD5OfBody())
+                    .put("Body", message.getBody());
+            final var attributes = node.putObject("Attributes");
+            message.getAttributes().forEach(attributes::put);
+            if (!message.getMessageAttributes().isEmpty()) {
+                node.set("MessageAttributes", toJson(message.getMessageAttributes()));
+                node.put("MD5OfMessageAttributes", md5Of(message.getMessageAttributes()));
+            }
+        }
+        return response;
+    }
+
+    private void respond(final HttpExchange exchange, final ObjectNode response, final Throwable error) {
+        try {
+            final int status;
+            final byte[] body;
+            if (error == null) {
+                status = 200;
+                body = OBJECT_MAPPER.writeValueAsBytes(response);
+            } else {
+                final var cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause()
+                        : error;
+                final var code = errorCodeOf(cause);
+                status = statusOf(cause);
+                if (status >= 500) {
+                    log.error("Couldn't serve SQS request", cause);
+                }
+                exchange.getResponseHeaders().set("x-amzn-query-error",
+                        code + ";" + (status < 500 ? "Sender" : "Receiver"));
+                body = OBJECT_MAPPER.writeValueAsBytes(OBJECT_MAPPER.createObjectNode()
+                        .put("__type", ERROR_PREFIX + code)
+                        .put("message", cause.getMessage()));
+            }
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+        } catch (IOException e) {
+            log.debug("Couldn't write SQS response, the client may be gone", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static int statusOf(final Throwable cause) {
+        if (cause instanceof AmazonServiceException) {
+            final var status = ((AmazonServiceException) cause).getStatusCode();
+            return status > 0 ? status : 400;
+        }
+        return cause instanceof IOException ? 400 : 500;
+    }
+
+    private static String errorCodeOf(final Throwable cause) {
+        if (cause instanceof AmazonServiceException && ((AmazonServiceException) cause).getErrorCode() != null) {
+            return ((AmazonServiceException) cause).getErrorCode();
+        } else if (cause instanceof AmazonServiceException) {
+            return cause.getClass().getSimpleName().replaceFirst("Exception$", "");
+        } else if (cause instanceof IOException) {
+            return "InvalidParameterValue";
+        }
+        return "InternalFailure";
+    }
+
+    private static ReceiveMessageRequest toReceiveMessageRequest(final JsonNode request) {
+        return new ReceiveMessageRequest(queueUrlOf(request))
+                .withMaxNumberOfMessages(integer(request, "MaxNumberOfMessages"))
+                .withWaitTimeSeconds(integer(request, "WaitTimeSeconds"))
+                .withVisibilityTimeout(integer(request, "VisibilityTimeout"));
+    }
+
+    private static String queueUrlOf(final JsonNode request) {
+        return text(request, "QueueUrl");
+    }
+
+    private static String text(final JsonNode request, final String field) {
+        final var value = request.get(field);
+        if (value == null || value.isNull()) {
+            throw error("MissingParameter", "The request must contain the parameter " + field);
+        }
+        return value.asText();
+    }
+
+    private static Integer integer(final JsonNode request, final String field) {
+        final var value = request.get(field);
+        return value == null || value.isNull() ? null : value.asInt();
+    }
+
+    private static Map<String, MessageAttributeValue> messageAttributesOf(final JsonNode attributes) {
+        final var result = new HashMap<String, MessageAttributeValue>();
+        attributes.fields().forEachRemaining(field -> {
+            final var value = field.getValue();
+            final var attribute = new MessageAttributeValue().withDataType(text(value, "DataType"));
+            if (value.hasNonNull("StringValue")) {
+                attribute.setStringValue(value.get("StringValue").asText());
+            }
+            if (value.hasNonNull("BinaryValue")) {
+                try {
+                    attribute.setBinaryValue(ByteBuffer.wrap(value.get("BinaryValue").binaryValue()));
+                } catch (IOException e) {
+                    throw error("InvalidParameterValue", "BinaryValue of " + field.getKey() + " is not base64");
+                }
+            }
+            result.put(field.getKey(), attribute);
+        });
+        return result;
+    }
+
+    private static ObjectNode toJson(final Map<String, MessageAttributeValue> attributes) {
+        final var node = OBJECT_MAPPER.createObjectNode();
+        attributes.forEach((name, attribute) -> {
+            final var value = node.putObject(name).put("DataType", attribute.getDataType());
+            if (attribute.getStringValue() != null) {
+                value.put("StringValue", attribute.getStringValue());
+            }
+            if (attribute.getBinaryValue() != null) {
+                value.put("BinaryValue", BinaryUtils.copyAllBytesFrom(attribute.getBinaryValue()));
+            }
+        });
+        return node;
+    }
+
+    private static void putAttributesMd5(final ObjectNode response, final JsonNode attributes) {
+        if (attributes.size() > 0) {
+            response.put("MD5OfMessageAttributes", md5Of(messageAttributesOf(attributes)));
+        }
+    }
+
+    /**
+     * Digest of the message attributes, as SQS computes it so that clients can check them: for each attribute, in
+     * name order, the name, the data type, a transport type and the value, each preceded by its length.
+     */
+    static String md5Of(final Map<String, MessageAttributeValue> attributes) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        new TreeMap<>(attributes).forEach((name, attribute) -> {
+            updateWithLength(digest, name.getBytes(StandardCharsets.UTF_8));
+            updateWithLength(digest, attribute.getDataType().getBytes(StandardCharsets.UTF_8));
+            if (attribute.getStringValue() != null) {
+                digest.update((byte) 1);
+                updateWithLength(digest, attribute.getStringValue().getBytes(StandardCharsets.UTF_8));
+            } else if (attribute.getBinaryValue() != null) {
+                digest.update((byte) 2);
+                updateWithLength(digest, BinaryUtils.copyAllBytesFrom(attribute.getBinaryValue()));
+            }
+        });
+        return BinaryUtils.toHex(digest.digest());
+    }
+
+    private static void updateWithLength(final MessageDigest digest, final byte[] bytes) {
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    private static AmazonSQSException error(final String code, final String message) {
+        final var exception = new AmazonSQSException(message);
+        exception.setErrorCode(code);
+        exception.setStatusCode(400);
+        return exception;
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CPU time and bytes allocated by the invocations of a listener, sampled on the invoking thread. Only the work done
+ * before the listener returns is accounted, not the one completing a returned {@link java.util.concurrent.CompletionStage}
+ * elsewhere.
+ */
+@Slf4j
+final class ListenerAccounting {
+
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private final LongAdder sampled = new LongAdder();
+    private final LongAdder cpuTimeInNanos = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+
+    private ListenerAccounting() {
+    }
+
+    /**
+     * @return a new accounting, or null if the JVM can't measure CPU time and allocations per thread
+     */
+    static ListenerAccounting create() {
+        return THREADS != null ? new ListenerAccounting() : null;
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        final var bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            log.warn("Listener accounting is not supported by this JVM, it will be disabled");
+            return null;
+        }
+        final var threads = (com.sun.management.ThreadMXBean) bean;
+        try {
+            if (!threads.isCurrentThreadCpuTimeSupported() || !threads.isThreadAllocatedMemorySupported()) {
+                log.warn("Listener accounting is not supported by this JVM, it will be disabled");
+                return null;
+            }
+            threads.setThreadCpuTimeEnabled(true);
+            threads.setThreadAllocatedMemoryEnabled(true);
+            return threads;
+        } catch (UnsupportedOperationException | SecurityException e) {
+            log.warn("Listener accounting couldn't be enabled, it will be disabled", e);
+            return null;
+        }
+    }
+
+    long currentCpuTime() {
+        return THREADS.getCurrentThreadCpuTime();
+    }
+
+    long currentAllocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @param startCpuTime value of {@link #currentCpuTime()} before invoking the listener
+     * @param startAllocatedBytes value of {@link #currentAllocatedBytes()} before invoking the listener
+     */
+    void record(final long startCpuTime, final long startAllocatedBytes) {
+        final var allocated = this.currentAllocatedBytes();
+        final var cpuTime = this.currentCpuTime();
+        this.sampled.increment();
+        // both are -1 if measuring got disabled meanwhile
+        if (cpuTime >= 0L && startCpuTime >= 0L) {
+            this.cpuTimeInNanos.add(cpuTime - startCpuTime);
+        }
+        if (allocated >= 0L && startAllocatedBytes >= 0L) {
+            this.allocatedBytes.add(allocated - startAllocatedBytes);
+        }
+    }
+
+    long getSampled() {
+        return this.sampled.sum();
+    }
+
+    long getCpuTimeInNanos() {
+        return this.cpuTimeInNanos.sum();
+    }
+
+    long getAllocatedBytes() {
+        return this.allocatedBytes.sum();
+    }
+}
@@ -0,0 +1,39 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+
+/**
+ * Point-in-time counters of a single listener of a queue.
+ */
+@Value
+@Builder
+public class ListenerStatistics {
+
+    /**
+     * Listener, as the simple name of its bean class and its method name.
+     */
+    String listener;
+
+    /**
+     * Times the listener was invoked, once per message or per batch.
+     */
+    long invocations;
+
+    /**
+     * Invocations whose CPU time and allocations were sampled, none unless accounting is enabled for the queue.
+     */
+    long sampled;
+
+    /**
+     * CPU time spent by the sampled invocations, on the invoking thread.
+     */
+    Duration cpuTime;
+
+    /**
+     * Bytes allocated by the sampled invocations, on the invoking thread.
+     */
+    long allocatedBytes;
+}
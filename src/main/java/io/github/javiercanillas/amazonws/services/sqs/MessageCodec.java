@@ -0,0 +1,157 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * Writes messages in a compact binary form and reads them back, to carry them out of the JVM. Payloads and header
+ * values are kept as strings, bytes, numbers, booleans or serialized objects. The id and timestamp headers are left
+ * out, as every message gets new ones.
+ */
+@Slf4j
+final class MessageCodec {
+
+    private static final byte STRING = 'S';
+    private static final byte BYTES = 'B';
+    private static final byte INTEGER = 'I';
+    private static final byte LONG = 'J';
+    private static final byte DOUBLE = 'D';
+    private static final byte BOOLEAN = 'Z';
+    private static final byte OBJECT = 'O';
+
+    private MessageCodec() {
+    }
+
+    /**
+     * @param out where to write the message
+     * @param message the message to write, leaving out the headers that can't be written
+     * @return false if the payload can't be written, in which case nothing is
+     * @throws IOException if the output fails
+     */
+    static boolean write(final DataOutputStream out, final Message<?> message) throws IOException {
+        if (!writeValue(out, message.getPayload())) {
+            return false;
+        }
+        for (final var header : message.getHeaders().entrySet()) {
+            if (MessageHeaders.ID.equals(header.getKey()) || MessageHeaders.TIMESTAMP.equals(header.getKey())) {
+                continue;
+            }
+            final var value = new ByteArrayOutputStream();
+            if (writeValue(new DataOutputStream(value), header.getValue())) {
+                out.writeBoolean(true);
+                writeString(out, header.getKey());
+                value.writeTo(out);
+            } else {
+                log.debug("Header {} of type {} can't be written, it is left out", header.getKey(),
+                        header.getValue().getClass().getName());
+            }
+        }
+        out.writeBoolean(false);
+        return true;
+    }
+
+    /**
+     * @param in where to read the message from
+     * @return the message read
+     * @throws IOException if the input fails or is not a message
+     * @throws ClassNotFoundException if a serialized object is of an unknown class
+     */
+    static Message<?> read(final DataInputStream in) throws IOException, ClassNotFoundException {
+        final var payload = readValue(in);
+        final var headers = new HashMap<String, Object>();
+        while (in.readBoolean()) {
+            headers.put(readString(in), readValue(in));
+        }
+        return MessageBuilder.withPayload(payload).copyHeaders(headers).build();
+    }
+
+    static void writeString(final DataOutputStream out, final String value) throws IOException {
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String readString(final DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static boolean writeValue(final DataOutputStream out, final Object value) throws IOException {
+        if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            writeBytes(out, (byte[]) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Serializable) {
+            final var bytes = new ByteArrayOutputStream();
+            try (var objects = new ObjectOutputStream(bytes)) {
+                objects.writeObject(value);
+            } catch (IOException e) {
+                return false;
+            }
+            out.writeByte(OBJECT);
+            writeBytes(out, bytes.toByteArray());
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static Object readValue(final DataInputStream in) throws IOException, ClassNotFoundException {
+        final var type = in.readByte();
+        switch (type) {
+            case STRING:
+                return readString(in);
+            case BYTES:
+                return readBytes(in);
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case BOOLEAN:
+                return in.readBoolean();
+            case OBJECT:
+                try (var objects = new ObjectInputStream(new ByteArrayInputStream(readBytes(in)))) {
+                    return objects.readObject();
+                }
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    private static void writeBytes(final DataOutputStream out, final byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(final DataInputStream in) throws IOException {
+        final var bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,70 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Estimates the size of a message the way SQS counts it: the bytes of its body plus the name and value of each of its
+ * attributes, here its headers but the id and timestamp every message has. Text is counted in UTF-8 without being
+ * encoded. Payloads and header values that are neither text, bytes nor primitives are only known once serialized, so
+ * they count as nothing unless the queue serializes payloads.
+ */
+final class MessageSize {
+
+    /**
+     * Largest message SQS accepts.
+     */
+    static final int SQS_MAX_MESSAGE_SIZE = 256 * 1024;
+
+    private MessageSize() {
+    }
+
+    /**
+     * @param message the message to measure
+     * @return estimated bytes of the message
+     */
+    static int of(final Message<?> message) {
+        var size = sizeOf(message.getPayload());
+        final var headers = message.getHeaders();
+        if (headers != null) {
+            for (final var header : headers.entrySet()) {
+                if (!MessageHeaders.ID.equals(header.getKey()) && !MessageHeaders.TIMESTAMP.equals(header.getKey())) {
+                    size += utf8Length(header.getKey()) + sizeOf(header.getValue());
+                }
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    private static long sizeOf(final Object value) {
+        if (value instanceof CharSequence) {
+            return utf8Length((CharSequence) value);
+        } else if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        } else if (value instanceof ByteBuffer) {
+            return ((ByteBuffer) value).remaining();
+        } else if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+            return value.toString().length();
+        }
+        return 0L;
+    }
+
+    private static long utf8Length(final CharSequence text) {
+        final var length = text.length();
+        long bytes = length;
+        for (var i = 0; i < length; i++) {
+            final var c = text.charAt(i);
+            if (Character.isSurrogate(c)) {
+                // four bytes for the two characters of a pair
+                bytes++;
+            } else if (c >= 0x800) {
+                bytes += 2;
+            } else if (c >= 0x80) {
+                bytes++;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,41 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
+
+/**
+ * Thrown when sending a message larger than its queue accepts, as SQS would reject it.
+ */
+public class MessageTooLongException extends MessagingException {
+
+    private static final long serialVersionUID = -3158244723086102716L;
+
+    private final int size;
+
+    private final int maxSize;
+
+    /**
+     * @param message the rejected message
+     * @param size estimated bytes of the message
+     * @param maxSize bytes the queue accepts at most
+     */
+    public MessageTooLongException(final Message<?> message, final int size, final int maxSize) {
+        super(message, "Message of " + size + " bytes exceeds the maximum of " + maxSize + " bytes");
+        this.size = size;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return estimated bytes of the message
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return bytes the queue accepts at most
+     */
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+}
@@ -0,0 +1,166 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the large payloads of a queue while they are held, and expands them back once delivered. Only
+ * {@code String} and {@code byte[]} payloads are compressed, and only when it makes them smaller. Deflaters,
+ * inflaters and the buffer compressed payloads are written to are kept per thread and reused, as creating them is far
+ * from cheap.
+ */
+final class PayloadCompression {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported();
+
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[0]);
+
+    private final int threshold;
+
+    private final ThreadLocal<Deflater> deflaters;
+
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressionTimeInNanos = new LongAdder();
+    private final LongAdder decompressionTimeInNanos = new LongAdder();
+
+    /**
+     * @param threshold payloads below this number of bytes are kept as they are
+     * @param level compression level, from 1 for the fastest to 9 for the smallest
+     */
+    PayloadCompression(final int threshold, final int level) {
+        this.threshold = threshold;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+    }
+
+    /**
+     * @return the given message with its payload compressed, or as it is if not worth it
+     */
+    Message<?> compress(final Message<?> message) {
+        final var payload = message.getPayload();
+        final var text = payload instanceof String;
+        if (!text && !(payload instanceof byte[])
+                || text && ((String) payload).length() * 3L < this.threshold) {
+            // a character takes three bytes at most, except for surrogate pairs taking four for two characters
+            return message;
+        }
+        final var start = now();
+        final var bytes = text ? ((String) payload).getBytes(StandardCharsets.UTF_8) : (byte[]) payload;
+        if (bytes.length < this.threshold) {
+            return message;
+        }
+        final var deflater = this.deflaters.get();
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+        var output = BUFFERS.get();
+        if (output.length < bytes.length) {
+            output = new byte[bytes.length];
+            BUFFERS.set(output);
+        }
+        // anything not fitting in the size of the input isn't worth it
+        final var length = deflater.deflate(output, 0, bytes.length);
+        final var worth = deflater.finished();
+        this.compressionTimeInNanos.add(now() - start);
+        if (!worth) {
+            return message;
+        }
+        this.compressed.increment();
+        this.uncompressedBytes.add(bytes.length);
+        this.compressedBytes.add(length);
+        return MessageBuilder.createMessage(new Compressed(this, Arrays.copyOf(output, length), bytes.length, text),
+                message.getHeaders());
+    }
+
+    /**
+     * @return the given message with its payload expanded, if it was compressed
+     */
+    static Message<?> expand(final Message<?> message) {
+        if (message.getPayload() instanceof Compressed) {
+            final var compressedPayload = (Compressed) message.getPayload();
+            return MessageBuilder.createMessage(compressedPayload.owner.expand(compressedPayload),
+                    message.getHeaders());
+        }
+        return message;
+    }
+
+    private Object expand(final Compressed payload) {
+        final var start = now();
+        final var inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(payload.bytes);
+        final var bytes = new byte[payload.length];
+        try {
+            inflater.inflate(bytes);
+        } catch (DataFormatException e) {
+            throw new MessagingException("Couldn't expand compressed payload", e);
+        } finally {
+            this.decompressionTimeInNanos.add(now() - start);
+        }
+        return payload.text ? new String(bytes, StandardCharsets.UTF_8) : bytes;
+    }
+
+    long getCompressed() {
+        return this.compressed.sum();
+    }
+
+    long getUncompressedBytes() {
+        return this.uncompressedBytes.sum();
+    }
+
+    long getCompressedBytes() {
+        return this.compressedBytes.sum();
+    }
+
+    Duration getCompressionTime() {
+        return Duration.ofNanos(this.compressionTimeInNanos.sum());
+    }
+
+    Duration getDecompressionTime() {
+        return Duration.ofNanos(this.decompressionTimeInNanos.sum());
+    }
+
+    /**
+     * CPU time of the current thread, or elapsed time if the JVM can't measure it.
+     */
+    private static long now() {
+        return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * A compressed payload, along with what it takes to expand it.
+     */
+    static final class Compressed {
+
+        private final PayloadCompression owner;
+        private final byte[] bytes;
+        private final int length;
+        private final boolean text;
+
+        private Compressed(final PayloadCompression owner, final byte[] bytes, final int length, final boolean text) {
+            this.owner = owner;
+            this.bytes = bytes;
+            this.length = length;
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return "Compressed[" + this.bytes.length + " of " + this.length + " bytes]";
+        }
+    }
+}
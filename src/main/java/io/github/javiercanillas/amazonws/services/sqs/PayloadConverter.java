@@ -0,0 +1,111 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.converter.MessageConverter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Serializes and deserializes payloads through the message converter of a template, as they would be on their way
+ * through SQS. A {@link CompositeMessageConverter} asks each of its converters in turn for every message, so the one
+ * that handled a type last time is remembered and asked first, per payload type when serializing and per target type
+ * when deserializing. The remembered converters are forgotten whenever the converter of the template is replaced.
+ */
+final class PayloadConverter {
+
+    private final Supplier<MessageConverter> messageConverter;
+
+    private volatile Cache cache;
+
+    PayloadConverter(final Supplier<MessageConverter> messageConverter) {
+        this.messageConverter = messageConverter;
+    }
+
+    /**
+     * @param message message whose payload should be serialized
+     * @return a new message with the serialized payload and the same headers
+     * @throws MessageConversionException if no converter can serialize the payload
+     */
+    Message<?> serialize(final Message<?> message) {
+        final var cache = this.cache();
+        final var payloadType = message.getPayload().getClass();
+        final var known = cache.serializers.get(payloadType);
+        if (known != null) {
+            final var serialized = known.toMessage(message.getPayload(), message.getHeaders());
+            if (serialized != null) {
+                return serialized;
+            }
+        }
+        for (final var converter : cache.converters) {
+            final var serialized = converter.toMessage(message.getPayload(), message.getHeaders());
+            if (serialized != null) {
+                cache.serializers.put(payloadType, converter);
+                return serialized;
+            }
+        }
+        throw new MessageConversionException(message, "Unable to serialize payload of type " + payloadType.getName());
+    }
+
+    /**
+     * @param message message whose payload should be deserialized
+     * @param targetClass type the payload is expected as
+     * @return the payload as the given type, as it is if already an instance of it
+     * @throws MessageConversionException if no converter can deserialize the payload
+     */
+    @SuppressWarnings("unchecked")
+    <T> T deserialize(final Message<?> message, final Class<T> targetClass) {
+        if (targetClass.isInstance(message.getPayload())) {
+            return (T) message.getPayload();
+        }
+        final var cache = this.cache();
+        final var known = cache.deserializers.get(targetClass);
+        if (known != null) {
+            final var deserialized = known.fromMessage(message, targetClass);
+            if (deserialized != null) {
+                return (T) deserialized;
+            }
+        }
+        for (final var converter : cache.converters) {
+            final var deserialized = converter.fromMessage(message, targetClass);
+            if (deserialized != null) {
+                cache.deserializers.put(targetClass, converter);
+                return (T) deserialized;
+            }
+        }
+        throw new MessageConversionException(message, "Unable to deserialize payload of type "
+                + message.getPayload().getClass().getName() + " to " + targetClass.getName());
+    }
+
+    private Cache cache() {
+        final var current = this.messageConverter.get();
+        var known = this.cache;
+        if (known == null || known.source != current) {
+            known = new Cache(current);
+            this.cache = known;
+        }
+        return known;
+    }
+
+    private static final class Cache {
+
+        private final MessageConverter source;
+
+        private final List<MessageConverter> converters;
+
+        private final Map<Class<?>, MessageConverter> serializers = new ConcurrentHashMap<>();
+
+        private final Map<Class<?>, MessageConverter> deserializers = new ConcurrentHashMap<>();
+
+        private Cache(final MessageConverter source) {
+            this.source = source;
+            this.converters = source instanceof CompositeMessageConverter
+                    ? ((CompositeMessageConverter) source).getConverters()
+                    : List.of(source);
+        }
+    }
+}
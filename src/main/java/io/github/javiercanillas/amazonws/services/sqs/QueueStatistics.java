@@ -0,0 +1,96 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+
+/**
+ * Point-in-time counters of a single queue.
+ */
+@Value
+@Builder
+public class QueueStatistics {
+
+    /**
+     * Messages that can be consumed right away.
+     */
+    int visible;
+
+    /**
+     * Messages waiting for their delay or visibility timeout to elapse.
+     */
+    int delayed;
+
+    /**
+     * Delayed messages received through the SQS API, hidden until deleted or their visibility timeout elapses.
+     */
+    int received;
+
+    /**
+     * Messages being handled by listeners.
+     */
+    int inFlight;
+
+    /**
+     * Messages sent and not deleted yet, whatever their state.
+     */
+    int outstanding;
+
+    /**
+     * Messages discarded because their retention period elapsed.
+     */
+    long expired;
+
+    /**
+     * Messages discarded by purges, including in-flight ones given back once their queue was purged.
+     */
+    long purged;
+
+    /**
+     * Threads consuming the queue for its listeners.
+     */
+    int workers;
+
+    /**
+     * Estimated bytes of the visible and delayed messages, counted as SQS would count them.
+     */
+    long heldBytes;
+
+    /**
+     * Estimated bytes of every message sent so far.
+     */
+    long sentBytes;
+
+    /**
+     * Messages whose payload was compressed while held, none unless compression is enabled for the queue.
+     */
+    long compressed;
+
+    /**
+     * Bytes of the compressed payloads before being compressed.
+     */
+    long uncompressedBytes;
+
+    /**
+     * Bytes of the compressed payloads once compressed.
+     */
+    long compressedBytes;
+
+    /**
+     * CPU time spent compressing payloads, including those not worth it.
+     */
+    Duration compressionTime;
+
+    /**
+     * CPU time spent expanding compressed payloads on delivery.
+     */
+    Duration decompressionTime;
+
+    /**
+     * @return bytes before compression per byte after compression, or zero if nothing was compressed
+     */
+    public double getCompressionRatio() {
+        return this.compressedBytes > 0L ? (double) this.uncompressedBytes / this.compressedBytes : 0d;
+    }
+}
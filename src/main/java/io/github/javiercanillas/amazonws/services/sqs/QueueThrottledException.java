@@ -0,0 +1,18 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import org.springframework.messaging.MessagingException;
+
+/**
+ * Thrown when a send or receive is rejected as throttled by the fault profile of its queue, as SQS may do under load.
+ */
+public class QueueThrottledException extends MessagingException {
+
+    private static final long serialVersionUID = 4410712209316553826L;
+
+    /**
+     * @param queueName name of the throttled queue
+     */
+    public QueueThrottledException(final String queueName) {
+        super("Request to queue " + queueName + " was throttled");
+    }
+}
@@ -0,0 +1,47 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+
+/**
+ * Outcome of a replay: how fast messages went through, and how long they waited for a listener to handle them.
+ */
+@Value
+@Builder
+public class ReplayReport {
+
+    /**
+     * Messages sent again.
+     */
+    long sent;
+
+    /**
+     * Messages deleted by listeners while replaying, the ones latencies were measured for.
+     */
+    long completed;
+
+    /**
+     * Time from the first message sent until listeners were done with them, or the drain timeout elapsed.
+     */
+    Duration elapsed;
+
+    /**
+     * Messages completed per second.
+     */
+    double throughput;
+
+    /**
+     * Latency percentiles, from the time a message became visible until a listener was done with it.
+     */
+    Duration latencyP50;
+
+    Duration latencyP90;
+
+    Duration latencyP99;
+
+    Duration latencyP999;
+
+    Duration latencyMax;
+}
@@ -0,0 +1,349 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+
+/**
+ * Ring buffer of records laid out on a memory-mapped file, written and read by every process mapping the same file.
+ * Writers claim space by moving the shared tail forward, and publish a record by stamping it with its position once
+ * written. Each consumer group keeps its own offset in the file header, which the processes of the group move forward
+ * as they take records, so that they compete for records while every group reads all of them. Writers never lap the
+ * slowest group: the ring rejects records instead.
+ * <p>
+ * Only processes taking records join a group, writing alone doesn't. Groups stamp their slot with the last time one of
+ * their processes read, and writers stop waiting for a group silent for longer than the group timeout, as its
+ * processes are most likely gone. Such a group starts again from the tail if it comes back, and its slot is given to
+ * another group once there is no free one left.
+ * <p>
+ * Offsets are moved with atomic operations on the mapped memory, which are seen by every process. There is no way
+ * to wake up another process, so readers are expected to poll.
+ */
+@Slf4j
+final class SharedMemoryRing {
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.nativeOrder());
+
+    private static final long MAGIC = 0x53514d52494e4731L;
+
+    private static final int MAGIC_INDEX = 0;
+    private static final int CAPACITY_INDEX = 8;
+    private static final int TAIL_INDEX = 64;
+    private static final int GROUPS_INDEX = 128;
+    private static final int GROUP_SIZE = 64;
+    static final int MAX_GROUPS = 16;
+    private static final int HEADER_SIZE = 4096;
+
+    /**
+     * Every record starts with a mark made of the position it was written at, its length and its type, and is padded
+     * to eight bytes so that marks can be accessed atomically. Marks are scrambled so that neither the zeroes of a new
+     * file nor the leftovers of a previous lap are taken for a record.
+     */
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int ALIGNMENT = 8;
+    private static final int MESSAGE = 1;
+    private static final int PADDING = 2;
+
+    private final Path path;
+
+    private final ByteBuffer buffer;
+
+    private final long capacity;
+
+    private final long groupTimeoutInMillis;
+
+    private volatile int groupIndex = -1;
+
+    private SharedMemoryRing(final Path path, final ByteBuffer buffer, final long capacity,
+                             final long groupTimeoutInMillis) {
+        this.path = path;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.groupTimeoutInMillis = groupTimeoutInMillis;
+    }
+
+    /**
+     * Maps the given file, creating it if needed. Records can be offered right away, while taking them needs to
+     * {@link #join} a consumer group first.
+     *
+     * @param path file shared by the processes
+     * @param capacity bytes of records the ring holds, only used if the file is created
+     * @param groupTimeout time after which writers stop waiting for a group that doesn't read, zero to wait forever
+     * @return the mapped ring
+     * @throws IOException if the file can't be mapped
+     */
+    static SharedMemoryRing open(final Path path, final int capacity, final Duration groupTimeout)
+            throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            final FileLock lock = channel.lock();
+            try {
+                // the mapping stays valid once the channel is closed
+                long ringCapacity;
+                MappedByteBuffer mapped;
+                if (channel.size() < HEADER_SIZE) {
+                    ringCapacity = Math.max(ALIGNMENT * 2L, capacity - capacity % ALIGNMENT);
+                    mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0L, HEADER_SIZE + ringCapacity);
+                    mapped.order(ByteOrder.nativeOrder()).putLong(CAPACITY_INDEX, ringCapacity);
+                    LONGS.setVolatile(mapped, MAGIC_INDEX, MAGIC);
+                } else {
+                    final var header = ByteBuffer.allocate(16).order(ByteOrder.nativeOrder());
+                    channel.read(header, 0L);
+                    if (header.getLong(MAGIC_INDEX) != MAGIC) {
+                        throw new IOException("Not a shared queue file: " + path);
+                    }
+                    ringCapacity = header.getLong(CAPACITY_INDEX);
+                    if (ringCapacity != capacity) {
+                        log.debug("Using the capacity of {} bytes {} was created with", ringCapacity, path);
+                    }
+                    mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0L, HEADER_SIZE + ringCapacity);
+                    mapped.order(ByteOrder.nativeOrder());
+                }
+                return new SharedMemoryRing(path, mapped, ringCapacity, Math.max(0L, groupTimeout.toMillis()));
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Joins the given consumer group, so that records can be taken. A group joining for the first time, or coming
+     * back once given up by the writers, starts reading from the current tail. Joining again does nothing.
+     *
+     * @param consumerGroup consumer group of this process
+     * @return this ring
+     * @throws IOException if the file can't be locked, or it has no room for another consumer group
+     */
+    synchronized SharedMemoryRing join(final String consumerGroup) throws IOException {
+        if (this.groupIndex < 0) {
+            try (var channel = FileChannel.open(this.path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                final FileLock lock = channel.lock();
+                try {
+                    this.groupIndex = this.claimSlot(groupIdOf(consumerGroup));
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return true if this mapping joined a consumer group
+     */
+    boolean isJoined() {
+        return this.groupIndex >= 0;
+    }
+
+    /**
+     * Called while holding the file lock, so that two groups never take the same slot. The offset and stamp of a
+     * slot are set before its id, as writers only look at the groups they see.
+     */
+    private int claimSlot(final long groupId) throws IOException {
+        final var now = System.currentTimeMillis();
+        var givenUp = -1;
+        for (var i = 0; i < MAX_GROUPS; i++) {
+            final var index = GROUPS_INDEX + i * GROUP_SIZE;
+            final var id = (long) LONGS.getVolatile(this.buffer, index);
+            if (id == groupId) {
+                if (this.isGivenUp(index, now)) {
+                    this.restart(index, now);
+                }
+                return index;
+            } else if (id == 0L) {
+                this.restart(index, now);
+                LONGS.setVolatile(this.buffer, index, groupId);
+                return index;
+            } else if (givenUp < 0 && this.isGivenUp(index, now)) {
+                givenUp = index;
+            }
+        }
+        if (givenUp >= 0) {
+            log.debug("Reusing the slot of a consumer group given up in {}", this.path);
+            this.restart(givenUp, now);
+            LONGS.setVolatile(this.buffer, givenUp, groupId);
+            return givenUp;
+        }
+        throw new IOException("No room for another consumer group in " + this.path);
+    }
+
+    /**
+     * Moves a group to the tail before stamping it, so that writers never see a live group behind.
+     */
+    private void restart(final int index, final long now) {
+        LONGS.setVolatile(this.buffer, index + 8, (long) LONGS.getVolatile(this.buffer, TAIL_INDEX));
+        LONGS.setVolatile(this.buffer, index + 16, now);
+    }
+
+    private boolean isGivenUp(final int index, final long now) {
+        return this.groupTimeoutInMillis > 0L
+                && now - (long) LONGS.getVolatile(this.buffer, index + 16) > this.groupTimeoutInMillis;
+    }
+
+    /**
+     * Stamps the consumer group of this mapping as still reading, at most a few times per group timeout. A group
+     * found given up already may have had records overwritten, so it starts again from the tail.
+     */
+    void heartbeat() {
+        final var index = this.groupIndex;
+        if (index < 0 || this.groupTimeoutInMillis == 0L) {
+            return;
+        }
+        final var now = System.currentTimeMillis();
+        final var last = (long) LONGS.getVolatile(this.buffer, index + 16);
+        if (now - last < this.groupTimeoutInMillis / 4) {
+            return;
+        }
+        if (now - last > this.groupTimeoutInMillis) {
+            log.warn("Consumer group of {} didn't read for {}ms and was given up, records it didn't take may be lost",
+                    this.path, now - last);
+            this.restart(index, now);
+        } else {
+            LONGS.compareAndSet(this.buffer, index + 16, last, now);
+        }
+    }
+
+    private static long groupIdOf(final String consumerGroup) {
+        // 64-bit FNV-1a, zero being reserved for free slots
+        var hash = 0xcbf29ce484222325L;
+        for (final var b : consumerGroup.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash != 0L ? hash : 1L;
+    }
+
+    /**
+     * @param record bytes to append
+     * @return false if there is no room left for the record until the slowest group catches up
+     * @throws IllegalArgumentException if the record takes more than half the capacity, as it might then never fit
+     *                                  along with the padding up to the end of the ring
+     */
+    boolean offer(final byte[] record) {
+        final var recordLength = align(RECORD_HEADER_SIZE + record.length);
+        if (recordLength > this.capacity / 2) {
+            throw new IllegalArgumentException("Record of " + record.length + " bytes exceeds half the capacity of "
+                    + this.capacity + " bytes");
+        }
+        while (true) {
+            final var tail = (long) LONGS.getVolatile(this.buffer, TAIL_INDEX);
+            final var toEnd = this.capacity - tail % this.capacity;
+            final var padding = recordLength > toEnd ? toEnd : 0L;
+            // groups given up are only looked for once the ring seems full, as it takes the time
+            if (tail + padding + recordLength - this.slowestOffset(tail, false) > this.capacity
+                    && tail + padding + recordLength - this.slowestOffset(tail, true) > this.capacity) {
+                return false;
+            }
+            if (LONGS.compareAndSet(this.buffer, TAIL_INDEX, tail, tail + padding + recordLength)) {
+                if (padding >= RECORD_HEADER_SIZE) {
+                    this.publish(tail, PADDING, null);
+                }
+                this.publish(tail + padding, MESSAGE, record);
+                return true;
+            }
+        }
+    }
+
+    private void publish(final long position, final int type, final byte[] record) {
+        final var index = this.indexOf(position);
+        if (record != null) {
+            this.buffer.putInt(index + 8, record.length);
+            this.buffer.duplicate().position(index + RECORD_HEADER_SIZE).put(record);
+        }
+        this.buffer.putInt(index + 12, type);
+        LONGS.setRelease(this.buffer, index, markOf(position));
+    }
+
+    private long slowestOffset(final long tail, final boolean skipGivenUp) {
+        final var now = skipGivenUp ? System.currentTimeMillis() : 0L;
+        var slowest = tail;
+        for (var i = 0; i < MAX_GROUPS; i++) {
+            final var index = GROUPS_INDEX + i * GROUP_SIZE;
+            if ((long) LONGS.getVolatile(this.buffer, index) == 0L) {
+                break;
+            }
+            if (!skipGivenUp || !this.isGivenUp(index, now)) {
+                slowest = Math.min(slowest, (long) LONGS.getVolatile(this.buffer, index + 8));
+            }
+        }
+        return slowest;
+    }
+
+    /**
+     * Takes the next record of the consumer group of this process, if any was published already.
+     *
+     * @return the record, or null if there is none
+     * @throws IllegalStateException if no consumer group was joined
+     */
+    byte[] poll() {
+        if (this.groupIndex < 0) {
+            throw new IllegalStateException("No consumer group of " + this.path + " was joined");
+        }
+        this.heartbeat();
+        final var offsetIndex = this.groupIndex + 8;
+        while (true) {
+            final var offset = (long) LONGS.getVolatile(this.buffer, offsetIndex);
+            final var toEnd = this.capacity - offset % this.capacity;
+            if (toEnd < RECORD_HEADER_SIZE) {
+                // too short for a record, writers skip it without a mark
+                LONGS.compareAndSet(this.buffer, offsetIndex, offset, offset + toEnd);
+                continue;
+            }
+            final var index = this.indexOf(offset);
+            if ((long) LONGS.getAcquire(this.buffer, index) != markOf(offset)) {
+                return null;
+            }
+            if (this.buffer.getInt(index + 12) == PADDING) {
+                LONGS.compareAndSet(this.buffer, offsetIndex, offset, offset + toEnd);
+                continue;
+            }
+            // copied before moving the offset, as the writers may reuse the space right after
+            final var record = new byte[this.buffer.getInt(index + 8)];
+            this.buffer.duplicate().position(index + RECORD_HEADER_SIZE).get(record);
+            if (LONGS.compareAndSet(this.buffer, offsetIndex, offset,
+                    offset + align(RECORD_HEADER_SIZE + record.length))) {
+                return record;
+            }
+        }
+    }
+
+    /**
+     * @return bytes of records published but not taken yet by the consumer group of this process, zero if none was
+     *         joined
+     */
+    long pending() {
+        final var index = this.groupIndex;
+        if (index < 0) {
+            return 0L;
+        }
+        return (long) LONGS.getVolatile(this.buffer, TAIL_INDEX) - (long) LONGS.getVolatile(this.buffer, index + 8);
+    }
+
+    long getCapacity() {
+        return this.capacity;
+    }
+
+    private int indexOf(final long position) {
+        return HEADER_SIZE + (int) (position % this.capacity);
+    }
+
+    private static long markOf(final long position) {
+        return ~position ^ MAGIC;
+    }
+
+    private static long align(final long length) {
+        return (length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+}
@@ -0,0 +1,200 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Carries the messages of a queue shared with other processes of the same host through a {@link SharedMemoryRing}.
+ * Messages sent to the queue are written to the ring instead of the local instance, and a pump thread takes them
+ * back from the ring into the local instance while the queue has listeners, keeping only a few of them ahead. Delays
+ * are kept as a wall-clock time, which every process of the host agrees on.
+ * <p>
+ * The process joins its consumer group only once it takes messages, either starting the pump or receiving from the
+ * queue, so that processes only sending to the queue never hold the ring back.
+ */
+@Slf4j
+final class SharedMemoryTransport {
+
+    private static final int SPINS = 100;
+    private static final int YIELDS = 100;
+    private static final long MAX_IDLE_IN_NANOS = TimeUnit.MILLISECONDS.toNanos(1L);
+
+    private final String queueName;
+
+    private final SharedMemoryRing ring;
+
+    private final String consumerGroup;
+
+    private final int prefetch;
+
+    private Thread pump;
+
+    SharedMemoryTransport(final String queueName, final SharedMemoryRing ring, final String consumerGroup,
+                          final int prefetch) {
+        this.queueName = queueName;
+        this.ring = ring;
+        this.consumerGroup = consumerGroup;
+        this.prefetch = Math.max(1, prefetch);
+    }
+
+    /**
+     * @param queueName name of the queue, naming its file in the shared directory
+     * @param settings sharing settings
+     * @return the transport of the given queue
+     * @throws MessagingException if the file of the queue can't be mapped
+     */
+    static SharedMemoryTransport open(final String queueName, final InMemoryQueueMessagingProperties.Shared settings) {
+        final var path = Path.of(settings.getDirectory()).resolve(queueName + ".queue");
+        try {
+            final var ring = SharedMemoryRing.open(path, settings.getCapacity(), settings.getGroupTimeout());
+            log.debug("Sharing queue {} through {} as {}", queueName, path, settings.getConsumerGroup());
+            return new SharedMemoryTransport(queueName, ring, settings.getConsumerGroup(), settings.getPrefetch());
+        } catch (IOException e) {
+            throw new MessagingException("Couldn't share queue " + queueName + " through " + path, e);
+        }
+    }
+
+    /**
+     * @param message message to write to the ring
+     * @param delayInMillis time the message should stay invisible
+     * @throws MessagingException if the message can't be written, or the ring is full
+     */
+    void publish(final Message<?> message, final long delayInMillis) {
+        final var record = encode(message, System.currentTimeMillis() + delayInMillis);
+        final boolean offered;
+        try {
+            offered = this.ring.offer(record);
+        } catch (IllegalArgumentException e) {
+            throw new MessagingException(message, "Message is too large for shared queue " + this.queueName, e);
+        }
+        if (!offered) {
+            throw new MessagingException(message, "Shared queue " + this.queueName + " is full");
+        }
+    }
+
+    /**
+     * Takes the next message of the ring, if any, into the given queue, joining the consumer group if not done yet.
+     *
+     * @return true if a message was taken
+     * @throws MessagingException if the consumer group can't be joined
+     */
+    boolean pull(final SqsManager sqsManager) {
+        if (!this.ring.isJoined()) {
+            this.join();
+        }
+        final var record = this.ring.poll();
+        if (record == null) {
+            return false;
+        }
+        final var decoded = decode(record);
+        if (decoded != null) {
+            sqsManager.enqueue(decoded.getSecond(),
+                    Math.max(0L, decoded.getFirst() - System.currentTimeMillis()));
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the consumer group of this process has messages in the ring it didn't take yet
+     */
+    boolean hasPending() {
+        return this.ring.pending() > 0L;
+    }
+
+    private void join() {
+        try {
+            this.ring.join(this.consumerGroup);
+            log.debug("Joined consumer group {} of shared queue {}", this.consumerGroup, this.queueName);
+        } catch (IOException e) {
+            throw new MessagingException("Couldn't join consumer group " + this.consumerGroup + " of shared queue "
+                    + this.queueName, e);
+        }
+    }
+
+    /**
+     * Joins the consumer group and starts the pump thread of the given queue, if not running yet.
+     *
+     * @throws MessagingException if the consumer group can't be joined
+     */
+    synchronized void start(final SqsManager sqsManager) {
+        if (this.pump == null) {
+            this.join();
+            this.pump = new Thread(() -> this.pump(sqsManager), "in-memory-sqs-shared-" + this.queueName);
+            this.pump.setDaemon(true);
+            this.pump.start();
+        }
+    }
+
+    /**
+     * Asks the pump thread to stop, leaving the messages not taken yet in the ring.
+     */
+    synchronized void stop() {
+        if (this.pump != null) {
+            this.pump.interrupt();
+            this.pump = null;
+        }
+    }
+
+    /**
+     * Polls the ring as there is no way to be woken up by another process: spinning first, yielding next and then
+     * parking for longer and longer, up to a millisecond. The group is stamped as reading even while the local queue
+     * is full, so that writers don't give it up for being slow.
+     */
+    private void pump(final SqsManager sqsManager) {
+        var idle = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            if (sqsManager.getOutstandingCount() >= this.prefetch) {
+                this.ring.heartbeat();
+            } else if (this.pull(sqsManager)) {
+                idle = 0;
+                continue;
+            }
+            if (idle < SPINS) {
+                Thread.onSpinWait();
+                idle++;
+            } else if (idle < SPINS + YIELDS) {
+                Thread.yield();
+                idle++;
+            } else {
+                LockSupport.parkNanos(Math.min(MAX_IDLE_IN_NANOS, 1000L << Math.min(idle++ - SPINS - YIELDS, 10)));
+            }
+        }
+    }
+
+    static byte[] encode(final Message<?> message, final long notBeforeInMillis) {
+        final var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeLong(notBeforeInMillis);
+            if (!MessageCodec.write(out, message)) {
+                throw new MessagingException(message, "Payload of type " + message.getPayload().getClass().getName()
+                        + " can't be shared");
+            }
+        } catch (IOException e) {
+            throw new MessagingException(message, "Couldn't write message to shared queue", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the time the message becomes visible along with the message, or null if it can't be read
+     */
+    static Pair<Long, Message<?>> decode(final byte[] record) {
+        try (var in = new DataInputStream(new ByteArrayInputStream(record))) {
+            final var notBeforeInMillis = in.readLong();
+            return Pair.of(notBeforeInMillis, MessageCodec.read(in));
+        } catch (IOException | ClassNotFoundException e) {
+            log.error("Couldn't read message from shared queue, it is discarded", e);
+            return null;
+        }
+    }
+}
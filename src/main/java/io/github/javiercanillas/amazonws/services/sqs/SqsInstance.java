@@ -1,19 +1,91 @@
 package io.github.javiercanillas.amazonws.services.sqs;
 
 import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
 
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Objects;
-import java.util.Optional;
-import java.util.concurrent.DelayQueue;
-import java.util.concurrent.Delayed;
+import java.util.PriorityQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * In-memory storage of a single queue. Messages that can be consumed right away are kept in FIFO order, while delayed
+ * ones wait in a priority queue ordered by the time they become visible, and are moved into the FIFO lazily whenever
+ * a consumer looks for work.
+ *
+ * Every message is also linked into a retention bucket grouping messages that expire around the same time. Buckets are
+ * created in expiration order, so {@link #expire()} only needs to look at the oldest ones instead of scanning every
+ * message. Messages taken by a consumer leave their bucket and join it again if they are {@link #requeue requeued},
+ * unless the bucket expired in the meantime.
+ *
+ * Messages {@link #receive received} through the SQS API stay in the instance as delayed ones until their visibility
+ * timeout elapses, and can be deleted or have their visibility changed using the receipt handle of the last receive.
+ *
+ * Once {@link #close() closed}, an instance rejects new messages and wakes up every blocked consumer, so it can be
+ * replaced by a fresh one without touching the messages it holds.
+ */
 public class SqsInstance {
     public static final String CONTENT_MUST_NOT_BE_NULL = "content must not be null";
-    private final DelayQueue<DelayedItem> internalQueue;
+    public static final Duration DEFAULT_RETENTION_PERIOD = Duration.ofDays(4);
+    private static final long MIN_BUCKET_WIDTH = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_BUCKET_WIDTH = TimeUnit.MINUTES.toNanos(1);
+    private static final int BUCKETS_PER_RETENTION_PERIOD = 64;
+    private static final int MIN_DELAYED_GARBAGE_TO_COMPACT = 64;
+
+    private final Duration retentionPeriod;
+    private final long retentionInNanos;
+    private final long bucketWidthInNanos;
+    private final ReentrantLock lock;
+    private final Condition available;
+    private final PriorityQueue<Entry> delayed;
+    private final ArrayDeque<RetentionBucket> buckets;
+    private Entry visibleHead;
+    private Entry visibleTail;
+    private volatile int visibleCount;
+    private volatile int delayedCount;
+    private volatile int receivedCount;
+    private volatile long heldBytes;
+    private int delayedGarbage;
+    private long sequence;
+    private volatile boolean closed;
 
     public SqsInstance() {
-        this.internalQueue = new DelayQueue<>();
+        this(DEFAULT_RETENTION_PERIOD);
+    }
+
+    /**
+     * @param retentionPeriod time a message is kept before being discarded, SQS accepts values from 60 seconds to
+     *                        14 days
+     */
+    public SqsInstance(final Duration retentionPeriod) {
+        Objects.requireNonNull(retentionPeriod, "retentionPeriod must not be null");
+        this.retentionPeriod = retentionPeriod;
+        this.retentionInNanos = retentionPeriod.toNanos();
+        this.bucketWidthInNanos = Math.max(MIN_BUCKET_WIDTH,
+                Math.min(MAX_BUCKET_WIDTH, this.retentionInNanos / BUCKETS_PER_RETENTION_PERIOD));
+        this.lock = new ReentrantLock();
+        this.available = this.lock.newCondition();
+        this.delayed = new PriorityQueue<>(Comparator.comparingLong(Entry::getConsumeOnTimeInNanos)
+                .thenComparingLong(Entry::getSequence));
+        this.buckets = new ArrayDeque<>();
+    }
+
+    /**
+     * @return a new, empty instance with the same settings as this one
+     */
+    public SqsInstance emptyCopy() {
+        return new SqsInstance(this.retentionPeriod);
+    }
+
+    public Duration getRetentionPeriod() {
+        return this.retentionPeriod;
     }
 
     public boolean add(final Message<?> content) {
@@ -21,55 +93,781 @@ public class SqsInstance {
         return this.add(content, 0L);
     }
 
+    /**
+     * Adds a message to this queue.
+     *
+     * @param content the message
+     * @param delayInMillis time the message remains invisible
+     * @return false if this instance has already been closed, true otherwise
+     */
     public boolean add(final Message<?> content, final long delayInMillis) {
         Objects.requireNonNull(content, CONTENT_MUST_NOT_BE_NULL);
-        return this.internalQueue.add(new DelayedItem(content, delayInMillis));
+        return this.add(content, delayInMillis, MessageSize.of(content));
     }
 
+    /**
+     * Same as {@link #add(Message, long)}, with the size of the message already estimated.
+     */
+    boolean add(final Message<?> content, final long delayInMillis, final int size) {
+        Objects.requireNonNull(content, CONTENT_MUST_NOT_BE_NULL);
+        final var entry = new Entry(content, System.nanoTime() + this.retentionInNanos, size);
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                return false;
+            }
+            this.linkToBucket(entry);
+            this.enqueue(entry, delayInMillis);
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Puts back a message previously taken from a queue, keeping its original retention. A message taken from an
+     * instance closed since, which happens when a queue is purged while the message is in-flight, is discarded along
+     * with the rest of that instance.
+     *
+     * @param entry the message entry, as taken
+     * @param delayInMillis time the message remains invisible
+     * @return false if this instance has already been closed, or the message expired or was discarded, true otherwise
+     */
+    boolean requeue(final Entry entry, final long delayInMillis) {
+        Objects.requireNonNull(entry, "entry must not be null");
+        this.lock.lock();
+        try {
+            if (this.closed || entry.state == EntryState.EXPIRED || entry.state == EntryState.DISCARDED) {
+                return false;
+            }
+            final var bucket = entry.bucket;
+            if (bucket != null && bucket.owner != this && bucket.owner.closed) {
+                entry.state = EntryState.DISCARDED;
+                entry.bucket = null;
+                return false;
+            }
+            if (bucket != null && bucket.owner == this) {
+                if (bucket.expired) {
+                    entry.state = EntryState.EXPIRED;
+                    entry.bucket = null;
+                    return false;
+                }
+                bucket.link(entry);
+            } else {
+                this.linkToBucket(entry);
+            }
+            this.enqueue(entry, delayInMillis);
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the next visible message, waiting if necessary until one becomes available.
+     *
+     * @return the message, or null if this instance was closed while waiting
+     * @throws InterruptedException if interrupted while waiting
+     */
     @SuppressWarnings("java:S1452")
     public Message<?> take() throws InterruptedException {
-        return this.internalQueue.take().getContent();
+        final var entry = this.takeEntry();
+        return entry != null ? entry.getMessage() : null;
+    }
+
+    /**
+     * Same as {@link #take()}, but returns the entry holding the message, so it can be requeued later on.
+     */
+    Entry takeEntry() throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            while (!this.closed) {
+                final var taken = this.pollVisible();
+                if (taken != null) {
+                    return taken;
+                }
+                final var head = this.delayed.peek();
+                if (head == null) {
+                    this.available.await();
+                } else {
+                    this.available.awaitNanos(head.getDelayInNanos());
+                }
+            }
+            return null;
+        } finally {
+            if (this.visibleHead != null) {
+                this.available.signal();
+            }
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Same as {@link #takeEntry()}, but takes every visible entry up to the given maximum at once, under a single
+     * lock acquisition, and then keeps on waiting for more until there are as many as requested or the given time
+     * elapses.
+     *
+     * @param maxEntries maximum number of entries to take
+     * @param maxWaitInNanos maximum time to wait for more entries once the first one was taken, none if zero
+     * @return the entries taken, empty if this instance was closed while waiting for the first one
+     * @throws InterruptedException if interrupted while waiting for the first entry
+     */
+    List<Entry> takeEntries(final int maxEntries, final long maxWaitInNanos) throws InterruptedException {
+        return this.takeEntries(maxEntries, maxWaitInNanos, Long.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@link #takeEntries(int, long)}, but gives up if no entry becomes visible in time.
+     *
+     * @param maxEntries maximum number of entries to take
+     * @param maxWaitInNanos maximum time to wait for more entries once the first one was taken, none if zero
+     * @param firstWaitInNanos maximum time to wait for the first entry, {@link Long#MAX_VALUE} to wait forever
+     * @return the entries taken, empty if this instance was closed or no entry became visible in time
+     * @throws InterruptedException if interrupted while waiting for the first entry
+     */
+    List<Entry> takeEntries(final int maxEntries, final long maxWaitInNanos, final long firstWaitInNanos)
+            throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            final var firstDeadline = System.nanoTime() + firstWaitInNanos;
+            Entry first = null;
+            while (!this.closed && (first = this.pollVisible()) == null) {
+                final var head = this.delayed.peek();
+                final var remaining = firstWaitInNanos == Long.MAX_VALUE ? Long.MAX_VALUE
+                        : firstDeadline - System.nanoTime();
+                if (remaining <= 0L) {
+                    break;
+                } else if (head == null && remaining == Long.MAX_VALUE) {
+                    this.available.await();
+                } else {
+                    this.available.awaitNanos(head == null ? remaining
+                            : Math.min(remaining, head.getDelayInNanos()));
+                }
+            }
+            if (first == null) {
+                return Collections.emptyList();
+            }
+            final var entries = new ArrayList<Entry>(Math.min(maxEntries, 1 + this.visibleCount));
+            entries.add(first);
+            final var deadline = maxWaitInNanos > 0L ? System.nanoTime() + maxWaitInNanos : 0L;
+            while (entries.size() < maxEntries && !this.closed) {
+                final var taken = this.pollVisible();
+                if (taken != null) {
+                    entries.add(taken);
+                    continue;
+                }
+                final var remaining = maxWaitInNanos > 0L ? deadline - System.nanoTime() : 0L;
+                if (remaining <= 0L) {
+                    break;
+                }
+                final var head = this.delayed.peek();
+                try {
+                    this.available.awaitNanos(head == null ? remaining
+                            : Math.min(remaining, head.getDelayInNanos()));
+                } catch (InterruptedException e) {
+                    // entries were already taken, so they are handed out anyway
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return entries;
+        } finally {
+            if (this.visibleHead != null) {
+                this.available.signal();
+            }
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return time the oldest visible message has been waiting to be consumed, zero if there is none
+     */
+    long oldestVisibleAgeInNanos() {
+        this.lock.lock();
+        try {
+            this.promoteDelayed();
+            return this.visibleHead != null ? System.nanoTime() - this.visibleHead.consumeOnTimeInNanos : 0L;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * A hint, read without locking, telling whether there are visible messages. Delayed messages whose delay
+     * elapsed are not taken into account until a consumer looks for them.
+     *
+     * @return true if there seem to be visible messages
+     */
+    boolean hasVisible() {
+        return this.visibleCount > 0;
     }
 
     @SuppressWarnings("java:S1452")
     public Message<?> poll() {
-        final var taken = this.internalQueue.poll();
-        return Optional.ofNullable(taken).map(DelayedItem::getContent).orElse(null);
+        final var entry = this.pollEntry();
+        return entry != null ? entry.getMessage() : null;
+    }
+
+    /**
+     * Same as {@link #poll()}, but returns the entry holding the message, so it can be requeued later on.
+     */
+    Entry pollEntry() {
+        this.lock.lock();
+        try {
+            return this.closed ? null : this.pollVisible();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Receives visible messages as the SQS API does: they are handed out together with a new receipt handle and stay
+     * in this instance, hidden until the visibility timeout elapses.
+     *
+     * @param maxNumberOfMessages maximum number of messages to receive
+     * @param waitTimeInNanos maximum time to wait for a first message to become visible
+     * @param visibilityTimeoutInMillis time the received messages remain invisible
+     * @return the received messages, empty if none became visible in time or this instance was closed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    List<Delivery> receive(final int maxNumberOfMessages, final long waitTimeInNanos,
+                           final long visibilityTimeoutInMillis) throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            final var deadline = System.nanoTime() + waitTimeInNanos;
+            while (!this.closed) {
+                this.promoteDelayed();
+                if (this.visibleHead != null) {
+                    return this.deliver(maxNumberOfMessages, visibilityTimeoutInMillis);
+                }
+                final var remaining = deadline - System.nanoTime();
+                if (remaining <= 0L) {
+                    break;
+                }
+                final var head = this.delayed.peek();
+                this.available.awaitNanos(head == null ? remaining : Math.min(remaining, head.getDelayInNanos()));
+            }
+            return Collections.emptyList();
+        } finally {
+            if (this.visibleHead != null) {
+                this.available.signal();
+            }
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Same as {@link #receive(int, long, long)}, but never waits.
+     */
+    List<Delivery> receiveNow(final int maxNumberOfMessages, final long visibilityTimeoutInMillis) {
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                return Collections.emptyList();
+            }
+            this.promoteDelayed();
+            return this.visibleHead != null
+                    ? this.deliver(maxNumberOfMessages, visibilityTimeoutInMillis)
+                    : Collections.emptyList();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return time until the next delayed message becomes visible, or a negative value if there are none
+     */
+    long nextVisibleInNanos() {
+        this.lock.lock();
+        try {
+            final var head = this.delayed.peek();
+            return head != null ? Math.max(0L, head.getDelayInNanos()) : -1L;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private List<Delivery> deliver(final int maxNumberOfMessages, final long visibilityTimeoutInMillis) {
+        final var deliveries = new ArrayList<Delivery>(Math.min(maxNumberOfMessages, this.visibleCount));
+        while (this.visibleHead != null && deliveries.size() < maxNumberOfMessages) {
+            final var entry = this.visibleHead;
+            this.unlinkVisible(entry);
+            entry.receiveCount++;
+            if (entry.firstReceiveTimeInMillis == 0L) {
+                entry.firstReceiveTimeInMillis = System.currentTimeMillis();
+            }
+            final var previousReceiptHandle = entry.receiptHandle;
+            entry.receiptHandle = entry.message.getHeaders().getId() + "-" + entry.receiveCount;
+            deliveries.add(new Delivery(entry, previousReceiptHandle));
+        }
+        // enqueued once all of them were taken, so a zero visibility timeout doesn't hand the same message twice
+        for (final var delivery : deliveries) {
+            this.enqueue(delivery.entry, visibilityTimeoutInMillis);
+        }
+        return deliveries;
+    }
+
+    /**
+     * Deletes a received message, as long as the receipt handle is the one of its last receive.
+     *
+     * @param entry the message entry, as received
+     * @param receiptHandle the receipt handle given when received
+     * @return true if the message was deleted
+     */
+    boolean remove(final Entry entry, final String receiptHandle) {
+        this.lock.lock();
+        try {
+            if (!this.isReceived(entry, receiptHandle)) {
+                return false;
+            }
+            if (entry.state == EntryState.VISIBLE) {
+                this.unlinkVisible(entry);
+            } else {
+                // removing from the priority queue is linear, it will be skipped once it becomes visible
+                this.delayedCount--;
+                this.receivedCount--;
+                this.heldBytes -= entry.size;
+                this.delayedGarbage++;
+                this.compactDelayed();
+            }
+            entry.bucket.unlink(entry);
+            entry.bucket = null;
+            entry.receiptHandle = null;
+            entry.state = EntryState.DELETED;
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Changes the time a received message remains invisible, counted from now on.
+     *
+     * @param entry the message entry, as received
+     * @param receiptHandle the receipt handle given when received
+     * @param visibilityTimeoutInMillis new visibility timeout
+     * @return true if the visibility was changed
+     */
+    boolean changeVisibility(final Entry entry, final String receiptHandle, final long visibilityTimeoutInMillis) {
+        this.lock.lock();
+        try {
+            if (!this.isReceived(entry, receiptHandle)) {
+                return false;
+            }
+            if (entry.state == EntryState.VISIBLE) {
+                this.unlinkVisible(entry);
+            } else {
+                // its position in the priority queue depends on the time it becomes visible, so it must be removed
+                this.delayed.remove(entry);
+                this.delayedCount--;
+                this.receivedCount--;
+                this.heldBytes -= entry.size;
+            }
+            this.enqueue(entry, visibilityTimeoutInMillis);
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private boolean isReceived(final Entry entry, final String receiptHandle) {
+        return !this.closed
+                && entry.bucket != null
+                && entry.bucket.owner == this
+                && (entry.state == EntryState.VISIBLE || entry.state == EntryState.DELAYED)
+                && receiptHandle.equals(entry.receiptHandle);
+    }
+
+    /**
+     * Looks at the next visible messages without taking them, in the order they would be consumed.
+     *
+     * @param maxMessages maximum number of messages to look at
+     * @return the next visible messages, at most the given number
+     */
+    @SuppressWarnings("java:S1452")
+    public List<Message<?>> peek(final int maxMessages) {
+        this.lock.lock();
+        try {
+            this.promoteDelayed();
+            final var messages = new ArrayList<Message<?>>(Math.min(maxMessages, this.visibleCount));
+            for (var entry = this.visibleHead; entry != null && messages.size() < maxMessages; entry = entry.next) {
+                messages.add(entry.getMessage());
+            }
+            return messages;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of messages held, either visible or delayed
+     */
+    public int size() {
+        return this.visibleCount + this.delayedCount;
+    }
+
+    /**
+     * @return number of messages that can be consumed right away
+     */
+    public int visibleSize() {
+        this.lock.lock();
+        try {
+            this.promoteDelayed();
+            return this.visibleCount;
+        } finally {
+            this.lock.unlock();
+        }
     }
 
-    private static class DelayedItem implements Delayed {
+    /**
+     * @return number of delayed messages, some of them may have become visible already, counting the received ones
+     */
+    public int delayedSize() {
+        return this.delayedCount;
+    }
+
+    /**
+     * @return number of messages {@link #receive received} through the SQS API and hidden until their visibility
+     * timeout elapses, some of them may have become visible already
+     */
+    public int receivedSize() {
+        return this.receivedCount;
+    }
 
-        private final Message<?> content;
-        private final long consumeOnTimeInMillis;
+    /**
+     * @return estimated bytes of the messages held, either visible or delayed
+     */
+    public long heldBytes() {
+        return this.heldBytes;
+    }
 
-        DelayedItem(final Message<?> content, final long delayInSeconds) {
-            Objects.requireNonNull(content, CONTENT_MUST_NOT_BE_NULL);
-            this.content = content;
-            this.consumeOnTimeInMillis = System.currentTimeMillis() + (delayInSeconds > 0 ? delayInSeconds : 0);
+    /**
+     * Discards the messages held in every retention bucket that has already expired.
+     *
+     * @return number of messages discarded
+     */
+    public int expire() {
+        this.lock.lock();
+        try {
+            final var now = System.nanoTime();
+            var expired = 0;
+            var bucket = this.buckets.peekFirst();
+            while (bucket != null && bucket.endInNanos - now <= 0) {
+                this.buckets.pollFirst();
+                bucket.expired = true;
+                var entry = bucket.head;
+                while (entry != null) {
+                    final var next = entry.bucketNext;
+                    entry.bucketPrevious = null;
+                    entry.bucketNext = null;
+                    entry.bucket = null;
+                    if (entry.state == EntryState.VISIBLE) {
+                        this.unlinkVisible(entry);
+                    } else if (entry.state == EntryState.DELAYED) {
+                        // removing from the priority queue is linear, it will be skipped once it becomes visible
+                        this.delayedCount--;
+                        if (entry.receiptHandle != null) {
+                            this.receivedCount--;
+                        }
+                        this.heldBytes -= entry.size;
+                        this.delayedGarbage++;
+                    }
+                    entry.state = EntryState.EXPIRED;
+                    expired++;
+                    entry = next;
+                }
+                bucket.head = null;
+                bucket = this.buckets.peekFirst();
+            }
+            this.compactDelayed();
+            return expired;
+        } finally {
+            this.lock.unlock();
         }
-        @Override
-        public long getDelay(final TimeUnit unit) {
-            return unit.convert(this.consumeOnTimeInMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes this instance. Messages still held are abandoned as a whole instead of being removed one by one, and
+     * every consumer blocked on {@link #take()} is released.
+     *
+     * @return number of messages abandoned
+     */
+    public int close() {
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                return 0;
+            }
+            this.closed = true;
+            this.available.signalAll();
+            return this.visibleCount + this.delayedCount;
+        } finally {
+            this.lock.unlock();
         }
+    }
 
-        @Override
-        public int compareTo(final Delayed o) {
-            Objects.requireNonNull(o, "o must not be null");
-            var value = this.consumeOnTimeInMillis - ((DelayedItem) o).getConsumeOnTimeInMillis();
-            if (value > 2147483647L) {
-                return 2147483647;
+    private void enqueue(final Entry entry, final long delayInMillis) {
+        entry.sequence = this.sequence++;
+        if (delayInMillis > 0) {
+            entry.consumeOnTimeInNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayInMillis);
+            entry.state = EntryState.DELAYED;
+            this.delayed.add(entry);
+            this.delayedCount++;
+            if (entry.receiptHandle != null) {
+                this.receivedCount++;
+            }
+            this.heldBytes += entry.size;
+        } else {
+            entry.consumeOnTimeInNanos = System.nanoTime();
+            this.linkVisible(entry);
+        }
+        this.available.signal();
+    }
+
+    private void linkToBucket(final Entry entry) {
+        var bucket = this.buckets.peekLast();
+        if (bucket == null || entry.expiresAtInNanos - bucket.endInNanos >= 0) {
+            bucket = new RetentionBucket(this, entry.expiresAtInNanos + this.bucketWidthInNanos);
+            this.buckets.addLast(bucket);
+        }
+        bucket.link(entry);
+    }
+
+    private Entry pollVisible() {
+        this.promoteDelayed();
+        final var entry = this.visibleHead;
+        if (entry != null) {
+            this.unlinkVisible(entry);
+            entry.state = EntryState.IN_FLIGHT;
+            entry.receiptHandle = null;
+            if (entry.bucket != null) {
+                entry.bucket.unlink(entry);
+            }
+        }
+        return entry;
+    }
+
+    private void promoteDelayed() {
+        final var now = System.nanoTime();
+        var head = this.delayed.peek();
+        while (head != null && head.getConsumeOnTimeInNanos() - now <= 0) {
+            this.delayed.poll();
+            if (head.state == EntryState.DELAYED) {
+                this.delayedCount--;
+                if (head.receiptHandle != null) {
+                    this.receivedCount--;
+                }
+                this.heldBytes -= head.size;
+                this.linkVisible(head);
             } else {
-                return value < -2147483648L ? -2147483648 : (int)value;
+                this.delayedGarbage--;
             }
+            head = this.delayed.peek();
+        }
+    }
+
+    /**
+     * Drops the entries left behind in the priority queue by deletions and expirations, once they outnumber the
+     * delayed ones, keeping the cost linear in the number of messages removed.
+     */
+    private void compactDelayed() {
+        if (this.delayedGarbage > MIN_DELAYED_GARBAGE_TO_COMPACT && this.delayedGarbage > this.delayedCount) {
+            this.delayed.removeIf(entry -> entry.state != EntryState.DELAYED);
+            this.delayedGarbage = 0;
+        }
+    }
+
+    private void linkVisible(final Entry entry) {
+        entry.state = EntryState.VISIBLE;
+        entry.previous = this.visibleTail;
+        entry.next = null;
+        if (this.visibleTail == null) {
+            this.visibleHead = entry;
+        } else {
+            this.visibleTail.next = entry;
+        }
+        this.visibleTail = entry;
+        this.visibleCount++;
+        this.heldBytes += entry.size;
+    }
+
+    private void unlinkVisible(final Entry entry) {
+        if (entry.previous == null) {
+            this.visibleHead = entry.next;
+        } else {
+            entry.previous.next = entry.next;
+        }
+        if (entry.next == null) {
+            this.visibleTail = entry.previous;
+        } else {
+            entry.next.previous = entry.previous;
+        }
+        entry.previous = null;
+        entry.next = null;
+        this.visibleCount--;
+        this.heldBytes -= entry.size;
+    }
+
+    enum EntryState {
+        VISIBLE, DELAYED, IN_FLIGHT, EXPIRED, DISCARDED, DELETED
+    }
+
+    /**
+     * A message held by a queue. Entries are intrusively linked both into the visible FIFO and into their retention
+     * bucket, so they can be removed from any of them in constant time.
+     */
+    static class Entry {
+
+        private final Message<?> message;
+        private final long expiresAtInNanos;
+        private final int size;
+        private long consumeOnTimeInNanos;
+        private long sequence;
+        private EntryState state;
+        private Entry previous;
+        private Entry next;
+        private RetentionBucket bucket;
+        private Entry bucketPrevious;
+        private Entry bucketNext;
+        private String receiptHandle;
+        private int receiveCount;
+        private long firstReceiveTimeInMillis;
+
+        /**
+         * @param size estimated bytes of the message, measured once as it is sent
+         */
+        Entry(final Message<?> message, final long expiresAtInNanos, final int size) {
+            Objects.requireNonNull(message, CONTENT_MUST_NOT_BE_NULL);
+            this.message = message;
+            this.expiresAtInNanos = expiresAtInNanos;
+            this.size = size;
+            this.state = EntryState.IN_FLIGHT;
+        }
+
+        Entry(final Message<?> message) {
+            this(message, System.nanoTime() + DEFAULT_RETENTION_PERIOD.toNanos(), MessageSize.of(message));
+        }
+
+        long getDelayInNanos() {
+            return this.consumeOnTimeInNanos - System.nanoTime();
         }
 
-        public long getConsumeOnTimeInMillis() {
-            return consumeOnTimeInMillis;
+        long getConsumeOnTimeInNanos() {
+            return this.consumeOnTimeInNanos;
         }
 
+        long getSequence() {
+            return this.sequence;
+        }
+
+        boolean isExpired() {
+            return this.state == EntryState.EXPIRED;
+        }
+
+        boolean isDiscarded() {
+            return this.state == EntryState.DISCARDED;
+        }
+
+        /**
+         * @return the message, with its payload expanded if it was compressed
+         */
         @SuppressWarnings("java:S1452")
-        public Message<?> getContent() {
-            return content;
+        Message<?> getMessage() {
+            return PayloadCompression.expand(this.message);
+        }
+
+        MessageHeaders getHeaders() {
+            return this.message.getHeaders();
+        }
+    }
+
+    /**
+     * A snapshot of a received message, taken while it was being received.
+     */
+    static final class Delivery {
+
+        private final Entry entry;
+        private final String receiptHandle;
+        private final String previousReceiptHandle;
+        private final int receiveCount;
+        private final long firstReceiveTimeInMillis;
+        private final long queueTimeInNanos;
+
+        private Delivery(final Entry entry, final String previousReceiptHandle) {
+            this.entry = entry;
+            this.queueTimeInNanos = System.nanoTime() - entry.consumeOnTimeInNanos;
+            this.receiptHandle = entry.receiptHandle;
+            this.previousReceiptHandle = previousReceiptHandle;
+            this.receiveCount = entry.receiveCount;
+            this.firstReceiveTimeInMillis = entry.firstReceiveTimeInMillis;
+        }
+
+        Entry getEntry() {
+            return this.entry;
+        }
+
+        @SuppressWarnings("java:S1452")
+        Message<?> getMessage() {
+            return this.entry.getMessage();
+        }
+
+        String getReceiptHandle() {
+            return this.receiptHandle;
+        }
+
+        String getPreviousReceiptHandle() {
+            return this.previousReceiptHandle;
+        }
+
+        int getReceiveCount() {
+            return this.receiveCount;
+        }
+
+        long getFirstReceiveTimeInMillis() {
+            return this.firstReceiveTimeInMillis;
+        }
+
+        /**
+         * @return time the message waited in the queue since it became visible
+         */
+        long getQueueTimeInNanos() {
+            return this.queueTimeInNanos;
+        }
+    }
+
+    private static class RetentionBucket {
+
+        private final SqsInstance owner;
+        private final long endInNanos;
+        private Entry head;
+        private boolean expired;
+
+        RetentionBucket(final SqsInstance owner, final long endInNanos) {
+            this.owner = owner;
+            this.endInNanos = endInNanos;
+        }
+
+        void link(final Entry entry) {
+            entry.bucket = this;
+            entry.bucketPrevious = null;
+            entry.bucketNext = this.head;
+            if (this.head != null) {
+                this.head.bucketPrevious = entry;
+            }
+            this.head = entry;
+        }
+
+        void unlink(final Entry entry) {
+            if (entry.bucketPrevious == null) {
+                this.head = entry.bucketNext;
+            } else {
+                entry.bucketPrevious.bucketNext = entry.bucketNext;
+            }
+            if (entry.bucketNext != null) {
+                entry.bucketNext.bucketPrevious = entry.bucketPrevious;
+            }
+            entry.bucketPrevious = null;
+            entry.bucketNext = null;
         }
     }
 }
@@ -4,112 +4,1502 @@ import io.awspring.cloud.messaging.core.SqsMessageHeaders;
 import io.awspring.cloud.messaging.listener.SqsMessageDeletionPolicy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
 
 import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 @Slf4j
 public class SqsManager {
 
-    private final SqsInstance sqsInstance;
+    private static final int MIN_SPINS = 16;
 
-    private final Thread consumerThread;
+    private static final int MAX_SPINS = 4096;
+
+    /**
+     * Time a worker holds the messages it took when its poll is throttled, as the SQS client backs off to retry.
+     */
+    private static final long THROTTLED_BACKOFF_IN_NANOS = TimeUnit.MILLISECONDS.toNanos(10L);
+
+    private final AtomicReference<SqsInstance> sqsInstance;
+
+    private final boolean createConsumer;
+
+    /**
+     * Threads consuming this queue for its listeners, which remove themselves when retiring or stopping.
+     */
+    private final List<Thread> workers;
+
+    /**
+     * Workers asked to stop that didn't finish yet.
+     */
+    private final List<Thread> stoppingWorkers;
+
+    /**
+     * Incremented every time the workers are stopped, so that those still finishing never go on along with the
+     * ones started afterwards.
+     */
+    private volatile int generation;
+
+    /**
+     * Whether this queue should be consumed as long as it has listeners. Guarded by this manager's monitor.
+     */
+    private boolean started;
+
+    /**
+     * Listener invocation running on each worker, looked at by the watchdog.
+     */
+    private final Map<Thread, Watch> watches;
+
+    private final int minWorkers;
+
+    private final int maxWorkers;
+
+    private final int backlogPerWorker;
+
+    private final long maxMessageAgeInNanos;
+
+    private final long idleTimeoutInNanos;
+
+    private volatile boolean running;
+
+    private final String queueName;
 
     private final Map<Pair<Object, Method>, ConsumeMethodHolder> hookedConsumers;
 
     private final InMemoryAwsSqsClient client;
 
+    private final Duration visibilityTimeout;
+
+    /**
+     * Bounds the messages handed to listeners whose outcome is still pending, except those only waiting for the
+     * acknowledgment of listeners that already returned.
+     */
+    private final Semaphore inFlightPermits;
+
+    private final int maxInFlight;
+
+    private final int batchSize;
+
+    /**
+     * Maximum number of messages the consumer thread takes at once for listeners handling one message at a time.
+     */
+    private final int dispatchBatchSize;
+
+    /**
+     * Spins done before parking a worker. It is shared by the workers, which may overwrite each other's updates
+     * without harm.
+     */
+    private int spinLimit;
+
+    private final long batchMaxWaitInNanos;
+
+    /**
+     * Whether listeners sample the CPU time and bytes allocated by their invocations.
+     */
+    private final boolean accounting;
+
+    /**
+     * Number of listeners taking batches. While there is any, the consumer thread takes batches of messages.
+     */
+    private volatile int batchListeners;
+
+    /**
+     * Whether every listener acknowledges messages later on, with {@link SqsMessageDeletionPolicy#NEVER}.
+     */
+    private volatile boolean acknowledgedLater;
+
+    /**
+     * Messages sent to this queue and not yet deleted: visible, delayed and in-flight ones.
+     */
+    private final AtomicInteger outstanding;
+
+    /**
+     * Messages taken by the consumer thread and still being handled by the listeners.
+     */
+    private final AtomicInteger inFlight;
+
+    /**
+     * Messages discarded because their retention period elapsed.
+     */
+    private final LongAdder expired;
+
+    /**
+     * Messages discarded by purges, including in-flight ones given back once their queue was purged.
+     */
+    private final LongAdder purged;
+
+    /**
+     * Messages received through the SQS API, by the receipt handle of their last receive.
+     */
+    private final Map<String, SqsInstance.Entry> receipts;
+
+    private final ReentrantLock idleLock;
+
+    private final Condition idleCondition;
+
+    /**
+     * Asynchronous receives waiting for messages, in arrival order. They hold no thread while parked: they are
+     * completed by whoever makes a message visible, or by a timer once their wait time elapses.
+     */
+    private final Deque<PendingReceive> pendingReceives;
+
+    private final ReentrantLock pendingLock;
+
+    private volatile int pendingCount;
+
+    private volatile ScheduledExecutorService asyncExecutor;
+
+    /**
+     * Demand-driven streams of this queue, served in subscription order whenever messages become visible or more
+     * messages are requested. Their demand is guarded by {@link #pendingLock}, while messages are emitted outside it.
+     */
+    private final List<MessageStream> streams;
+
+    private ScheduledFuture<?> wakeUp;
+
+    /**
+     * Transport of this queue when it is shared with other processes, null otherwise.
+     */
+    private volatile SharedMemoryTransport transport;
+
+    /**
+     * Deserializes the payloads handed to listeners when the queue serializes them, null otherwise.
+     */
+    private PayloadConverter payloadConverter;
+
+    /**
+     * Told the nanoseconds each message deleted by a listener waited since it became visible, null if nobody asked.
+     */
+    private volatile LongConsumer latencyObserver;
+
+    /**
+     * Compresses large payloads while they are held, null when compression is disabled for this queue.
+     */
+    private final PayloadCompression compression;
+
+    /**
+     * Latency and faults added to sends and receives, null when disabled for this queue.
+     */
+    private final FaultProfile faults;
+
+    /**
+     * Largest message accepted, as estimated by {@link MessageSize}, or zero for no limit.
+     */
+    private final int maxMessageSize;
+
+    private final LongAdder sentBytes;
+
+    private long wakeUpAtInNanos;
+
     public SqsManager(final SqsInstance sqsInstance, final boolean createConsumer, final InMemoryAwsSqsClient client) {
+        this(null, sqsInstance, createConsumer, client, InMemoryQueueMessagingProperties.Queue.withDefaults());
+    }
+
+    /**
+     * @param queueName name of the queue, as seen in the events recorded by the JDK Flight Recorder
+     */
+    public SqsManager(final String queueName, final SqsInstance sqsInstance, final boolean createConsumer,
+                      final InMemoryAwsSqsClient client, final InMemoryQueueMessagingProperties.Queue settings) {
         Objects.requireNonNull(sqsInstance, "sqsInstance must not be null");
-        this.sqsInstance = sqsInstance;
+        Objects.requireNonNull(settings, "settings must not be null");
+        this.queueName = queueName;
+        this.visibilityTimeout = settings.getVisibilityTimeout();
+        this.maxInFlight = Math.max(1, settings.getMaxInFlight());
+        this.inFlightPermits = new Semaphore(this.maxInFlight);
+        final var workerSettings = settings.getWorkers();
+        this.minWorkers = Math.max(1, workerSettings.getMin());
+        this.maxWorkers = Math.max(this.minWorkers, workerSettings.getMax());
+        this.backlogPerWorker = Math.max(1, workerSettings.getBacklogPerWorker());
+        this.maxMessageAgeInNanos = workerSettings.getMaxMessageAge().toNanos();
+        this.idleTimeoutInNanos = workerSettings.getIdleTimeout().toNanos();
+        this.workers = new CopyOnWriteArrayList<>();
+        this.stoppingWorkers = new CopyOnWriteArrayList<>();
+        this.watches = new ConcurrentHashMap<>();
+        this.batchSize = Math.max(1, settings.getBatchSize());
+        this.dispatchBatchSize = Math.max(1, settings.getDispatchBatchSize());
+        this.spinLimit = MIN_SPINS;
+        this.batchMaxWaitInNanos = settings.getBatchMaxWait().toNanos();
+        this.accounting = settings.isAccounting();
+        this.maxMessageSize = Math.max(0, settings.getMaxMessageSize());
+        this.sentBytes = new LongAdder();
+        final var compressionSettings = settings.getCompression();
+        this.compression = compressionSettings.isEnabled()
+                ? new PayloadCompression(compressionSettings.getThreshold(), compressionSettings.getLevel())
+                : null;
+        this.faults = FaultProfile.of(queueName, settings.getFaults());
+        this.sqsInstance = new AtomicReference<>(sqsInstance);
         this.hookedConsumers = new ConcurrentHashMap<>();
         this.client = client;
-        if (createConsumer) {
-            this.consumerThread = new Thread(this::consume);
-        } else {
-            this.consumerThread = null;
-        }
+        this.outstanding = new AtomicInteger();
+        this.inFlight = new AtomicInteger();
+        this.expired = new LongAdder();
+        this.purged = new LongAdder();
+        this.receipts = new ConcurrentHashMap<>();
+        this.idleLock = new ReentrantLock();
+        this.idleCondition = this.idleLock.newCondition();
+        this.pendingReceives = new ArrayDeque<>();
+        this.pendingLock = new ReentrantLock();
+        this.streams = new CopyOnWriteArrayList<>();
+        this.createConsumer = createConsumer;
     }
 
     @SuppressWarnings("java:S1452")
     public Message<?> receive() {
-        return this.sqsInstance.poll();
+        this.checkThrottled();
+        this.awaitReceive();
+        var entry = this.sqsInstance.get().pollEntry();
+        final var sharedTransport = this.transport;
+        if (entry == null && sharedTransport != null && sharedTransport.pull(this)) {
+            entry = this.sqsInstance.get().pollEntry();
+        }
+        if (entry == null) {
+            return null;
+        }
+        FlightRecorderEvents.delivered(this.queueName, System.nanoTime() - entry.getConsumeOnTimeInNanos());
+        this.release();
+        return entry.getMessage();
     }
 
-    private void consume() {
-        while (!Thread.currentThread().isInterrupted()) {
-            try {
-                final var taken = this.sqsInstance.take();
-                boolean removed = this.hookedConsumers.values().stream()
-                        .map(consumer -> this.handledConsume(consumer, taken))
-                        .reduce(Boolean::logicalOr)
-                        .orElse(false);
-                if (!removed) {
-                    this.send(taken);
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+    /**
+     * Receives messages as the SQS API does. They are kept hidden until the visibility timeout elapses, or until they
+     * are {@link #delete deleted} using their receipt handle, and meanwhile they are counted as delayed. The caller
+     * {@link #checkThrottled() checks} whether the request is throttled.
+     *
+     * @param maxNumberOfMessages maximum number of messages to receive
+     * @param waitTime maximum time to wait for a first message to become visible
+     * @param visibilityTimeout time the received messages remain invisible
+     * @return the received messages, empty if none became visible in time
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    List<SqsInstance.Delivery> receive(final int maxNumberOfMessages, final Duration waitTime,
+                                       final Duration visibilityTimeout) throws InterruptedException {
+        this.awaitReceive();
+        final var deadline = System.nanoTime() + waitTime.toNanos();
+        var instance = this.sqsInstance.get();
+        while (true) {
+            final var deliveries = instance.receive(maxNumberOfMessages, deadline - System.nanoTime(),
+                    visibilityTimeout.toMillis());
+            if (!deliveries.isEmpty()) {
+                return this.track(deliveries);
+            }
+            // only a purge while waiting is worth a retry, on the instance that replaced it
+            final var current = this.sqsInstance.get();
+            if (current == instance || deadline - System.nanoTime() <= 0L) {
+                return Collections.emptyList();
+            }
+            instance = current;
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #receive(int, Duration, Duration)}. It completes right away, on the calling
+     * thread, if there are visible messages or there is nothing to wait for. Otherwise, it is parked without holding
+     * any thread and completed on the given executor.
+     *
+     * @param maxNumberOfMessages maximum number of messages to receive
+     * @param waitTime maximum time to wait for a first message to become visible
+     * @param visibilityTimeout time the received messages remain invisible
+     * @param executor executor completing parked receives and running their timers
+     * @return the future received messages, empty if none became visible in time
+     */
+    CompletableFuture<List<SqsInstance.Delivery>> receiveAsync(final int maxNumberOfMessages,
+                                                              final Duration waitTime,
+                                                              final Duration visibilityTimeout,
+                                                              final ScheduledExecutorService executor) {
+        final var faultProfile = this.faults;
+        if (faultProfile != null) {
+            final var latencyInNanos = faultProfile.nextReceiveLatencyInNanos();
+            if (latencyInNanos > 0L) {
+                return CompletableFuture
+                        .runAsync(() -> { }, CompletableFuture.delayedExecutor(latencyInNanos, TimeUnit.NANOSECONDS,
+                                executor))
+                        .thenCompose(ignored -> this.receiveOrPark(maxNumberOfMessages, waitTime, visibilityTimeout,
+                                executor));
+            }
+        }
+        return this.receiveOrPark(maxNumberOfMessages, waitTime, visibilityTimeout, executor);
+    }
+
+    private CompletableFuture<List<SqsInstance.Delivery>> receiveOrPark(final int maxNumberOfMessages,
+                                                                       final Duration waitTime,
+                                                                       final Duration visibilityTimeout,
+                                                                       final ScheduledExecutorService executor) {
+        final var deliveries = this.receiveNow(maxNumberOfMessages, visibilityTimeout.toMillis());
+        if (!deliveries.isEmpty() || waitTime.isZero() || waitTime.isNegative()) {
+            return CompletableFuture.completedFuture(deliveries);
+        }
+        this.asyncExecutor = executor;
+        final var pending = new PendingReceive(maxNumberOfMessages, visibilityTimeout.toMillis());
+        this.pendingLock.lock();
+        try {
+            // scheduled first, so that an executor shut down already leaves nothing parked behind, while the lock
+            // keeps the timeout from running before the receive is parked
+            pending.timeout = executor.schedule(() -> this.expirePending(pending), waitTime.toNanos(),
+                    TimeUnit.NANOSECONDS);
+            this.pendingReceives.addLast(pending);
+            this.pendingCount++;
+            // a message may have arrived since the first attempt
+            this.dispatchPendingLocked();
+        } finally {
+            this.pendingLock.unlock();
+        }
+        this.drainStreams();
+        return pending.future;
+    }
+
+    private List<SqsInstance.Delivery> receiveNow(final int maxNumberOfMessages,
+                                                  final long visibilityTimeoutInMillis) {
+        return this.track(this.sqsInstance.get().receiveNow(maxNumberOfMessages, visibilityTimeoutInMillis));
+    }
+
+    private List<SqsInstance.Delivery> track(final List<SqsInstance.Delivery> deliveries) {
+        for (final var delivery : deliveries) {
+            this.receipts.put(delivery.getReceiptHandle(), delivery.getEntry());
+            if (delivery.getPreviousReceiptHandle() != null) {
+                this.receipts.remove(delivery.getPreviousReceiptHandle());
+            }
+            FlightRecorderEvents.delivered(this.queueName, delivery.getQueueTimeInNanos());
+        }
+        return deliveries;
+    }
+
+    /**
+     * Opens a stream handing messages of this queue to the given emitter, as many as requested and no more. Messages
+     * are taken and deleted only when there is demand for them, on whatever thread makes them visible or requests
+     * them, so none is held by a stream once cancelled. They are emitted without holding any lock of the queue, and
+     * by one thread at a time: a thread finding the stream busy leaves its messages to the one emitting.
+     *
+     * @param emitter receives the messages, one at a time
+     * @param executor executor waking the stream up when delayed messages become visible
+     * @return the stream, without demand yet
+     */
+    MessageStream openStream(final Consumer<Message<?>> emitter, final ScheduledExecutorService executor) {
+        Objects.requireNonNull(emitter, "emitter must not be null");
+        if (this.asyncExecutor == null) {
+            this.asyncExecutor = executor;
+        }
+        final var stream = new MessageStream(emitter);
+        this.streams.add(stream);
+        return stream;
+    }
+
+    private void dispatchPending() {
+        if (this.pendingCount == 0 && this.streams.isEmpty()) {
+            return;
+        }
+        this.pendingLock.lock();
+        try {
+            this.dispatchPendingLocked();
+        } finally {
+            this.pendingLock.unlock();
+        }
+        this.drainStreams();
+    }
+
+    private void dispatchPendingLocked() {
+        var pending = this.pendingReceives.peekFirst();
+        while (pending != null) {
+            final var deliveries = this.receiveNow(pending.maxNumberOfMessages, pending.visibilityTimeoutInMillis);
+            if (deliveries.isEmpty()) {
                 break;
             }
+            this.pendingReceives.pollFirst();
+            this.pendingCount--;
+            pending.complete(deliveries, this.asyncExecutor);
+            pending = this.pendingReceives.peekFirst();
+        }
+        if (this.serveStreamsLocked() || pending != null) {
+            this.scheduleWakeUp();
+        }
+    }
+
+    /**
+     * Takes visible messages for the streams with demand, which are {@link #drainStreams() emitted} once the lock is
+     * released, so that a slow emitter holds up neither senders nor parked receives.
+     *
+     * @return true if some stream is still waiting for messages
+     */
+    private boolean serveStreamsLocked() {
+        var waiting = false;
+        for (final var stream : this.streams) {
+            while (stream.requested > 0L && !stream.cancelled) {
+                final var entry = this.sqsInstance.get().pollEntry();
+                if (entry == null) {
+                    waiting = true;
+                    break;
+                }
+                stream.take(entry);
+            }
+        }
+        return waiting;
+    }
+
+    /**
+     * Emits the messages taken for the streams. Called without holding {@link #pendingLock}.
+     */
+    private void drainStreams() {
+        for (final var stream : this.streams) {
+            stream.drain();
+        }
+    }
+
+    /**
+     * Makes sure parked receives are looked at again once the next delayed message becomes visible.
+     */
+    private void scheduleWakeUp() {
+        final var next = this.sqsInstance.get().nextVisibleInNanos();
+        if (next < 0L || this.asyncExecutor == null) {
+            return;
+        }
+        final var wakeUpAt = System.nanoTime() + next;
+        if (this.wakeUp != null && !this.wakeUp.isDone()) {
+            if (this.wakeUpAtInNanos - wakeUpAt <= 0L) {
+                return;
+            }
+            this.wakeUp.cancel(false);
+        }
+        try {
+            this.wakeUp = this.asyncExecutor.schedule(this::dispatchPending, next, TimeUnit.NANOSECONDS);
+            this.wakeUpAtInNanos = wakeUpAt;
+        } catch (RejectedExecutionException e) {
+            log.debug("Executor is shut down, parked receives won't be woken up", e);
+        }
+    }
+
+    private void expirePending(final PendingReceive pending) {
+        this.pendingLock.lock();
+        try {
+            if (this.pendingReceives.remove(pending)) {
+                this.pendingCount--;
+            } else {
+                return;
+            }
+        } finally {
+            this.pendingLock.unlock();
+        }
+        pending.future.complete(Collections.emptyList());
+    }
+
+    /**
+     * Deletes a message received through the SQS API. A receipt handle that is not the one of the last receive
+     * doesn't delete the message.
+     *
+     * @param receiptHandle the receipt handle given when received
+     * @return true if the message was deleted, false if the receipt handle is unknown or stale
+     */
+    boolean delete(final String receiptHandle) {
+        final var entry = this.receipts.remove(receiptHandle);
+        if (entry != null && this.sqsInstance.get().remove(entry, receiptHandle)) {
+            this.release();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param receiptHandle the receipt handle given when received
+     * @param visibilityTimeout new visibility timeout, counted from now on
+     * @return true if the handle belongs to a message received through the SQS API that is still held
+     */
+    boolean changeVisibility(final String receiptHandle, final Duration visibilityTimeout) {
+        final var entry = this.receipts.get(receiptHandle);
+        if (entry != null
+                && this.sqsInstance.get().changeVisibility(entry, receiptHandle, visibilityTimeout.toMillis())) {
+            this.dispatchPending();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Hands messages to the listeners. Every visible message, up to the dispatch batch size, is taken on each wake-up
+     * and dispatched back-to-back, and a hot queue is spun on for a while before parking. The consumer thread doesn't
+     * wait for outcomes still pending, such as deferred acknowledgments, and goes on with the next messages as long
+     * as there are in-flight permits left. Each outcome is resolved against its own message whenever it completes,
+     * or once the visibility timeout elapses.
+     */
+    private void consume(final boolean elastic, final int generation) {
+        final var firstWaitInNanos = elastic ? this.idleTimeoutInNanos : Long.MAX_VALUE;
+        try {
+            while (this.isActive(generation) && !Thread.currentThread().isInterrupted()) {
+                final var startTime = System.nanoTime();
+                final boolean consumed;
+                if (this.batchListeners > 0) {
+                    consumed = this.consumeBatch(firstWaitInNanos);
+                } else {
+                    consumed = this.consumeEach(firstWaitInNanos, generation);
+                }
+                // an empty take is also given back when the queue is purged, so only a long enough one means idle
+                if (!consumed && elastic && System.nanoTime() - startTime >= this.idleTimeoutInNanos
+                        && this.retire()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.workers.remove(Thread.currentThread());
+            this.stoppingWorkers.remove(Thread.currentThread());
+            this.watches.remove(Thread.currentThread());
+        }
+    }
+
+    private boolean isActive(final int generation) {
+        return this.running && this.generation == generation;
+    }
+
+    private boolean consumeEach(final long firstWaitInNanos, final int generation) throws InterruptedException {
+        final var entries = this.take(this.dispatchBatchSize, 0L, firstWaitInNanos);
+        for (var i = 0; i < entries.size(); i++) {
+            final var entry = entries.get(i);
+            if (i > 0 && !this.isActive(generation)) {
+                // stopped meanwhile, so the messages taken along with the first one go back to the queue untouched
+                this.complete(entry, false);
+                continue;
+            }
+            final var outcome = this.dispatch(entry.getMessage());
+            final var holdsPermit = this.holdsPermit(outcome);
+            outcome.completeOnTimeout(false, this.visibilityTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                    .whenComplete((removed, error) -> this.complete(entry, Boolean.TRUE.equals(removed),
+                            holdsPermit));
+        }
+        return !entries.isEmpty();
+    }
+
+    /**
+     * Takes as many messages as the batch size and the in-flight permits left allow, waiting a bounded time for them
+     * once the first one arrives, and hands them to the listeners. Each message of the batch is resolved on its own,
+     * so only those that failed are put back.
+     */
+    private boolean consumeBatch(final long firstWaitInNanos) throws InterruptedException {
+        final var entries = this.take(this.batchSize, this.batchMaxWaitInNanos, firstWaitInNanos);
+        if (entries.isEmpty()) {
+            return false;
+        }
+        final var outcome = this.dispatchBatch(entries);
+        final var holdsPermits = this.holdsPermit(outcome);
+        if (!holdsPermits) {
+            this.inFlightPermits.release(entries.size() - 1);
+        }
+        outcome.completeOnTimeout(Collections.nCopies(entries.size(), false), this.visibilityTimeout.toMillis(),
+                TimeUnit.MILLISECONDS)
+                .whenComplete((removed, error) -> {
+                    for (var i = 0; i < entries.size(); i++) {
+                        this.complete(entries.get(i), removed != null && Boolean.TRUE.equals(removed.get(i)),
+                                holdsPermits);
+                    }
+                });
+        return true;
+    }
+
+    /**
+     * Listeners acknowledging later on have returned by the time their outcome is pending, so like the listener
+     * container they don't keep the next messages from being handed out while they wait for the acknowledgment. A
+     * listener that never acknowledges only has its messages put back once the visibility timeout elapses.
+     *
+     * @return false if the permits taken for the outcome were released already
+     */
+    private boolean holdsPermit(final CompletableFuture<?> outcome) {
+        if (this.acknowledgedLater && !outcome.isDone()) {
+            this.inFlightPermits.release();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Takes up to the given number of messages, bounded by this worker's share of the in-flight permits left, and
+     * counts them as in-flight.
+     *
+     * @return the messages taken, empty if the instance was purged or nothing arrived in time
+     */
+    private List<SqsInstance.Entry> take(final int maxEntries, final long maxWaitInNanos,
+                                         final long firstWaitInNanos) throws InterruptedException {
+        if (firstWaitInNanos == Long.MAX_VALUE) {
+            this.inFlightPermits.acquire();
+        } else if (!this.inFlightPermits.tryAcquire(firstWaitInNanos, TimeUnit.NANOSECONDS)) {
+            return Collections.emptyList();
+        }
+        // workers share the permits, so that a single one doesn't take every visible message for itself
+        final var share = Math.min(maxEntries, Math.max(1, this.maxInFlight / Math.max(1, this.workers.size())));
+        var permits = 1;
+        while (permits < share && this.inFlightPermits.tryAcquire()) {
+            permits++;
+        }
+        final List<SqsInstance.Entry> entries;
+        try {
+            final var instance = this.sqsInstance.get();
+            this.spinForVisible(instance);
+            entries = instance.takeEntries(permits, maxWaitInNanos, firstWaitInNanos);
+        } catch (InterruptedException | RuntimeException e) {
+            this.inFlightPermits.release(permits);
+            throw e;
+        }
+        // an empty list means the instance was purged while waiting, so the next take goes on with its replacement
+        if (entries.size() < permits) {
+            this.inFlightPermits.release(permits - entries.size());
+        }
+        this.inFlight.addAndGet(entries.size());
+        FlightRecorderEvents.delivered(this.queueName, entries);
+        if (!entries.isEmpty()) {
+            this.awaitDispatch(entries);
+        }
+        return entries;
+    }
+
+    /**
+     * Holds the messages a worker took for the latency of the receive that would have brought them, plus a back-off
+     * when that receive is throttled, so that idle workers don't pay them. Interrupted meanwhile, the worker puts the
+     * messages back.
+     */
+    private void awaitDispatch(final List<SqsInstance.Entry> entries) throws InterruptedException {
+        final var faultProfile = this.faults;
+        if (faultProfile == null) {
+            return;
+        }
+        faultProfile.awaitReceive();
+        if (faultProfile.pollThrottled()) {
+            LockSupport.parkNanos(THROTTLED_BACKOFF_IN_NANOS);
+        }
+        if (Thread.interrupted()) {
+            entries.forEach(entry -> this.complete(entry, false));
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Spins for a while when the queue is empty, hoping for a message to arrive before parking. The number of spins
+     * adapts itself: it doubles whenever spinning paid off, and halves otherwise, so cold queues park almost at once.
+     */
+    private void spinForVisible(final SqsInstance instance) {
+        if (instance.hasVisible()) {
+            return;
+        }
+        final var limit = this.spinLimit;
+        for (var i = 0; i < limit; i++) {
+            Thread.onSpinWait();
+            if (instance.hasVisible()) {
+                this.spinLimit = Math.min(MAX_SPINS, limit << 1);
+                return;
+            }
+        }
+        this.spinLimit = Math.max(MIN_SPINS, limit >> 1);
+    }
+
+    private CompletableFuture<Boolean> dispatch(final Message<?> taken) {
+        if (this.hookedConsumers.size() == 1) {
+            final var iterator = this.hookedConsumers.values().iterator();
+            if (iterator.hasNext()) {
+                return this.handledConsume(iterator.next(), taken);
+            }
+        }
+        final var outcomes = new ArrayList<CompletableFuture<Boolean>>(this.hookedConsumers.size());
+        this.hookedConsumers.values().forEach(consumer -> outcomes.add(this.handledConsume(consumer, taken)));
+        if (outcomes.isEmpty()) {
+            return CompletableFuture.completedFuture(false);
+        } else if (outcomes.size() == 1) {
+            return outcomes.get(0);
+        }
+        return CompletableFuture.allOf(outcomes.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> outcomes.stream().anyMatch(CompletableFuture::join));
+    }
+
+    /**
+     * Batch listeners get the whole batch, while the others get its messages one by one. As with single messages, a
+     * message is removed if any listener removed it.
+     */
+    private CompletableFuture<List<Boolean>> dispatchBatch(final List<SqsInstance.Entry> entries) {
+        final var messages = new ArrayList<Message<?>>(entries.size());
+        entries.forEach(entry -> messages.add(entry.getMessage()));
+        final var outcomes = new ArrayList<CompletableFuture<List<Boolean>>>(this.hookedConsumers.size());
+        for (final var consumer : this.hookedConsumers.values()) {
+            if (consumer.isBatch()) {
+                outcomes.add(this.handledConsume(consumer, messages));
+            } else {
+                final var removed = new ArrayList<CompletableFuture<Boolean>>(messages.size());
+                messages.forEach(message -> removed.add(this.handledConsume(consumer, message)));
+                outcomes.add(CompletableFuture.allOf(removed.toArray(new CompletableFuture<?>[0]))
+                        .thenApply(ignored -> removed.stream().map(CompletableFuture::join)
+                                .collect(Collectors.toList())));
+            }
+        }
+        if (outcomes.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.nCopies(messages.size(), false));
+        } else if (outcomes.size() == 1) {
+            return outcomes.get(0);
+        }
+        return CompletableFuture.allOf(outcomes.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> {
+                    final var removed = new ArrayList<Boolean>(messages.size());
+                    for (var i = 0; i < messages.size(); i++) {
+                        final var index = i;
+                        removed.add(outcomes.stream().anyMatch(outcome -> outcome.join().get(index)));
+                    }
+                    return removed;
+                });
+    }
+
+    private void complete(final SqsInstance.Entry entry, final boolean removed) {
+        this.complete(entry, removed, true);
+    }
+
+    private void complete(final SqsInstance.Entry entry, final boolean removed, final boolean holdsPermit) {
+        try {
+            if (!removed) {
+                this.requeue(entry);
+            }
+        } catch (RuntimeException e) {
+            log.error("Couldn't put back message {}", entry.getMessage(), e);
+        } finally {
+            if (holdsPermit) {
+                this.inFlightPermits.release();
+            }
+            if (this.inFlight.decrementAndGet() == 0) {
+                this.signalStateChange();
+            }
+            if (removed) {
+                // told before the message is released, so that whoever awaits the queue to be idle sees it
+                final var observer = this.latencyObserver;
+                if (observer != null) {
+                    observer.accept(System.nanoTime() - entry.getConsumeOnTimeInNanos());
+                }
+                this.release();
+            }
         }
     }
 
-    private boolean handledConsume(final ConsumeMethodHolder consumeMethodHolder, final Message<?> taken) {
+    private CompletableFuture<List<Boolean>> handledConsume(final ConsumeMethodHolder consumeMethodHolder,
+                                                            final List<Message<?>> taken) {
+        final var watch = this.watches.get(Thread.currentThread());
+        if (watch != null) {
+            watch.begin(consumeMethodHolder);
+        }
+        try {
+            return consumeMethodHolder.invokeBatchAsync(taken);
+        } catch (RuntimeException e) {
+            log.error("There was an error executing consumer {}", consumeMethodHolder, e);
+            return CompletableFuture.completedFuture(Collections.nCopies(taken.size(), false));
+        } finally {
+            if (watch != null) {
+                watch.end();
+            }
+        }
+    }
+
+    private CompletableFuture<Boolean> handledConsume(final ConsumeMethodHolder consumeMethodHolder,
+                                                      final Message<?> taken) {
+        final var watch = this.watches.get(Thread.currentThread());
+        if (watch != null) {
+            watch.begin(consumeMethodHolder);
+        }
         try {
-            return consumeMethodHolder.invoke(taken);
+            return consumeMethodHolder.invokeAsync(taken);
         } catch (RuntimeException e) {
             log.error("There was an error executing consumer {}", consumeMethodHolder, e);
+            return CompletableFuture.completedFuture(false);
+        } finally {
+            if (watch != null) {
+                watch.end();
+            }
+        }
+    }
+
+    /**
+     * Looks for listener invocations holding their worker for longer than the given threshold, logging those not
+     * reported yet along with the stack of their thread. The stack is captured once per invocation, when first found.
+     *
+     * @param threshold time an invocation may run before being considered stuck
+     * @return the invocations currently stuck
+     */
+    public List<StuckListener> findStuckListeners(final Duration threshold) {
+        final var now = System.nanoTime();
+        final var stuck = new ArrayList<StuckListener>();
+        this.watches.forEach((thread, watch) -> {
+            final var listener = watch.listener;
+            final var startedAt = watch.startedAtInNanos;
+            if (listener == null || now - startedAt < threshold.toNanos()) {
+                return;
+            }
+            final var firstFound = watch.reportedAtInNanos != startedAt;
+            final var stackTrace = firstFound ? List.of(thread.getStackTrace()) : watch.stackTrace;
+            // still the same invocation if the listener didn't return meanwhile
+            if (watch.listener != listener || watch.startedAtInNanos != startedAt) {
+                return;
+            }
+            final var stuckListener = StuckListener.builder()
+                    .queue(this.queueName)
+                    .listener(listener.toString())
+                    .thread(thread.getName())
+                    .duration(Duration.ofNanos(now - startedAt))
+                    .stackTrace(stackTrace)
+                    .build();
+            stuck.add(stuckListener);
+            if (firstFound) {
+                // the stack is written first, so that it is never older than the invocation it is reported for
+                watch.stackTrace = stackTrace;
+                watch.reportedAtInNanos = startedAt;
+                log.warn("Listener {} of queue {} has been running for {} on thread {}:{}", listener,
+                        this.queueName, stuckListener.getDuration(), thread.getName(),
+                        stackTrace.stream()
+                                .map(element -> System.lineSeparator() + "\tat " + element)
+                                .collect(Collectors.joining()));
+            }
+        });
+        return stuck;
+    }
+
+    /**
+     * Shares this queue with other processes through the given transport, before it is started.
+     */
+    void share(final SharedMemoryTransport sharedTransport) {
+        this.transport = sharedTransport;
+    }
+
+    /**
+     * Hands payloads to listeners deserialized through the given converter, before any listener is added.
+     */
+    void deserializeThrough(final PayloadConverter converter) {
+        this.payloadConverter = converter;
+    }
+
+    /**
+     * @return true if payloads are serialized on their way through this queue
+     */
+    boolean isSerializing() {
+        return this.payloadConverter != null;
+    }
+
+    /**
+     * @param observer told the latency of every message deleted by a listener from now on, or null to stop telling
+     */
+    void observeLatencies(final LongConsumer observer) {
+        this.latencyObserver = observer;
+    }
+
+    /**
+     * Lets this queue be consumed. Workers are started only once it has listeners, and stopped again when the last
+     * one is removed.
+     */
+    public synchronized void start() {
+        this.started = true;
+        this.activate();
+    }
+
+    private synchronized void activate() {
+        if (this.createConsumer && this.started && !this.running && !this.hookedConsumers.isEmpty()) {
+            this.running = true;
+            for (var i = 0; i < this.minWorkers; i++) {
+                this.addWorker(false);
+            }
+            if (this.transport != null) {
+                this.transport.start(this);
+            }
+        }
+    }
+
+    private synchronized void deactivate() {
+        if (!this.running) {
+            return;
+        }
+        this.running = false;
+        if (this.transport != null) {
+            this.transport.stop();
+        }
+        this.generation++;
+        this.workers.forEach(Thread::interrupt);
+        this.stoppingWorkers.addAll(this.workers);
+        this.workers.clear();
+    }
+
+    /**
+     * Adds a worker when the queue falls behind, either because there are too many visible messages per worker or
+     * because the oldest one has been waiting for too long. Meant to be called periodically, only when the elastic
+     * mode is on.
+     *
+     * @return true if a worker was added
+     */
+    public boolean scale() {
+        if (!this.isElastic() || !this.running || this.workers.size() >= this.maxWorkers) {
+            return false;
+        }
+        final var instance = this.sqsInstance.get();
+        if (instance.visibleSize() > this.backlogPerWorker * this.workers.size()
+                || instance.oldestVisibleAgeInNanos() > this.maxMessageAgeInNanos) {
+            return this.addWorker(true);
+        }
+        return false;
+    }
+
+    /**
+     * @return true if workers are added and retired depending on the load of the queue
+     */
+    public boolean isElastic() {
+        return this.createConsumer && this.maxWorkers > this.minWorkers;
+    }
+
+    private synchronized boolean addWorker(final boolean elastic) {
+        if (!this.running || this.workers.size() >= this.maxWorkers) {
             return false;
         }
+        final var generation = this.generation;
+        final var worker = new Thread(() -> this.consume(elastic, generation));
+        this.workers.add(worker);
+        this.watches.put(worker, new Watch());
+        worker.start();
+        log.debug("Added worker, {} workers running", this.workers.size());
+        return true;
     }
 
-    public void start() {
-        if (this.consumerThread != null) {
-            this.consumerThread.start();
+    private synchronized boolean retire() {
+        if (this.workers.size() <= this.minWorkers) {
+            return false;
         }
+        this.workers.remove(Thread.currentThread());
+        log.debug("Retired idle worker, {} workers running", this.workers.size());
+        return true;
     }
 
-    public void stop() {
+    /**
+     * Asks the consumer threads to stop, without waiting for them.
+     *
+     * @see #awaitTermination(Duration)
+     */
+    public synchronized void stop() {
         log.trace("Stopping!!!!");
-        if (this.consumerThread != null) {
-            this.consumerThread.interrupt();
+        this.started = false;
+        this.deactivate();
+    }
+
+    /**
+     * Waits for the consumer thread to finish after a {@link #stop()}.
+     *
+     * @param timeout maximum time to wait
+     * @return true if there is no consumer thread alive anymore
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public boolean awaitTermination(final Duration timeout) throws InterruptedException {
+        final var deadline = System.nanoTime() + timeout.toNanos();
+        final var allWorkers = new ArrayList<>(this.stoppingWorkers);
+        allWorkers.addAll(this.workers);
+        for (final var worker : allWorkers) {
+            final var millis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (millis > 0L) {
+                worker.join(millis);
+            }
         }
+        return !this.hasConsumer();
+    }
+
+    public boolean hasConsumer() {
+        return this.workers.stream().anyMatch(Thread::isAlive)
+                || this.stoppingWorkers.stream().anyMatch(Thread::isAlive);
     }
 
-    public void addListener(final Object bean, final Method method,
-                            final SqsMessageDeletionPolicy deletionPolicy) {
+    /**
+     * Adds a listener, starting the workers if it is the first one and the queue was started.
+     */
+    public synchronized void addListener(final Object bean, final Method method,
+                                         final SqsMessageDeletionPolicy deletionPolicy) {
         Objects.requireNonNull(bean, "bean must not be null");
         Objects.requireNonNull(method, "method must not be null");
         Objects.requireNonNull(deletionPolicy, "deletionPolicy must not be null");
-        this.hookedConsumers.putIfAbsent(Pair.of(bean, method), new ConsumeMethodHolder(bean, method, deletionPolicy));
+        this.hookedConsumers.computeIfAbsent(Pair.of(bean, method),
+                key -> new ConsumeMethodHolder(bean, method, deletionPolicy, this.accounting,
+                        this.payloadConverter));
+        this.countListeners();
+        this.activate();
     }
 
-    public void removeListener(final Object bean, final Method method) {
+    /**
+     * Removes a listener, stopping the workers if it was the last one. Messages are then kept in the queue until
+     * another listener is added or they are received.
+     */
+    public synchronized void removeListener(final Object bean, final Method method) {
         Objects.requireNonNull(bean, "bean must not be null");
         Objects.requireNonNull(method, "method must not be null");
         this.hookedConsumers.remove(Pair.of(bean, method));
+        this.countListeners();
+        if (this.hookedConsumers.isEmpty()) {
+            this.deactivate();
+        }
+    }
+
+    private synchronized void countListeners() {
+        this.batchListeners = (int) this.hookedConsumers.values().stream().filter(ConsumeMethodHolder::isBatch).count();
+        this.acknowledgedLater = !this.hookedConsumers.isEmpty() && this.hookedConsumers.values().stream()
+                .allMatch(ConsumeMethodHolder::isAcknowledgedLater);
     }
 
+    /**
+     * Adds a message to this queue, or to the ring it is shared through, from where it is taken back by the processes
+     * listening to it.
+     *
+     * @throws MessageTooLongException if the message is larger than the queue accepts
+     * @throws QueueThrottledException if the fault profile of the queue rejects the send
+     */
     public void send(final Message<?> message) {
         Objects.requireNonNull(message, "message must not be null");
-        var key = Optional.ofNullable(message.getHeaders().getId()).map(Objects::toString).orElse("");
+        this.checkThrottled();
+        this.sendAdmitted(message);
+    }
+
+    /**
+     * Same as {@link #send(Message)}, for a request {@link #checkThrottled() admitted} already.
+     *
+     * @throws MessageTooLongException if the message is larger than the queue accepts
+     */
+    void sendAdmitted(final Message<?> message) {
+        Objects.requireNonNull(message, "message must not be null");
+        final var size = MessageSize.of(message);
+        if (this.maxMessageSize > 0 && size > this.maxMessageSize) {
+            throw new MessageTooLongException(message, size, this.maxMessageSize);
+        }
+        final var faultProfile = this.faults;
+        if (faultProfile != null) {
+            faultProfile.awaitSend();
+        }
+        final var delayInMillis = this.delayOf(message.getHeaders());
+        final var copies = faultProfile != null && faultProfile.duplicated() ? 2 : 1;
+        final var sharedTransport = this.transport;
+        for (var i = 0; i < copies; i++) {
+            final var reorderedDelayInMillis = faultProfile != null
+                    ? delayInMillis + faultProfile.nextReorderDelayInMillis()
+                    : delayInMillis;
+            if (sharedTransport != null) {
+                sharedTransport.publish(message, reorderedDelayInMillis);
+            } else {
+                this.enqueue(message, reorderedDelayInMillis, size);
+            }
+        }
+    }
+
+    /**
+     * Rejects a request to this queue as throttled, when its fault profile says so. It is drawn once per request,
+     * before any of its entries is applied, so that a throttled batch leaves the queue as it was.
+     *
+     * @throws QueueThrottledException if the fault profile of the queue rejects the request
+     */
+    void checkThrottled() {
+        final var faultProfile = this.faults;
+        if (faultProfile != null && faultProfile.throttled()) {
+            throw new QueueThrottledException(this.queueName);
+        }
+    }
+
+    /**
+     * Blocks the calling thread for a receive round trip, when the queue has a fault profile.
+     */
+    private void awaitReceive() {
+        final var faultProfile = this.faults;
+        if (faultProfile != null) {
+            faultProfile.awaitReceive();
+        }
+    }
+
+    void enqueue(final Message<?> message, final long delayInMillis) {
+        this.enqueue(message, delayInMillis, MessageSize.of(message));
+    }
+
+    private void enqueue(final Message<?> message, final long delayInMillis, final int size) {
+        final var queueSize = this.outstanding.incrementAndGet();
+        this.sentBytes.add(size);
+        FlightRecorderEvents.enqueued(this.queueName, queueSize, delayInMillis);
+        final var stored = this.compression != null ? this.compression.compress(message) : message;
+        this.offer(instance -> instance.add(stored, Math.max(0L, delayInMillis), size));
+        this.dispatchPending();
+    }
+
+    /**
+     * Discards the messages whose retention period elapsed. Only the oldest retention buckets are looked at, so
+     * this is meant to be called periodically.
+     *
+     * @return number of messages discarded
+     */
+    public int expire() {
+        final var discarded = this.sqsInstance.get().expire();
+        if (discarded > 0) {
+            this.expired.add(discarded);
+            this.release(discarded);
+            this.receipts.values().removeIf(SqsInstance.Entry::isExpired);
+        }
+        return discarded;
+    }
+
+    /**
+     * @param maxMessages maximum number of messages to look at
+     * @return the next visible messages, left in the queue
+     */
+    @SuppressWarnings("java:S1452")
+    public List<Message<?>> peek(final int maxMessages) {
+        return this.sqsInstance.get().peek(maxMessages);
+    }
+
+    public QueueStatistics getStatistics() {
+        final var instance = this.sqsInstance.get();
+        final var builder = QueueStatistics.builder()
+                .visible(instance.visibleSize())
+                .delayed(instance.delayedSize())
+                .received(instance.receivedSize())
+                .inFlight(this.inFlight.get())
+                .outstanding(this.outstanding.get())
+                .expired(this.expired.sum())
+                .purged(this.purged.sum())
+                .workers(this.workers.size())
+                .heldBytes(instance.heldBytes())
+                .sentBytes(this.sentBytes.sum())
+                .compressionTime(Duration.ZERO)
+                .decompressionTime(Duration.ZERO);
+        if (this.compression != null) {
+            builder.compressed(this.compression.getCompressed())
+                    .uncompressedBytes(this.compression.getUncompressedBytes())
+                    .compressedBytes(this.compression.getCompressedBytes())
+                    .compressionTime(this.compression.getCompressionTime())
+                    .decompressionTime(this.compression.getDecompressionTime());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the counters of every listener of this queue
+     */
+    public List<ListenerStatistics> getListenerStatistics() {
+        return this.hookedConsumers.values().stream()
+                .map(ConsumeMethodHolder::getStatistics)
+                .collect(Collectors.toList());
+    }
+
+    public Duration getVisibilityTimeout() {
+        return this.visibilityTimeout;
+    }
+
+    public Duration getRetentionPeriod() {
+        return this.sqsInstance.get().getRetentionPeriod();
+    }
+
+    /**
+     * @return estimated bytes of the messages held by this queue, either visible or delayed
+     */
+    public long getHeldBytes() {
+        return this.sqsInstance.get().heldBytes();
+    }
+
+    public int getOutstandingCount() {
+        return this.outstanding.get();
+    }
+
+    public int getInFlightCount() {
+        return this.inFlight.get();
+    }
+
+    /**
+     * Waits until every message sent to this queue has been deleted, either by a listener or by a receive. For a
+     * shared queue, messages written to the ring count until this process' consumer group takes them, and a process
+     * that never consumed from the queue sees it idle once its messages are in the ring.
+     *
+     * @param timeout maximum time to wait
+     * @return true if the queue became idle, false if the timeout elapsed first
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public boolean awaitIdle(final Duration timeout) throws InterruptedException {
+        return this.await(() -> this.outstanding.get() <= 0 && !this.hasSharedPending(), timeout);
+    }
+
+    /**
+     * Waits until there are neither visible messages nor messages being handled by listeners. Delayed messages are
+     * not waited for. For a shared queue, messages this process' consumer group didn't take from the ring yet are
+     * waited for as well.
+     *
+     * @param timeout maximum time to wait
+     * @return true if the queue was drained, false if the timeout elapsed first
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public boolean awaitDrained(final Duration timeout) throws InterruptedException {
+        return this.await(() -> this.inFlight.get() == 0 && this.sqsInstance.get().visibleSize() == 0
+                && !this.hasSharedPending(), timeout);
+    }
+
+    private boolean hasSharedPending() {
+        final var sharedTransport = this.transport;
+        return sharedTransport != null && sharedTransport.hasPending();
+    }
+
+    /**
+     * Nothing signals messages taken from a shared ring by other processes, so shared queues look again at the
+     * condition every millisecond.
+     */
+    private boolean await(final BooleanSupplier condition, final Duration timeout) throws InterruptedException {
+        Objects.requireNonNull(timeout, "timeout must not be null");
+        if (condition.getAsBoolean()) {
+            return true;
+        }
+        final var deadline = System.nanoTime() + timeout.toNanos();
+        final var slice = this.transport != null ? TimeUnit.MILLISECONDS.toNanos(1L) : Long.MAX_VALUE;
+        this.idleLock.lock();
+        try {
+            while (!condition.getAsBoolean()) {
+                final var remaining = deadline - System.nanoTime();
+                if (remaining <= 0L) {
+                    return false;
+                }
+                this.idleCondition.awaitNanos(Math.min(remaining, slice));
+            }
+            return true;
+        } finally {
+            this.idleLock.unlock();
+        }
+    }
+
+    /**
+     * Discards every message waiting on this queue by swapping the underlying {@link SqsInstance} for an empty one.
+     * Listeners and the consumer thread are kept. Messages already in-flight are left to their listeners, and
+     * discarded as well if given back, so that they don't show up again in the empty queue.
+     *
+     * @return number of messages discarded
+     */
+    public int purge() {
+        final var discarded = this.sqsInstance.getAndUpdate(SqsInstance::emptyCopy).close();
+        this.receipts.clear();
+        if (discarded > 0) {
+            this.purged.add(discarded);
+            this.release(discarded);
+        }
+        return discarded;
+    }
+
+    private void release() {
+        this.release(1);
+    }
+
+    private void release(final int count) {
+        if (this.outstanding.addAndGet(-count) == 0) {
+            this.signalStateChange();
+        }
+    }
+
+    private void signalStateChange() {
+        this.idleLock.lock();
+        try {
+            this.idleCondition.signalAll();
+        } finally {
+            this.idleLock.unlock();
+        }
+    }
+
+    private void requeue(final SqsInstance.Entry entry) {
+        final var delayInMillis = this.delayOf(entry.getHeaders());
+        this.offer(instance -> instance.requeue(entry, delayInMillis));
+        FlightRecorderEvents.requeued(this.queueName, entry.isExpired());
+        if (entry.isExpired()) {
+            this.expired.increment();
+            this.release();
+        } else if (entry.isDiscarded()) {
+            this.purged.increment();
+            this.release();
+        } else {
+            this.dispatchPending();
+        }
+    }
+
+    private long delayOf(final MessageHeaders headers) {
+        var key = Optional.ofNullable(headers.getId()).map(Objects::toString).orElse("");
         var value = this.client.getHandle(key);
         if (null != value) {
             this.client.getHandles().remove(key);
-            this.sqsInstance.add(message, TimeUnit.SECONDS.toMillis(value.longValue()));
+            return TimeUnit.SECONDS.toMillis(value.longValue());
         } else {
-            var delayValue = message.getHeaders().get(SqsMessageHeaders.SQS_DELAY_HEADER);
+            var delayValue = headers.get(SqsMessageHeaders.SQS_DELAY_HEADER);
             if (delayValue instanceof Number) {
-                this.sqsInstance.add(message, TimeUnit.SECONDS.toMillis(((Number) delayValue).longValue()));
+                return TimeUnit.SECONDS.toMillis(((Number) delayValue).longValue());
             } else {
-                this.sqsInstance.add(message);
+                return 0L;
             }
         }
     }
 
+    private void offer(final Predicate<SqsInstance> addition) {
+        var instance = this.sqsInstance.get();
+        // an instance only rejects messages once closed by a purge, or when they expired or were purged, only the
+        // former is retried on the instance that replaced it
+        while (!addition.test(instance) && instance != this.sqsInstance.get()) {
+            instance = this.sqsInstance.get();
+        }
+    }
+
+    /**
+     * A demand-driven stream of the messages of this queue, following the Reactive Streams rules: messages are only
+     * emitted when requested, one at a time, and never once cancelled.
+     */
+    final class MessageStream {
+
+        private final Consumer<Message<?>> emitter;
 
+        /**
+         * Messages taken for this stream and not emitted yet, in the order they were taken.
+         */
+        private final Queue<SqsInstance.Entry> taken = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Threads that found messages to emit, only the first of them emits them, including those left by the others.
+         */
+        private final AtomicInteger emitting = new AtomicInteger();
+
+        private long requested;
+        private volatile boolean cancelled;
+
+        private MessageStream(final Consumer<Message<?>> emitter) {
+            this.emitter = emitter;
+        }
+
+        /**
+         * @param count number of messages requested, on top of those requested before
+         */
+        void request(final long count) {
+            if (count <= 0L) {
+                throw new IllegalArgumentException("count must be positive");
+            }
+            pendingLock.lock();
+            try {
+                if (!this.cancelled) {
+                    this.requested = this.requested + count < 0L ? Long.MAX_VALUE : this.requested + count;
+                    dispatchPendingLocked();
+                }
+            } finally {
+                pendingLock.unlock();
+            }
+            drainStreams();
+        }
+
+        /**
+         * Stops the stream. As messages are only taken once requested, none is left behind.
+         */
+        void cancel() {
+            pendingLock.lock();
+            try {
+                this.cancelled = true;
+                streams.remove(this);
+            } finally {
+                pendingLock.unlock();
+            }
+            // messages taken but not emitted yet go back to the queue
+            this.drain();
+        }
+
+        private void take(final SqsInstance.Entry entry) {
+            if (this.requested != Long.MAX_VALUE) {
+                this.requested--;
+            }
+            this.taken.add(entry);
+        }
+
+        /**
+         * Emits the messages taken for this stream, unless another thread is at it already, in which case it emits
+         * them as well before leaving. Emitters requesting more, or sending to this queue, while being emitted to only
+         * add to the messages taken, so the stack doesn't grow.
+         */
+        private void drain() {
+            if (this.taken.isEmpty() || this.emitting.getAndIncrement() != 0) {
+                return;
+            }
+            var missed = 1;
+            do {
+                for (var entry = this.taken.poll(); entry != null; entry = this.taken.poll()) {
+                    if (this.cancelled) {
+                        requeue(entry);
+                    } else {
+                        this.emit(entry);
+                    }
+                }
+                missed = this.emitting.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit(final SqsInstance.Entry entry) {
+            FlightRecorderEvents.delivered(queueName, System.nanoTime() - entry.getConsumeOnTimeInNanos());
+            try {
+                this.emitter.accept(entry.getMessage());
+            } catch (RuntimeException e) {
+                // not delivered, so it goes back to the queue and the stream is closed
+                log.error("Couldn't emit message {}, cancelling stream", entry.getMessage(), e);
+                this.cancel();
+                requeue(entry);
+                return;
+            }
+            release();
+        }
+    }
+
+    /**
+     * Listener invocation running on a worker, if any. It is written by the worker only and read by the watchdog.
+     */
+    private static final class Watch {
+
+        private volatile long startedAtInNanos;
+        private volatile ConsumeMethodHolder listener;
+        private volatile long reportedAtInNanos;
+        private volatile List<StackTraceElement> stackTrace;
+
+        void begin(final ConsumeMethodHolder listener) {
+            // the start time is written first, so that it is never older than the listener read along with it
+            this.startedAtInNanos = System.nanoTime();
+            this.listener = listener;
+        }
+
+        void end() {
+            this.listener = null;
+        }
+    }
+
+    private static class PendingReceive {
+
+        private final int maxNumberOfMessages;
+        private final long visibilityTimeoutInMillis;
+        private final CompletableFuture<List<SqsInstance.Delivery>> future;
+        private ScheduledFuture<?> timeout;
+
+        PendingReceive(final int maxNumberOfMessages, final long visibilityTimeoutInMillis) {
+            this.maxNumberOfMessages = maxNumberOfMessages;
+            this.visibilityTimeoutInMillis = visibilityTimeoutInMillis;
+            this.future = new CompletableFuture<>();
+        }
+
+        void complete(final List<SqsInstance.Delivery> deliveries, final ScheduledExecutorService executor) {
+            this.timeout.cancel(false);
+            try {
+                // callbacks must not run on the thread that made the message visible
+                executor.execute(() -> this.future.complete(deliveries));
+            } catch (RejectedExecutionException e) {
+                this.future.complete(deliveries);
+            }
+        }
+    }
 }
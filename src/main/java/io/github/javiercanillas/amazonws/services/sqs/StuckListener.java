@@ -0,0 +1,37 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * A listener invocation that has been running for longer than the watchdog threshold, holding its worker.
+ */
+@Value
+@Builder
+public class StuckListener {
+
+    String queue;
+
+    /**
+     * Listener, as the simple name of its bean class and its method name.
+     */
+    String listener;
+
+    /**
+     * Name of the worker thread running the invocation.
+     */
+    String thread;
+
+    /**
+     * Time elapsed since the invocation started.
+     */
+    Duration duration;
+
+    /**
+     * Stack of the worker thread when the invocation was found stuck.
+     */
+    List<StackTraceElement> stackTrace;
+}
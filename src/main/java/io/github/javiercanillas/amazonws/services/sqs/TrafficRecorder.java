@@ -0,0 +1,135 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Records the messages sent through a template into a file, along with the queue they were sent to and when, so that
+ * they can be replayed later by a {@link TrafficReplayer}. Records are encoded by the sending threads and gathered in
+ * a buffer written to the file once full, so that sending doesn't wait for the disk most of the time.
+ * <p>
+ * The file starts with a magic number, followed by one record per message: its length, the nanoseconds elapsed since
+ * recording started, the name of the queue and the message. Messages whose payload can't be written are left out.
+ * Recording stops on the first write error.
+ */
+@Slf4j
+public class TrafficRecorder implements Closeable {
+
+    static final long MAGIC = 0x5351535245434f31L;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private final long startTimeInNanos;
+
+    private final Consumer<TrafficRecorder> onClose;
+
+    private long recorded;
+
+    private boolean closed;
+
+    TrafficRecorder(final Path file, final Consumer<TrafficRecorder> onClose) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.onClose = onClose;
+        this.buffer.putLong(MAGIC);
+        this.startTimeInNanos = System.nanoTime();
+    }
+
+    /**
+     * @param queueName queue the message was sent to
+     * @param message the message, as sent
+     */
+    void record(final String queueName, final Message<?> message) {
+        final var offsetInNanos = System.nanoTime() - this.startTimeInNanos;
+        final var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeLong(offsetInNanos);
+            MessageCodec.writeString(out, queueName);
+            if (!MessageCodec.write(out, message)) {
+                log.warn("Payload of type {} can't be recorded, message sent to {} is left out",
+                        message.getPayload().getClass().getName(), queueName);
+                return;
+            }
+        } catch (IOException e) {
+            log.warn("Couldn't encode message sent to {}, it is left out", queueName, e);
+            return;
+        }
+        this.write(bytes.toByteArray());
+    }
+
+    private synchronized void write(final byte[] record) {
+        if (this.closed) {
+            return;
+        }
+        try {
+            if (this.buffer.remaining() < Integer.BYTES + record.length) {
+                this.flush();
+            }
+            if (this.buffer.remaining() < Integer.BYTES + record.length) {
+                // larger than the whole buffer, written on its own
+                this.writeFully(ByteBuffer.allocate(Integer.BYTES).putInt(record.length).flip());
+                this.writeFully(ByteBuffer.wrap(record));
+            } else {
+                this.buffer.putInt(record.length).put(record);
+            }
+            this.recorded++;
+        } catch (IOException e) {
+            log.error("Couldn't write to the recording, recording stopped", e);
+            try {
+                this.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+        }
+    }
+
+    /**
+     * @return messages recorded so far
+     */
+    public synchronized long getRecorded() {
+        return this.recorded;
+    }
+
+    /**
+     * Stops recording and writes what is left to the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.onClose.accept(this);
+        try {
+            this.flush();
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    private void flush() throws IOException {
+        this.buffer.flip();
+        this.writeFully(this.buffer);
+        this.buffer.clear();
+    }
+
+    private void writeFully(final ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            this.channel.write(source);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends the messages of a file written by a {@link TrafficRecorder} through a template again, to the queues they were
+ * recorded for, and measures how the listeners of the template keep up with them.
+ */
+@Slf4j
+public class TrafficReplayer {
+
+    /**
+     * Speed sending every message right away.
+     */
+    public static final double AS_FAST_AS_POSSIBLE = 0d;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InMemoryQueueMessagingTemplate template;
+
+    public TrafficReplayer(final InMemoryQueueMessagingTemplate template) {
+        this.template = template;
+    }
+
+    /**
+     * Sends every recorded message again, then waits for the queues it sent to to be idle. Latencies are measured for
+     * every message deleted by a listener meanwhile, whether it was replayed or not.
+     *
+     * @param file file written by a recorder
+     * @param speed 1 to keep the recorded pace, 2 for twice as fast, 0.5 for half as fast, and so on, or
+     *              {@link #AS_FAST_AS_POSSIBLE}
+     * @param drainTimeout maximum time to wait for the queues to be idle once every message was sent
+     * @return throughput and latencies achieved
+     * @throws IOException if the file can't be read, or is not a recording
+     * @throws InterruptedException if the current thread is interrupted while replaying
+     */
+    public ReplayReport replay(final Path file, final double speed, final Duration drainTimeout)
+            throws IOException, InterruptedException {
+        final var paced = speed > 0d && Double.isFinite(speed);
+        final var latencies = new Latencies();
+        final var queueNames = new HashSet<String>();
+        var sent = 0L;
+        this.template.observeLatencies(latencies::add);
+        final long startTime;
+        final long endTime;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var buffer = ByteBuffer.allocate(BUFFER_SIZE).flip();
+            buffer = fill(channel, buffer, Long.BYTES);
+            if (buffer == null || buffer.getLong() != TrafficRecorder.MAGIC) {
+                throw new IOException("Not a recording: " + file);
+            }
+            startTime = System.nanoTime();
+            while ((buffer = fill(channel, buffer, Integer.BYTES)) != null) {
+                final var length = buffer.getInt();
+                buffer = fill(channel, buffer, length);
+                if (buffer == null) {
+                    log.warn("Recording {} ends with a truncated message, it is left out", file);
+                    break;
+                }
+                final var record = new byte[length];
+                buffer.get(record);
+                try (var in = new DataInputStream(new ByteArrayInputStream(record))) {
+                    final var offsetInNanos = in.readLong();
+                    final var queueName = MessageCodec.readString(in);
+                    final var message = MessageCodec.read(in);
+                    if (paced) {
+                        awaitUntil(startTime + (long) (offsetInNanos / speed));
+                    }
+                    this.template.send(queueName, message);
+                    queueNames.add(queueName);
+                    sent++;
+                } catch (ClassNotFoundException e) {
+                    log.warn("Couldn't read message of {}, it is left out", file, e);
+                }
+            }
+            final var deadline = System.nanoTime() + drainTimeout.toNanos();
+            for (final var queueName : queueNames) {
+                final var remaining = Math.max(0L, deadline - System.nanoTime());
+                if (!this.template.awaitIdle(queueName, Duration.ofNanos(remaining))) {
+                    log.warn("Queue {} wasn't idle before the drain timeout", queueName);
+                    break;
+                }
+            }
+            endTime = System.nanoTime();
+        } finally {
+            this.template.observeLatencies(null);
+        }
+        return latencies.report(sent, Duration.ofNanos(endTime - startTime));
+    }
+
+    /**
+     * @return a buffer with at least the given number of bytes left to read, either the given one or a larger one,
+     *         or null if the file ended before
+     */
+    private static ByteBuffer fill(final FileChannel channel, final ByteBuffer buffer, final int bytes)
+            throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return buffer;
+        }
+        final ByteBuffer target;
+        if (buffer.capacity() < bytes) {
+            target = ByteBuffer.allocate(bytes).put(buffer);
+        } else {
+            target = buffer.compact();
+        }
+        while (target.position() < bytes) {
+            if (channel.read(target) < 0) {
+                return null;
+            }
+        }
+        return target.flip();
+    }
+
+    private static void awaitUntil(final long timeInNanos) throws InterruptedException {
+        for (var remaining = timeInNanos - System.nanoTime(); remaining > 0L;
+             remaining = timeInNanos - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Latencies told by the listeners of the template, kept as they are and sorted once for the report.
+     */
+    private static final class Latencies {
+
+        private long[] values = new long[1024];
+
+        private int count;
+
+        synchronized void add(final long latencyInNanos) {
+            if (this.count == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.count * 2);
+            }
+            this.values[this.count++] = latencyInNanos;
+        }
+
+        synchronized ReplayReport report(final long sent, final Duration elapsed) {
+            final var sorted = Arrays.copyOf(this.values, this.count);
+            Arrays.sort(sorted);
+            final var seconds = elapsed.toNanos() / 1e9d;
+            return ReplayReport.builder()
+                    .sent(sent)
+                    .completed(this.count)
+                    .elapsed(elapsed)
+                    .throughput(seconds > 0d ? this.count / seconds : 0d)
+                    .latencyP50(percentile(sorted, 0.5d))
+                    .latencyP90(percentile(sorted, 0.9d))
+                    .latencyP99(percentile(sorted, 0.99d))
+                    .latencyP999(percentile(sorted, 0.999d))
+                    .latencyMax(percentile(sorted, 1d))
+                    .build();
+        }
+
+        private static Duration percentile(final long[] sorted, final double percentile) {
+            if (sorted.length == 0) {
+                return Duration.ZERO;
+            }
+            final var rank = (int) Math.ceil(percentile * sorted.length);
+            return Duration.ofNanos(sorted[Math.max(0, rank - 1)]);
+        }
+    }
+}
@@ -19,7 +19,10 @@ import org.springframework.messaging.handler.annotation.Payload;
 
 import java.lang.reflect.Method;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 
 @ExtendWith(MockitoExtension.class)
@@ -112,6 +115,81 @@ class ConsumeMethodHolderTest {
         Assertions.assertNotNull(bean.ack);
     }
 
+    @Test
+    void invokeWithDeferredAcknowledge() {
+        final var deferredBean = new DeferredBean();
+        final ConsumeMethodHolder consumeMethodHolder = new ConsumeMethodHolder(deferredBean,
+                getMethod(DeferredBean.class, "acknowledgeLater"), SqsMessageDeletionPolicy.NEVER);
+
+        final var outcome = consumeMethodHolder.invokeAsync(message);
+        Assertions.assertFalse(outcome.isDone());
+        CompletableFuture.runAsync(deferredBean.ack::acknowledge).join();
+        Assertions.assertTrue(outcome.join());
+    }
+
+    @Test
+    void invokeReturningCompletionStage() {
+        final var deferredBean = new DeferredBean();
+        final ConsumeMethodHolder consumeMethodHolder = new ConsumeMethodHolder(deferredBean,
+                getMethod(DeferredBean.class, "completeLater"), SqsMessageDeletionPolicy.ON_SUCCESS);
+
+        final var succeeded = consumeMethodHolder.invokeAsync(message);
+        Assertions.assertFalse(succeeded.isDone());
+        deferredBean.result.complete(null);
+        Assertions.assertTrue(succeeded.join());
+
+        final var failed = consumeMethodHolder.invokeAsync(message);
+        deferredBean.result.completeExceptionally(new IllegalStateException("failed"));
+        Assertions.assertFalse(failed.join());
+    }
+
+    @Test
+    void invokeBatch() {
+        final var batchBean = new BatchBean();
+        final var first = Mockito.mock(Message.class);
+        final var second = Mockito.mock(Message.class);
+        Mockito.doReturn("first").when(first).getPayload();
+        Mockito.doReturn("second").when(second).getPayload();
+
+        final var payloads = new ConsumeMethodHolder(batchBean, getMethod(BatchBean.class, "consumePayloads"),
+                SqsMessageDeletionPolicy.ON_SUCCESS);
+        Assertions.assertTrue(payloads.isBatch());
+        Assertions.assertEquals(List.of(true, true), payloads.invokeBatchAsync(List.of(first, second)).join());
+        Assertions.assertEquals(List.of("first", "second"), batchBean.payloads);
+
+        final var messages = new ConsumeMethodHolder(batchBean, getMethod(BatchBean.class, "consumeMessages"),
+                SqsMessageDeletionPolicy.ON_SUCCESS);
+        Assertions.assertTrue(messages.isBatch());
+        // the second message is reported as failed, so only that one is kept
+        Assertions.assertEquals(List.of(true, false), messages.invokeBatchAsync(List.of(first, second)).join());
+        Assertions.assertEquals(List.of(first, second), batchBean.messages);
+
+        final var single = new ConsumeMethodHolder(bean, getBeanConsume1(), SqsMessageDeletionPolicy.NO_REDRIVE);
+        Assertions.assertFalse(single.isBatch());
+        Assertions.assertTrue(single.invoke(message));
+    }
+
+    @Test
+    void listHeadersAreNotBatches() {
+        final var batchBean = new BatchBean();
+        final var tagged = new ConsumeMethodHolder(batchBean, getMethod(BatchBean.class, "consumeTagged"),
+                SqsMessageDeletionPolicy.ON_SUCCESS);
+        Assertions.assertFalse(tagged.isBatch());
+
+        Mockito.lenient().doReturn(true).when(messageHeaders).containsKey("tags");
+        Mockito.lenient().doReturn(List.of("a", "b")).when(messageHeaders).get("tags");
+        Mockito.doReturn("payload").when(message).getPayload();
+        Assertions.assertTrue(tagged.invoke(message));
+        Assertions.assertEquals(List.of("payload"), batchBean.payloads);
+        Assertions.assertEquals(List.of("a", "b"), batchBean.tags);
+    }
+
+    private Method getMethod(final Class<?> clazz, final String name) {
+        return Arrays.stream(clazz.getMethods())
+                .filter(method -> method.getName().equals(name))
+                .findFirst().orElseThrow();
+    }
+
     private Method getBeanConsume1() {
         return Arrays.stream(Bean.class.getMethods())
                 .filter(method -> method.getName().equalsIgnoreCase("consume01"))
@@ -162,6 +240,47 @@ class ConsumeMethodHolderTest {
         }
     }
 
+    private static class DeferredBean {
+
+        public Acknowledgment ack;
+        public CompletableFuture<Void> result;
+
+        @SqsListener(value = "deferred", deletionPolicy = SqsMessageDeletionPolicy.NEVER)
+        public void acknowledgeLater(final Message<String> message, final Acknowledgment ack) {
+            this.ack = ack;
+        }
+
+        @SqsListener("deferred")
+        public CompletableFuture<Void> completeLater(final Message<String> message) {
+            this.result = new CompletableFuture<>();
+            return this.result;
+        }
+    }
+
+    private static class BatchBean {
+
+        public List<String> payloads;
+        public List<Message<?>> messages;
+        public List<String> tags;
+
+        @SqsListener("batch")
+        public void consumePayloads(final List<String> payloads) {
+            this.payloads = payloads;
+        }
+
+        @SqsListener("batch")
+        public void consumeMessages(final List<Message<?>> messages) {
+            this.messages = messages;
+            throw new BatchListenerFailedException("second message failed", Set.of(1));
+        }
+
+        @SqsListener("tagged")
+        public void consumeTagged(@Payload final String payload, @Header("tags") final List<String> tags) {
+            this.payloads = List.of(payload);
+            this.tags = tags;
+        }
+    }
+
     private class TestPayload {
         public final String content;
         TestPayload(final String content) {
@@ -0,0 +1,74 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+class FilterPolicyTest {
+
+    @Test
+    void acceptAll() {
+        Assertions.assertTrue(FilterPolicy.ACCEPT_ALL.test(Map.of()));
+        Assertions.assertTrue(FilterPolicy.compile("{}").test(Map.of("any", "value")));
+    }
+
+    @Test
+    void exactValues() {
+        var policy = FilterPolicy.compile("{\"store\":[\"example_corp\",\"other_corp\"],\"price\":[100]}");
+        Assertions.assertTrue(policy.test(Map.of("store", "example_corp", "price", 100)));
+        Assertions.assertTrue(policy.test(Map.of("store", "other_corp", "price", "100")));
+        Assertions.assertFalse(policy.test(Map.of("store", "unknown", "price", 100)));
+        Assertions.assertFalse(policy.test(Map.of("store", "example_corp", "price", 101)));
+        Assertions.assertFalse(policy.test(Map.of("store", "example_corp")));
+    }
+
+    @Test
+    void prefixAndSuffix() {
+        var policy = FilterPolicy.compile("{\"event\":[{\"prefix\":\"order-\"},{\"suffix\":\"-cancelled\"}]}");
+        Assertions.assertTrue(policy.test(Map.of("event", "order-placed")));
+        Assertions.assertTrue(policy.test(Map.of("event", "payment-cancelled")));
+        Assertions.assertFalse(policy.test(Map.of("event", "payment-placed")));
+    }
+
+    @Test
+    void anythingBut() {
+        var policy = FilterPolicy.compile("{\"event\":[{\"anything-but\":[\"deleted\",\"archived\"]}]}");
+        Assertions.assertTrue(policy.test(Map.of("event", "created")));
+        Assertions.assertFalse(policy.test(Map.of("event", "deleted")));
+        Assertions.assertFalse(policy.test(Map.of()));
+
+        var prefixed = FilterPolicy.compile("{\"event\":[{\"anything-but\":{\"prefix\":\"internal-\"}}]}");
+        Assertions.assertTrue(prefixed.test(Map.of("event", "created")));
+        Assertions.assertFalse(prefixed.test(Map.of("event", "internal-created")));
+    }
+
+    @Test
+    void numericRanges() {
+        var policy = FilterPolicy.compile("{\"price\":[{\"numeric\":[\">=\",10,\"<\",20]}]}");
+        Assertions.assertTrue(policy.test(Map.of("price", 10)));
+        Assertions.assertTrue(policy.test(Map.of("price", "19.5")));
+        Assertions.assertFalse(policy.test(Map.of("price", 20)));
+        Assertions.assertFalse(policy.test(Map.of("price", "cheap")));
+    }
+
+    @Test
+    void exists() {
+        var present = FilterPolicy.compile("{\"tag\":[{\"exists\":true}]}");
+        var absent = FilterPolicy.compile("{\"tag\":[{\"exists\":false}]}");
+        Assertions.assertTrue(present.test(Map.of("tag", "x")));
+        Assertions.assertFalse(present.test(Map.of()));
+        Assertions.assertTrue(absent.test(Map.of()));
+        Assertions.assertFalse(absent.test(Map.of("tag", "x")));
+    }
+
+    @Test
+    void invalidPolicies() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> FilterPolicy.compile("not json"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> FilterPolicy.compile("[]"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> FilterPolicy.compile("{\"a\":\"b\"}"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> FilterPolicy.compile("{\"a\":[{\"like\":\"b\"}]}"));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> FilterPolicy.compile("{\"a\":[{\"numeric\":[\">\"]}]}"));
+    }
+}
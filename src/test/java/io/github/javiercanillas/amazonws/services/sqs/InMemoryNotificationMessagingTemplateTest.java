@@ -0,0 +1,106 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import io.awspring.cloud.messaging.core.TopicMessageChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.support.GenericMessage;
+
+import java.util.Map;
+
+class InMemoryNotificationMessagingTemplateTest {
+
+    private InMemoryQueueMessagingTemplate queueMessagingTemplate;
+
+    private InMemoryNotificationMessagingTemplate template;
+
+    @BeforeEach
+    void setup() {
+        this.queueMessagingTemplate = new InMemoryQueueMessagingTemplate(new InMemoryAwsSqsClient());
+        this.template = new InMemoryNotificationMessagingTemplate(this.queueMessagingTemplate);
+    }
+
+    @AfterEach
+    void cleanse() {
+        this.queueMessagingTemplate.destroy();
+    }
+
+    @Test
+    void fanOutSharesPayload() {
+        this.template.subscribe("orders", "billing");
+        this.template.subscribe("orders", "shipping");
+        var payload = new Object();
+
+        this.template.convertAndSend("orders", payload);
+
+        var billing = this.queueMessagingTemplate.receive("billing");
+        var shipping = this.queueMessagingTemplate.receive("shipping");
+        Assertions.assertNotNull(billing);
+        Assertions.assertNotNull(shipping);
+        Assertions.assertSame(payload, billing.getPayload());
+        Assertions.assertSame(billing, shipping);
+    }
+
+    @Test
+    void filterPolicies() {
+        this.template.subscribe("orders", "big", "{\"amount\":[{\"numeric\":[\">\",100]}]}");
+        this.template.subscribe("orders", "all");
+
+        Assertions.assertEquals(1, this.template.publish("orders", new GenericMessage<>("small", Map.of("amount", 10))));
+        Assertions.assertEquals(2, this.template.publish("orders", new GenericMessage<>("big", Map.of("amount", 1000))));
+
+        Assertions.assertEquals("big", this.queueMessagingTemplate.receive("big").getPayload());
+        Assertions.assertNull(this.queueMessagingTemplate.receive("big"));
+        Assertions.assertEquals("small", this.queueMessagingTemplate.receive("all").getPayload());
+        Assertions.assertEquals("big", this.queueMessagingTemplate.receive("all").getPayload());
+    }
+
+    @Test
+    void failedDeliveriesDontStopTheFanOut() {
+        final var properties = new InMemoryQueueMessagingProperties();
+        final var small = new InMemoryQueueMessagingProperties.Queue();
+        small.setMaxMessageSize(1024);
+        properties.getQueues().put("small", small);
+        this.queueMessagingTemplate.destroy();
+        this.queueMessagingTemplate = new InMemoryQueueMessagingTemplate(new InMemoryAwsSqsClient(), properties);
+        this.template = new InMemoryNotificationMessagingTemplate(this.queueMessagingTemplate);
+        this.template.subscribe("orders", "first");
+        this.template.subscribe("orders", "small");
+        this.template.subscribe("orders", "last");
+
+        Assertions.assertEquals(2, this.template.publish("orders", new GenericMessage<>("x".repeat(2048))));
+
+        Assertions.assertEquals(1L, this.template.getFailedDeliveries());
+        Assertions.assertNotNull(this.queueMessagingTemplate.receive("first"));
+        Assertions.assertNull(this.queueMessagingTemplate.receive("small"));
+        Assertions.assertNotNull(this.queueMessagingTemplate.receive("last"));
+    }
+
+    @Test
+    void subscribeUnsubscribe() {
+        Assertions.assertFalse(this.template.unsubscribe("orders", "billing"));
+        this.template.subscribe("orders", "billing", "{\"type\":[\"a\"]}");
+        this.template.subscribe("orders", "billing");
+        Assertions.assertEquals(1, this.template.publish("orders", new GenericMessage<>("b", Map.of("type", "b"))));
+        Assertions.assertTrue(this.template.unsubscribe("orders", "billing"));
+        Assertions.assertEquals(0, this.template.publish("orders", new GenericMessage<>("c")));
+        Assertions.assertEquals(0, this.template.publish("unknown", new GenericMessage<>("c")));
+    }
+
+    @Test
+    void sendNotification() {
+        this.template.subscribe("orders", "billing");
+        this.template.sendNotification("orders", "payload", "subject");
+        var message = this.queueMessagingTemplate.receive("billing");
+        Assertions.assertEquals("payload", message.getPayload());
+        Assertions.assertEquals("subject", message.getHeaders().get(TopicMessageChannel.NOTIFICATION_SUBJECT_HEADER));
+
+        this.template.setDefaultDestinationName("orders");
+        this.template.sendNotification("other", null);
+        Assertions.assertEquals("other", this.queueMessagingTemplate.receive("billing").getPayload());
+
+        this.template.send(new GenericMessage<>("channel"));
+        Assertions.assertEquals("channel", this.queueMessagingTemplate.receive("billing").getPayload());
+    }
+}
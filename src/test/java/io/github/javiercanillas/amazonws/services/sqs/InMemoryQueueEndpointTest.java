@@ -0,0 +1,63 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import io.awspring.cloud.messaging.core.SqsMessageHeaders;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+class InMemoryQueueEndpointTest {
+
+    private InMemoryQueueMessagingTemplate template;
+
+    private InMemoryQueueEndpoint endpoint;
+
+    @BeforeEach
+    void setup() {
+        this.template = new InMemoryQueueMessagingTemplate(new InMemoryAwsSqsClient());
+        this.endpoint = new InMemoryQueueEndpoint(this.template);
+    }
+
+    @AfterEach
+    void cleanse() {
+        this.template.destroy();
+    }
+
+    @Test
+    void queues() {
+        this.template.convertAndSend("orders", "first");
+        this.template.convertAndSend("orders", "delayed", Map.of(SqsMessageHeaders.SQS_DELAY_HEADER, 60));
+
+        final var statistics = this.endpoint.queues().get("orders");
+        Assertions.assertEquals(1, statistics.getVisible());
+        Assertions.assertEquals(1, statistics.getDelayed());
+    }
+
+    @Test
+    void peekWithoutConsuming() {
+        for (var i = 0; i < 3; i++) {
+            this.template.convertAndSend("orders", "payload" + i);
+        }
+
+        final var details = this.endpoint.queue("orders", 2);
+        final var messages = (List<?>) details.get("messages");
+        Assertions.assertEquals(2, messages.size());
+        Assertions.assertEquals("payload0", ((Map<?, ?>) messages.get(0)).get("payload"));
+        Assertions.assertEquals(3, ((List<?>) this.endpoint.queue("orders", null).get("messages")).size());
+        Assertions.assertEquals("payload0", this.template.receiveAndConvert("orders", String.class));
+
+        Assertions.assertNull(this.endpoint.queue("unknown", null));
+    }
+
+    @Test
+    void purge() {
+        this.template.convertAndSend("orders", "payload");
+
+        Assertions.assertEquals(Map.of("purged", 1), this.endpoint.purge("orders"));
+        Assertions.assertEquals(0, this.endpoint.queues().get("orders").getOutstanding());
+        Assertions.assertNull(this.endpoint.purge("unknown"));
+    }
+}
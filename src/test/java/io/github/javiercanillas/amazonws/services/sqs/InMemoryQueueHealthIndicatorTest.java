@@ -0,0 +1,47 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.boot.actuate.health.Status;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+@ExtendWith(MockitoExtension.class)
+class InMemoryQueueHealthIndicatorTest {
+
+    @Mock
+    private InMemoryQueueMessagingTemplate template;
+
+    @Test
+    void upWhileNoListenerIsStuck() {
+        Mockito.doReturn(Collections.emptyList()).when(template).getStuckListeners();
+        Assertions.assertEquals(Status.UP, new InMemoryQueueHealthIndicator(template).health().getStatus());
+    }
+
+    @Test
+    void downWhileSomeListenerIsStuck() {
+        final var stuck = StuckListener.builder()
+                .queue("orders")
+                .listener("OrderListener.consume")
+                .thread("worker")
+                .duration(Duration.ofMinutes(1))
+                .stackTrace(List.of(new StackTraceElement("OrderListener", "consume", "OrderListener.java", 42)))
+                .build();
+        Mockito.doReturn(List.of(stuck)).when(template).getStuckListeners();
+
+        final var health = new InMemoryQueueHealthIndicator(template).health();
+        Assertions.assertEquals(Status.DOWN, health.getStatus());
+        final var details = (List<?>) health.getDetails().get("stuckListeners");
+        final var detail = (Map<?, ?>) details.get(0);
+        Assertions.assertEquals("orders", detail.get("queue"));
+        Assertions.assertEquals("PT1M", detail.get("duration"));
+        Assertions.assertEquals(List.of("OrderListener.consume(OrderListener.java:42)"), detail.get("stackTrace"));
+    }
+}
@@ -17,18 +17,55 @@ class InMemoryQueueMessagingConfigurationTest {
     @Test
     void queueMessagingTemplate() {
         var amazonSQSAsync = configuration.inMemoryAwsSqsClient();
-        var localQueueMessagingTemplate = configuration.queueMessagingTemplate(amazonSQSAsync);
+        var localQueueMessagingTemplate = configuration.queueMessagingTemplate(amazonSQSAsync,
+                new InMemoryQueueMessagingProperties());
         assertNotNull(localQueueMessagingTemplate);
     }
 
     @Test
     void sqsListenerBeanPostProcessor() {
         var amazonSQSAsync = configuration.inMemoryAwsSqsClient();
-        var localQueueMessagingTemplate = configuration.queueMessagingTemplate(amazonSQSAsync);
+        var localQueueMessagingTemplate = configuration.queueMessagingTemplate(amazonSQSAsync,
+                new InMemoryQueueMessagingProperties());
         var sqsListenerBeanPostProcessor = configuration.sqsListenerBeanPostProcessor(localQueueMessagingTemplate);
         assertNotNull(sqsListenerBeanPostProcessor);
     }
 
+    @Test
+    void notificationMessagingTemplate() {
+        var amazonSQSAsync = configuration.inMemoryAwsSqsClient();
+        var localQueueMessagingTemplate = configuration.queueMessagingTemplate(amazonSQSAsync,
+                new InMemoryQueueMessagingProperties());
+        assertNotNull(configuration.notificationMessagingTemplate(localQueueMessagingTemplate));
+    }
+
+    @Test
+    void reactiveQueueReceiver() {
+        var amazonSQSAsync = configuration.inMemoryAwsSqsClient();
+        var localQueueMessagingTemplate = configuration.queueMessagingTemplate(amazonSQSAsync,
+                new InMemoryQueueMessagingProperties());
+        assertNotNull(new InMemoryQueueMessagingConfiguration.Reactive()
+                .reactiveQueueReceiver(localQueueMessagingTemplate));
+    }
+
+    @Test
+    void healthIndicator() {
+        var amazonSQSAsync = configuration.inMemoryAwsSqsClient();
+        var localQueueMessagingTemplate = configuration.queueMessagingTemplate(amazonSQSAsync,
+                new InMemoryQueueMessagingProperties());
+        assertNotNull(new InMemoryQueueMessagingConfiguration.Actuator()
+                .inMemorySqsHealthIndicator(localQueueMessagingTemplate));
+    }
+
+    @Test
+    void endpoint() {
+        var amazonSQSAsync = configuration.inMemoryAwsSqsClient();
+        var localQueueMessagingTemplate = configuration.queueMessagingTemplate(amazonSQSAsync,
+                new InMemoryQueueMessagingProperties());
+        assertNotNull(new InMemoryQueueMessagingConfiguration.Actuator()
+                .inMemorySqsEndpoint(localQueueMessagingTemplate));
+    }
+
     @Test
     void queueMessageHandler() {
         assertNotNull(configuration.queueMessageHandler());
@@ -0,0 +1,46 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.time.Duration;
+import java.util.Map;
+
+class InMemoryQueueMessagingPropertiesTest {
+
+    @Test
+    void queuesFallBackToDefaults() {
+        final var source = new MapConfigurationPropertySource(Map.of(
+                "cloud.aws.sqs.in-memory.defaults.max-in-flight", "50",
+                "cloud.aws.sqs.in-memory.defaults.serialization", "true",
+                "cloud.aws.sqs.in-memory.defaults.workers.max", "4",
+                "cloud.aws.sqs.in-memory.defaults.faults.seed", "7",
+                "cloud.aws.sqs.in-memory.queues.orders.retention-period", "5m",
+                "cloud.aws.sqs.in-memory.queues.orders.workers.min", "2",
+                "cloud.aws.sqs.in-memory.queues.orders.faults.enabled", "true"));
+        final var properties = new Binder(source)
+                .bind("cloud.aws.sqs.in-memory", InMemoryQueueMessagingProperties.class)
+                .get();
+
+        final var orders = properties.getQueue("orders");
+        Assertions.assertEquals(Duration.ofMinutes(5), orders.getRetentionPeriod());
+        Assertions.assertEquals(50, orders.getMaxInFlight());
+        Assertions.assertTrue(orders.isSerialization());
+        Assertions.assertEquals(2, orders.getWorkers().getMin());
+        Assertions.assertEquals(4, orders.getWorkers().getMax());
+        Assertions.assertTrue(orders.getFaults().isEnabled());
+        Assertions.assertEquals(7L, orders.getFaults().getSeed());
+        // settings set nowhere keep their default value
+        Assertions.assertEquals(Duration.ofSeconds(30), orders.getVisibilityTimeout());
+        Assertions.assertEquals(MessageSize.SQS_MAX_MESSAGE_SIZE, orders.getMaxMessageSize());
+        Assertions.assertEquals(Duration.ofSeconds(1), orders.getFaults().getReceiveLatency().getMax());
+
+        final var others = properties.getQueue("others");
+        Assertions.assertEquals(SqsInstance.DEFAULT_RETENTION_PERIOD, others.getRetentionPeriod());
+        Assertions.assertEquals(50, others.getMaxInFlight());
+        Assertions.assertEquals(1, others.getWorkers().getMin());
+        Assertions.assertFalse(others.getFaults().isEnabled());
+    }
+}
@@ -0,0 +1,46 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+@ExtendWith(SpringExtension.class)
+@ExtendWith(InMemoryQueueMessagingResetExtension.class)
+@ContextConfiguration(classes = InMemoryQueueMessagingResetExtensionTest.Config.class)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class InMemoryQueueMessagingResetExtensionTest {
+
+    @Autowired
+    private InMemoryQueueMessagingTemplate template;
+
+    @Test
+    @Order(1)
+    void leaveMessagesBehind() {
+        this.template.convertAndSend("queue", "payload");
+        this.template.convertAndSend("payload");
+    }
+
+    @Test
+    @Order(2)
+    void startsWithEmptyQueues() {
+        Assertions.assertNull(this.template.receive("queue"));
+        Assertions.assertNull(this.template.receive());
+    }
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        public InMemoryQueueMessagingTemplate queueMessagingTemplate() {
+            return new InMemoryQueueMessagingTemplate(new InMemoryAwsSqsClient());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import io.awspring.cloud.messaging.core.SqsMessageHeaders;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import org.springframework.messaging.Message;
+import reactor.core.publisher.BaseSubscriber;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+class InMemoryReactiveQueueReceiverTest {
+
+    private InMemoryQueueMessagingTemplate template;
+
+    private InMemoryReactiveQueueReceiver receiver;
+
+    @BeforeEach
+    void setup() {
+        this.template = new InMemoryQueueMessagingTemplate(new InMemoryAwsSqsClient());
+        this.receiver = new InMemoryReactiveQueueReceiver(this.template);
+    }
+
+    @AfterEach
+    void cleanse() {
+        this.template.destroy();
+    }
+
+    @Test
+    void followsDemand() {
+        for (var i = 0; i < 5; i++) {
+            this.template.convertAndSend("orders", "payload" + i);
+        }
+        final var subscriber = new RecordingSubscriber();
+        this.receiver.receive("orders").subscribe(subscriber);
+        Assertions.assertTrue(subscriber.received.isEmpty());
+
+        subscriber.request(2);
+        Assertions.assertEquals(List.of("payload0", "payload1"), subscriber.payloads());
+        Assertions.assertEquals(3, this.template.getStatistics("orders").getOutstanding());
+
+        // messages not requested are left for others, and stay in the queue once cancelled
+        Assertions.assertEquals("payload2", this.template.receive("orders").getPayload());
+        subscriber.request(1);
+        subscriber.cancel();
+        Assertions.assertEquals(List.of("payload0", "payload1", "payload3"), subscriber.payloads());
+        this.template.convertAndSend("orders", "payload5");
+        Assertions.assertEquals(2, this.template.getStatistics("orders").getOutstanding());
+        Assertions.assertEquals(3, subscriber.received.size());
+    }
+
+    @Test
+    void pushesMessagesAsTheyArrive() throws InterruptedException, ExecutionException, TimeoutException {
+        final var received = this.receiver.receive("orders")
+                .take(3)
+                .map(Message::getPayload)
+                .collectList()
+                .toFuture();
+        this.template.convertAndSend("orders", "delayed", Map.of(SqsMessageHeaders.SQS_DELAY_HEADER, 1));
+        this.template.convertAndSend("orders", "first");
+        this.template.convertAndSend("orders", "second");
+
+        Assertions.assertEquals(List.of("first", "second", "delayed"), received.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(this.template.awaitIdle("orders", Duration.ofSeconds(1)));
+    }
+
+    @Test
+    void slowSubscribersDontHoldUpSenders() throws Exception {
+        final var emitting = new CountDownLatch(1);
+        final var release = new CountDownLatch(1);
+        final var received = new CopyOnWriteArrayList<Object>();
+        this.receiver.receive("orders").subscribe(message -> {
+            emitting.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            received.add(message.getPayload());
+        });
+        // the first message is emitted on the thread sending it, which the subscriber holds up
+        final var first = CompletableFuture.runAsync(() -> this.template.convertAndSend("orders", "first"));
+        Assertions.assertTrue(emitting.await(1, TimeUnit.SECONDS));
+
+        final var senders = Executors.newFixedThreadPool(4);
+        try {
+            final var sends = IntStream.range(0, 20)
+                    .mapToObj(i -> CompletableFuture.runAsync(() -> this.template.convertAndSend("orders", "m" + i),
+                            senders))
+                    .toArray(CompletableFuture[]::new);
+            CompletableFuture.allOf(sends).get(1, TimeUnit.SECONDS);
+            Assertions.assertFalse(first.isDone());
+        } finally {
+            release.countDown();
+            senders.shutdown();
+        }
+        first.get(1, TimeUnit.SECONDS);
+        Assertions.assertTrue(this.template.awaitIdle("orders", Duration.ofSeconds(1)));
+        Assertions.assertEquals(21, received.size());
+        Assertions.assertEquals("first", received.get(0));
+    }
+
+    @Test
+    void subscribersSendingToEachOther() throws Exception {
+        // each subscriber sends to the other queue, which used to lock both queues in opposite order
+        final var hops = new CountDownLatch(200);
+        this.receiver.receive("ping").subscribe(message -> {
+            hops.countDown();
+            if ((Integer) message.getPayload() > 0) {
+                this.template.convertAndSend("pong", (Integer) message.getPayload() - 1);
+            }
+        });
+        this.receiver.receive("pong").subscribe(message -> {
+            hops.countDown();
+            if ((Integer) message.getPayload() > 0) {
+                this.template.convertAndSend("ping", (Integer) message.getPayload() - 1);
+            }
+        });
+        final var senders = Executors.newFixedThreadPool(2);
+        try {
+            final var ping = CompletableFuture.runAsync(() -> this.template.convertAndSend("ping", 99), senders);
+            final var pong = CompletableFuture.runAsync(() -> this.template.convertAndSend("pong", 99), senders);
+            CompletableFuture.allOf(ping, pong).get(5, TimeUnit.SECONDS);
+        } finally {
+            senders.shutdown();
+        }
+        Assertions.assertTrue(hops.await(5, TimeUnit.SECONDS));
+    }
+
+    private static class RecordingSubscriber extends BaseSubscriber<Message<?>> {
+
+        private final List<Message<?>> received = new CopyOnWriteArrayList<>();
+
+        @Override
+        protected void hookOnSubscribe(final Subscription subscription) {
+            // no demand until asked for
+        }
+
+        @Override
+        protected void hookOnNext(final Message<?> value) {
+            this.received.add(value);
+        }
+
+        List<Object> payloads() {
+            return this.received.stream().map(Message::getPayload).collect(Collectors.toList());
+        }
+    }
+}
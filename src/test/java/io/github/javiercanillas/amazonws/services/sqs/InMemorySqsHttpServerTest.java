@@ -0,0 +1,170 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+class InMemorySqsHttpServerTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private InMemoryQueueMessagingTemplate template;
+
+    private InMemorySqsHttpServer server;
+
+    private HttpClient httpClient;
+
+    @BeforeEach
+    void setup() throws IOException {
+        final var client = new InMemoryAwsSqsClient();
+        this.template = new InMemoryQueueMessagingTemplate(client);
+        this.server = new InMemorySqsHttpServer(client, new InetSocketAddress("localhost", 0), 2);
+        this.server.start();
+        this.httpClient = HttpClient.newHttpClient();
+    }
+
+    @AfterEach
+    void cleanse() {
+        this.server.stop();
+        this.template.destroy();
+    }
+
+    @Test
+    void sendReceiveAndDelete() throws Exception {
+        final var queueUrl = this.call("GetQueueUrl", Map.of("QueueName", "orders")).get("QueueUrl").asText();
+        Assertions.assertEquals(this.server.getEndpoint() + "/000000000000/orders", queueUrl);
+
+        final var sent = this.call("SendMessage", Map.of("QueueUrl", queueUrl, "MessageBody", "hello",
+                "MessageAttributes", Map.of("kind", Map.of("DataType", "String", "StringValue", "greeting"))));
+        Assertions.assertEquals(InMemoryAwsSqsClient.md5Of("hello"), sent.get("MD5OfMessageBody").asText());
+        Assertions.assertEquals(InMemorySqsHttpServer.md5Of(Map.of("kind",
+                        new MessageAttributeValue().withDataType("String").withStringValue("greeting"))),
+                sent.get("MD5OfMessageAttributes").asText());
+        // the same queue the template serves
+        Assertions.assertEquals(1, this.template.getStatistics("orders").getVisible());
+
+        final var received = this.call("ReceiveMessage", Map.of("QueueUrl", queueUrl, "MaxNumberOfMessages", 10))
+                .get("Messages");
+        Assertions.assertEquals(1, received.size());
+        Assertions.assertEquals("hello", received.get(0).get("Body").asText());
+        Assertions.assertEquals("greeting", received.get(0).at("/MessageAttributes/kind/StringValue").asText());
+        Assertions.assertEquals(sent.get("MessageId").asText(), received.get(0).get("MessageId").asText());
+
+        this.call("DeleteMessage", Map.of("QueueUrl", queueUrl,
+                "ReceiptHandle", received.get(0).get("ReceiptHandle").asText()));
+        Assertions.assertEquals(0, this.template.getStatistics("orders").getOutstanding());
+    }
+
+    @Test
+    void batches() throws Exception {
+        final var sent = this.call("SendMessageBatch", Map.of("QueueUrl", "orders", "Entries", new Object[]{
+                Map.of("Id", "a", "MessageBody", "first"),
+                Map.of("Id", "b", "MessageBody", "second")}));
+        Assertions.assertEquals(2, sent.get("Successful").size());
+
+        final var received = this.call("ReceiveMessage", Map.of("QueueUrl", "orders", "MaxNumberOfMessages", 10))
+                .get("Messages");
+        Assertions.assertEquals(2, received.size());
+        final var changed = this.call("ChangeMessageVisibilityBatch", Map.of("QueueUrl", "orders", "Entries",
+                new Object[]{Map.of("Id", "a", "ReceiptHandle", received.get(0).get("ReceiptHandle").asText(),
+                        "VisibilityTimeout", 0)}));
+        Assertions.assertEquals(1, changed.get("Successful").size());
+        Assertions.assertEquals(1, this.template.getStatistics("orders").getVisible());
+
+        // received again, which makes the first receipt handle stale
+        this.call("ReceiveMessage", Map.of("QueueUrl", "orders"));
+        final var deleted = this.call("DeleteMessageBatch", Map.of("QueueUrl", "orders", "Entries", new Object[]{
+                Map.of("Id", "b", "ReceiptHandle", received.get(1).get("ReceiptHandle").asText())}));
+        Assertions.assertEquals("b", deleted.get("Successful").get(0).get("Id").asText());
+        Assertions.assertEquals(1, this.template.getStatistics("orders").getOutstanding());
+    }
+
+    @Test
+    void batchEntriesFailOnTheirOwn() throws Exception {
+        this.call("SendMessage", Map.of("QueueUrl", "orders", "MessageBody", "payload"));
+        final var received = this.call("ReceiveMessage", Map.of("QueueUrl", "orders")).get("Messages");
+        final var receiptHandle = received.get(0).get("ReceiptHandle").asText();
+
+        final var changed = this.call("ChangeMessageVisibilityBatch", Map.of("QueueUrl", "orders", "Entries",
+                new Object[]{Map.of("Id", "tooLong", "ReceiptHandle", receiptHandle, "VisibilityTimeout", 50_000),
+                        Map.of("Id", "visible", "ReceiptHandle", receiptHandle, "VisibilityTimeout", 0)}));
+        Assertions.assertEquals("visible", changed.at("/Successful/0/Id").asText());
+        Assertions.assertEquals("tooLong", changed.at("/Failed/0/Id").asText());
+        Assertions.assertEquals("InvalidParameterValue", changed.at("/Failed/0/Code").asText());
+        Assertions.assertTrue(changed.at("/Failed/0/SenderFault").asBoolean());
+        Assertions.assertEquals(1, this.template.getStatistics("orders").getVisible());
+
+        // received again, which makes the first receipt handle stale
+        this.call("ReceiveMessage", Map.of("QueueUrl", "orders"));
+        final var deleted = this.call("DeleteMessageBatch", Map.of("QueueUrl", "orders", "Entries", new Object[]{
+                Map.of("Id", "stale", "ReceiptHandle", receiptHandle)}));
+        Assertions.assertEquals(0, deleted.get("Successful").size());
+        Assertions.assertEquals("ReceiptHandleIsInvalid", deleted.at("/Failed/0/Code").asText());
+        Assertions.assertEquals(1, this.template.getStatistics("orders").getOutstanding());
+    }
+
+    @Test
+    void longPollsHoldNoThread() throws Exception {
+        // many more waiting receives than server threads
+        final var receives = new ArrayList<CompletableFuture<HttpResponse<String>>>();
+        for (var i = 0; i < 20; i++) {
+            receives.add(this.httpClient.sendAsync(this.request("ReceiveMessage",
+                    Map.of("QueueUrl", "orders", "WaitTimeSeconds", 5)), HttpResponse.BodyHandlers.ofString()));
+        }
+        Thread.sleep(200L);
+        for (var i = 0; i < 20; i++) {
+            this.call("SendMessage", Map.of("QueueUrl", "orders", "MessageBody", "payload" + i));
+        }
+        var messages = 0;
+        for (final var receive : receives) {
+            final var response = receive.get(2, TimeUnit.SECONDS);
+            Assertions.assertEquals(200, response.statusCode());
+            messages += OBJECT_MAPPER.readTree(response.body()).get("Messages").size();
+        }
+        Assertions.assertEquals(20, messages);
+    }
+
+    @Test
+    void errors() throws Exception {
+        final var unknown = this.httpClient.send(this.request("PurgeEverything", Map.of()),
+                HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(400, unknown.statusCode());
+        Assertions.assertEquals("com.amazonaws.sqs#UnsupportedOperation",
+                OBJECT_MAPPER.readTree(unknown.body()).get("__type").asText());
+
+        final var invalid = this.httpClient.send(this.request("ReceiveMessage",
+                Map.of("QueueUrl", "orders", "MaxNumberOfMessages", 11)), HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(400, invalid.statusCode());
+        Assertions.assertEquals("com.amazonaws.sqs#InvalidParameterValue",
+                OBJECT_MAPPER.readTree(invalid.body()).get("__type").asText());
+    }
+
+    private JsonNode call(final String action, final Map<String, Object> body) throws Exception {
+        final var response = this.httpClient.send(this.request(action, body), HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(200, response.statusCode(), response.body());
+        return OBJECT_MAPPER.readTree(response.body());
+    }
+
+    private HttpRequest request(final String action, final Map<String, Object> body) throws IOException {
+        return HttpRequest.newBuilder(URI.create(this.server.getEndpoint() + "/"))
+                .header("Content-Type", InMemorySqsHttpServer.CONTENT_TYPE)
+                .header("X-Amz-Target", "AmazonSQS." + action)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(OBJECT_MAPPER.writeValueAsBytes(body)))
+                .build();
+    }
+}
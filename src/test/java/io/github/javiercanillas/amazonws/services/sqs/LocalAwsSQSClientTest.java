@@ -1,11 +1,38 @@
 package io.github.javiercanillas.amazonws.services.sqs;
 
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.sqs.model.AmazonSQSException;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
 import com.amazonaws.services.sqs.model.ChangeMessageVisibilityRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.TooManyEntriesInBatchRequestException;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
 @ExtendWith(MockitoExtension.class)
 class LocalAwsSQSClientTest {
 
@@ -22,4 +49,305 @@ class LocalAwsSQSClientTest {
         Assertions.assertEquals(Integer.valueOf(12), local.getHandles().get("handle_1"));
     }
 
+    @Test
+    void notBound() {
+        var local = new InMemoryAwsSqsClient();
+        Assertions.assertThrows(IllegalStateException.class, () -> local.getQueueUrl("orders"));
+    }
+
+    @Test
+    void sendReceiveDelete() {
+        var local = new InMemoryAwsSqsClient();
+        var template = new InMemoryQueueMessagingTemplate(local);
+        try {
+            var queueUrl = local.getQueueUrl("orders").getQueueUrl();
+            Assertions.assertEquals(InMemoryAwsSqsClient.QUEUE_URL_PREFIX + "orders", queueUrl);
+
+            var sent = local.sendMessage(new SendMessageRequest(queueUrl, "body")
+                    .withMessageAttributes(Map.of("type", new MessageAttributeValue()
+                            .withDataType("String").withStringValue("created"))));
+            Assertions.assertNotNull(sent.getMessageId());
+
+            var received = local.receiveMessage(queueUrl).getMessages();
+            Assertions.assertEquals(1, received.size());
+            var message = received.get(0);
+            Assertions.assertEquals(sent.getMessageId(), message.getMessageId());
+            Assertions.assertEquals("body", message.getBody());
+            Assertions.assertEquals(sent.getMD5OfMessageBody(), message.getMD5OfBody());
+            Assertions.assertEquals("created", message.getMessageAttributes().get("type").getStringValue());
+            Assertions.assertEquals("1", message.getAttributes().get("ApproximateReceiveCount"));
+
+            // hidden until deleted
+            Assertions.assertTrue(local.receiveMessage(queueUrl).getMessages().isEmpty());
+            Assertions.assertEquals(1, template.getStatistics("orders").getOutstanding());
+            local.deleteMessage(queueUrl, message.getReceiptHandle());
+            Assertions.assertEquals(0, template.getStatistics("orders").getOutstanding());
+        } finally {
+            template.destroy();
+        }
+    }
+
+    @Test
+    void visibilityTimeout() {
+        var local = new InMemoryAwsSqsClient();
+        var template = new InMemoryQueueMessagingTemplate(local);
+        try {
+            var queueUrl = local.getQueueUrl("orders").getQueueUrl();
+            local.sendMessage(queueUrl, "body");
+            var first = local.receiveMessage(new ReceiveMessageRequest(queueUrl).withVisibilityTimeout(0))
+                    .getMessages().get(0);
+            var second = local.receiveMessage(new ReceiveMessageRequest(queueUrl).withVisibilityTimeout(0))
+                    .getMessages().get(0);
+            Assertions.assertEquals(first.getMessageId(), second.getMessageId());
+            Assertions.assertNotEquals(first.getReceiptHandle(), second.getReceiptHandle());
+            Assertions.assertEquals("2", second.getAttributes().get("ApproximateReceiveCount"));
+
+            // a stale receipt handle is rejected, and the message is kept
+            var stale = Assertions.assertThrows(AmazonSQSException.class,
+                    () -> local.deleteMessage(queueUrl, first.getReceiptHandle()));
+            Assertions.assertEquals("ReceiptHandleIsInvalid", stale.getErrorCode());
+            Assertions.assertThrows(AmazonSQSException.class, () -> local.deleteMessage(queueUrl, "unknown"));
+            Assertions.assertThrows(AmazonSQSException.class, () -> local.deleteMessage(queueUrl, ""));
+            Assertions.assertEquals(1, template.getStatistics("orders").getOutstanding());
+
+            local.changeMessageVisibility(queueUrl, second.getReceiptHandle(), 30);
+            Assertions.assertTrue(local.receiveMessage(queueUrl).getMessages().isEmpty());
+            local.changeMessageVisibility(queueUrl, second.getReceiptHandle(), 0);
+            var third = local.receiveMessage(queueUrl).getMessages().get(0);
+            local.deleteMessage(queueUrl, third.getReceiptHandle());
+            Assertions.assertEquals(0, template.getStatistics("orders").getOutstanding());
+            Assertions.assertTrue(local.getHandles().isEmpty());
+        } finally {
+            template.destroy();
+        }
+    }
+
+    @Test
+    void batchesAndMaxNumberOfMessages() {
+        var local = new InMemoryAwsSqsClient();
+        var template = new InMemoryQueueMessagingTemplate(local);
+        try {
+            var queueUrl = local.getQueueUrl("orders").getQueueUrl();
+            var entries = IntStream.range(0, 10)
+                    .mapToObj(i -> new SendMessageBatchRequestEntry(String.valueOf(i), "body" + i))
+                    .collect(Collectors.toList());
+            Assertions.assertEquals(10, local.sendMessageBatch(queueUrl, entries).getSuccessful().size());
+            Assertions.assertEquals("10", local.getQueueAttributes(new GetQueueAttributesRequest(queueUrl,
+                    List.of("ApproximateNumberOfMessages"))).getAttributes().get("ApproximateNumberOfMessages"));
+
+            var received = local.receiveMessage(new ReceiveMessageRequest(queueUrl).withMaxNumberOfMessages(4))
+                    .getMessages();
+            Assertions.assertEquals(List.of("body0", "body1", "body2", "body3"), received.stream()
+                    .map(com.amazonaws.services.sqs.model.Message::getBody)
+                    .collect(Collectors.toList()));
+            var deletions = received.stream()
+                    .map(message -> new DeleteMessageBatchRequestEntry(message.getMessageId(),
+                            message.getReceiptHandle()))
+                    .collect(Collectors.toList());
+            Assertions.assertEquals(4, local.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl, deletions))
+                    .getSuccessful().size());
+            Assertions.assertEquals(6, template.getStatistics("orders").getOutstanding());
+
+            Assertions.assertThrows(TooManyEntriesInBatchRequestException.class, () -> local.sendMessageBatch(
+                    new SendMessageBatchRequest(queueUrl, IntStream.range(0, 11)
+                            .mapToObj(i -> new SendMessageBatchRequestEntry(String.valueOf(i), "body"))
+                            .collect(Collectors.toList()))));
+            Assertions.assertThrows(AmazonSQSException.class, () -> local.receiveMessage(
+                    new ReceiveMessageRequest(queueUrl).withMaxNumberOfMessages(11)));
+        } finally {
+            template.destroy();
+        }
+    }
+
+    @Test
+    void batchEntriesFailOnTheirOwn() {
+        var local = new InMemoryAwsSqsClient();
+        var properties = new InMemoryQueueMessagingProperties();
+        properties.getDefaults().setMaxMessageSize(1024);
+        var template = new InMemoryQueueMessagingTemplate(local, properties);
+        try {
+            var queueUrl = local.getQueueUrl("orders").getQueueUrl();
+            var sent = local.sendMessageBatch(queueUrl, List.of(
+                    new SendMessageBatchRequestEntry("first", "body"),
+                    new SendMessageBatchRequestEntry("tooLong", "x".repeat(1025)),
+                    new SendMessageBatchRequestEntry("last", "body")));
+            Assertions.assertEquals(List.of("first", "last"), sent.getSuccessful().stream()
+                    .map(SendMessageBatchResultEntry::getId)
+                    .collect(Collectors.toList()));
+            Assertions.assertEquals(1, sent.getFailed().size());
+            Assertions.assertEquals("tooLong", sent.getFailed().get(0).getId());
+            Assertions.assertEquals("InvalidParameterValue", sent.getFailed().get(0).getCode());
+            Assertions.assertTrue(sent.getFailed().get(0).getSenderFault());
+            Assertions.assertEquals(2, template.getStatistics("orders").getOutstanding());
+
+            var received = local.receiveMessage(new ReceiveMessageRequest(queueUrl).withMaxNumberOfMessages(2))
+                    .getMessages();
+            local.deleteMessage(queueUrl, received.get(0).getReceiptHandle());
+            var deleted = local.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl, List.of(
+                    new DeleteMessageBatchRequestEntry("deletedAlready", received.get(0).getReceiptHandle()),
+                    new DeleteMessageBatchRequestEntry("unknown", "unknown"),
+                    new DeleteMessageBatchRequestEntry("held", received.get(1).getReceiptHandle()))));
+            Assertions.assertEquals(List.of("held"), deleted.getSuccessful().stream()
+                    .map(DeleteMessageBatchResultEntry::getId)
+                    .collect(Collectors.toList()));
+            Assertions.assertEquals(List.of("deletedAlready", "unknown"), deleted.getFailed().stream()
+                    .map(BatchResultErrorEntry::getId)
+                    .collect(Collectors.toList()));
+            Assertions.assertEquals("ReceiptHandleIsInvalid", deleted.getFailed().get(0).getCode());
+            Assertions.assertEquals(0, template.getStatistics("orders").getOutstanding());
+
+            // a queue that doesn't take messages anymore fails every entry, on its own side
+            template.stop();
+            sent = local.sendMessageBatch(queueUrl, List.of(
+                    new SendMessageBatchRequestEntry("first", "body"),
+                    new SendMessageBatchRequestEntry("last", "body")));
+            Assertions.assertTrue(sent.getSuccessful().isEmpty());
+            Assertions.assertEquals(2, sent.getFailed().size());
+            Assertions.assertEquals("InternalFailure", sent.getFailed().get(1).getCode());
+            Assertions.assertFalse(sent.getFailed().get(1).getSenderFault());
+        } finally {
+            template.destroy();
+        }
+    }
+
+    @Test
+    void receivedMessagesAreNotVisible() {
+        var local = new InMemoryAwsSqsClient();
+        var template = new InMemoryQueueMessagingTemplate(local);
+        try {
+            var queueUrl = local.getQueueUrl("orders").getQueueUrl();
+            local.sendMessage(queueUrl, "body");
+            local.sendMessage(new SendMessageRequest(queueUrl, "delayed").withDelaySeconds(60));
+            var received = local.receiveMessage(queueUrl).getMessages().get(0);
+
+            var attributes = local.getQueueAttributes(new GetQueueAttributesRequest(queueUrl, List.of("All")))
+                    .getAttributes();
+            Assertions.assertEquals("0", attributes.get("ApproximateNumberOfMessages"));
+            Assertions.assertEquals("1", attributes.get("ApproximateNumberOfMessagesNotVisible"));
+            Assertions.assertEquals("1", attributes.get("ApproximateNumberOfMessagesDelayed"));
+
+            local.deleteMessage(queueUrl, received.getReceiptHandle());
+            attributes = local.getQueueAttributes(new GetQueueAttributesRequest(queueUrl, List.of("All")))
+                    .getAttributes();
+            Assertions.assertEquals("0", attributes.get("ApproximateNumberOfMessagesNotVisible"));
+            Assertions.assertEquals("1", attributes.get("ApproximateNumberOfMessagesDelayed"));
+        } finally {
+            template.destroy();
+        }
+    }
+
+    @Test
+    void longPolling() {
+        var local = new InMemoryAwsSqsClient();
+        var template = new InMemoryQueueMessagingTemplate(local);
+        try {
+            var queueUrl = local.getQueueUrl("orders").getQueueUrl();
+            var startTime = System.nanoTime();
+            Assertions.assertTrue(local.receiveMessage(new ReceiveMessageRequest(queueUrl).withWaitTimeSeconds(1))
+                    .getMessages().isEmpty());
+            Assertions.assertTrue(Duration.ofNanos(System.nanoTime() - startTime).toMillis() >= 900);
+
+            // messages sent through the template are received too
+            new Thread(() -> template.convertAndSend("orders", "later")).start();
+            var received = local.receiveMessage(new ReceiveMessageRequest(queueUrl).withWaitTimeSeconds(5))
+                    .getMessages();
+            Assertions.assertEquals("later", received.get(0).getBody());
+        } finally {
+            template.destroy();
+        }
+    }
+
+    @Test
+    void asyncReceive() throws InterruptedException, ExecutionException, TimeoutException {
+        var local = new InMemoryAwsSqsClient();
+        var template = new InMemoryQueueMessagingTemplate(local);
+        try {
+            var queueUrl = local.getQueueUrl("orders").getQueueUrl();
+            local.sendMessage(queueUrl, "now");
+
+            // available right away, so completed on the calling thread
+            var handlerThread = new AtomicReference<Thread>();
+            var immediate = local.receiveMessageAsync(new ReceiveMessageRequest(queueUrl).withWaitTimeSeconds(20),
+                    new AsyncHandler<>() {
+                        @Override
+                        public void onError(final Exception exception) {
+                            Assertions.fail(exception);
+                        }
+
+                        @Override
+                        public void onSuccess(final ReceiveMessageRequest request,
+                                              final ReceiveMessageResult result) {
+                            handlerThread.set(Thread.currentThread());
+                        }
+                    });
+            Assertions.assertTrue(immediate.isDone());
+            Assertions.assertEquals("now", immediate.get().getMessages().get(0).getBody());
+            Assertions.assertSame(Thread.currentThread(), handlerThread.get());
+
+            // many parked pollers don't take a thread each
+            var threadsBefore = Thread.activeCount();
+            var parked = IntStream.range(0, 1000)
+                    .mapToObj(i -> local.receiveMessageAsync(new ReceiveMessageRequest(queueUrl)
+                            .withWaitTimeSeconds(20)))
+                    .collect(Collectors.toList());
+            Assertions.assertTrue(Thread.activeCount() < threadsBefore + 10);
+            Assertions.assertTrue(parked.stream().noneMatch(Future::isDone));
+
+            // parked pollers are served in arrival order
+            for (var i = 0; i < 10; i++) {
+                local.sendMessage(queueUrl, "later" + i);
+            }
+            for (var i = 0; i < 10; i++) {
+                Assertions.assertEquals("later" + i,
+                        parked.get(i).get(5, TimeUnit.SECONDS).getMessages().get(0).getBody());
+            }
+            Assertions.assertFalse(parked.get(10).isDone());
+        } finally {
+            template.destroy();
+            local.shutdown();
+        }
+    }
+
+    @Test
+    void asyncReceiveAfterShutdown() {
+        var local = new InMemoryAwsSqsClient();
+        var template = new InMemoryQueueMessagingTemplate(local);
+        try {
+            var queueUrl = local.getQueueUrl("orders").getQueueUrl();
+            local.shutdown();
+            var rejected = local.receiveMessageAsync(new ReceiveMessageRequest(queueUrl).withWaitTimeSeconds(1));
+            var exception = Assertions.assertThrows(ExecutionException.class, rejected::get);
+            Assertions.assertInstanceOf(RejectedExecutionException.class, exception.getCause());
+
+            // nothing was left parked to swallow the next message
+            local.sendMessage(queueUrl, "body");
+            Assertions.assertEquals(1, template.getStatistics("orders").getVisible());
+            Assertions.assertEquals("body", local.receiveMessage(queueUrl).getMessages().get(0).getBody());
+        } finally {
+            template.destroy();
+        }
+    }
+
+    @Test
+    void asyncReceiveWaitsForDelayedMessages() throws InterruptedException, ExecutionException, TimeoutException {
+        var local = new InMemoryAwsSqsClient();
+        var template = new InMemoryQueueMessagingTemplate(local);
+        try {
+            var queueUrl = local.getQueueUrl("orders").getQueueUrl();
+            var empty = local.receiveMessageAsync(new ReceiveMessageRequest(queueUrl).withWaitTimeSeconds(1));
+            Assertions.assertTrue(empty.get(5, TimeUnit.SECONDS).getMessages().isEmpty());
+
+            var waiting = local.receiveMessageAsync(new ReceiveMessageRequest(queueUrl).withWaitTimeSeconds(5));
+            local.sendMessage(new SendMessageRequest(queueUrl, "delayed").withDelaySeconds(1));
+            Assertions.assertFalse(waiting.isDone());
+            Assertions.assertEquals("delayed", waiting.get(5, TimeUnit.SECONDS).getMessages().get(0).getBody());
+
+            var failed = local.receiveMessageAsync(new ReceiveMessageRequest(queueUrl).withMaxNumberOfMessages(0));
+            var exception = Assertions.assertThrows(ExecutionException.class, failed::get);
+            Assertions.assertInstanceOf(AmazonSQSException.class, exception.getCause());
+        } finally {
+            template.destroy();
+            local.shutdown();
+        }
+    }
 }
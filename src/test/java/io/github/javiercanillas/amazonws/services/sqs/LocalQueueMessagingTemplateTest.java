@@ -1,14 +1,22 @@
 package io.github.javiercanillas.amazonws.services.sqs;
 
 import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.model.AmazonSQSException;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
 import io.awspring.cloud.messaging.core.QueueMessageChannel;
+import io.awspring.cloud.messaging.listener.Acknowledgment;
 import io.awspring.cloud.messaging.listener.SqsMessageDeletionPolicy;
 import io.awspring.cloud.messaging.listener.annotation.SqsListener;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -16,12 +24,26 @@ import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.MessagingException;
 import org.springframework.messaging.core.MessagePostProcessor;
+import org.springframework.messaging.handler.annotation.Payload;
 
+import java.io.IOException;
 import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @ExtendWith(MockitoExtension.class)
 class LocalQueueMessagingTemplateTest {
@@ -30,6 +52,8 @@ class LocalQueueMessagingTemplateTest {
 
     private InMemoryQueueMessagingTemplate template;
 
+    private InMemoryAwsSqsClient client;
+
     @Mock
     private AmazonSQSAsync amazonSqs;
 
@@ -46,7 +70,8 @@ class LocalQueueMessagingTemplateTest {
     void setup() {
         Mockito.lenient().doReturn(messageHeaders).when(message).getHeaders();
         this.bean = new Bean();
-        this.template = new InMemoryQueueMessagingTemplate(new InMemoryAwsSqsClient());
+        this.client = new InMemoryAwsSqsClient();
+        this.template = new InMemoryQueueMessagingTemplate(this.client);
     }
 
     @AfterEach
@@ -65,6 +90,57 @@ class LocalQueueMessagingTemplateTest {
         Assertions.assertTrue(this.template.register(this.bean, getBeanConsume1(), Set.of("consume1"), SqsMessageDeletionPolicy.NO_REDRIVE));
     }
 
+    @Test
+    void lazyConsumers() throws InterruptedException {
+        // sent before anybody listens, so the queue is created without workers
+        this.template.convertAndSend("consume1", "early");
+        Assertions.assertEquals(0, this.template.getStatistics("consume1").getWorkers());
+
+        this.template.register(this.bean, getBeanConsume1(), Set.of("consume1"), SqsMessageDeletionPolicy.NO_REDRIVE);
+        Assertions.assertTrue(this.template.awaitIdle("consume1", Duration.ofSeconds(1)));
+        Assertions.assertEquals("early", this.bean.message.getPayload());
+
+        // workers stop along with the last listener, leaving new messages in the queue
+        this.template.unregister(this.bean, getBeanConsume1(), Set.of("consume1"));
+        final var deadline = System.nanoTime() + Duration.ofSeconds(1).toNanos();
+        while (this.template.getStatistics("consume1").getWorkers() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10L);
+        }
+        Assertions.assertEquals(0, this.template.getStatistics("consume1").getWorkers());
+        this.template.convertAndSend("consume1", "late");
+        Assertions.assertFalse(this.template.awaitIdle("consume1", Duration.ofMillis(50)));
+
+        this.template.register(this.bean, getBeanConsume1(), Set.of("consume1"), SqsMessageDeletionPolicy.NO_REDRIVE);
+        Assertions.assertTrue(this.template.awaitIdle("consume1", Duration.ofSeconds(1)));
+        Assertions.assertEquals("late", this.bean.message.getPayload());
+    }
+
+    @Test
+    void concurrentRegistrations() throws InterruptedException {
+        final var start = new CountDownLatch(1);
+        final var threads = new ArrayList<Thread>();
+        for (var i = 0; i < 8; i++) {
+            final var bean = new Bean();
+            final var thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                this.template.register(bean, getBeanConsume1(), Set.of("consume1"),
+                        SqsMessageDeletionPolicy.NO_REDRIVE);
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (final var thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(1, this.template.getStatistics("consume1").getWorkers());
+        Assertions.assertEquals(8, this.template.getListenerStatistics("consume1").size());
+    }
+
     @Test
     void receiveNoQueueFound() {
         Assertions.assertThrows(MessagingException.class, () -> this.template.receive("unknown"));
@@ -150,6 +226,680 @@ class LocalQueueMessagingTemplateTest {
         Assertions.assertEquals(payload, this.template.receiveAndConvert("testQueue", TestPayload.class));
     }
 
+    @Test
+    void awaitIdle() throws InterruptedException {
+        Assertions.assertThrows(MessagingException.class, () -> this.template.awaitIdle("unknown", Duration.ZERO));
+
+        this.template.register(this.bean, getBeanConsume1(), Set.of("consume1"), SqsMessageDeletionPolicy.NO_REDRIVE);
+        this.template.convertAndSend("consume1", "payload");
+        Assertions.assertTrue(this.template.awaitIdle("consume1", Duration.ofSeconds(1)));
+        Assertions.assertEquals("payload", this.bean.message.getPayload());
+
+        this.template.convertAndSend("pending", "payload");
+        Assertions.assertFalse(this.template.awaitAllIdle(Duration.ofMillis(50)));
+        Assertions.assertEquals("payload", this.template.receiveAndConvert("pending", String.class));
+        Assertions.assertTrue(this.template.awaitAllIdle(Duration.ofSeconds(1)));
+    }
+
+    @Test
+    void purgeAndReset() {
+        Assertions.assertThrows(MessagingException.class, () -> this.template.purge("unknown"));
+
+        this.template.convertAndSend("queue1", "payload");
+        this.template.convertAndSend("queue1", "payload");
+        Assertions.assertEquals(2, this.template.purge("queue1"));
+        Assertions.assertNull(this.template.receive("queue1"));
+
+        this.template.convertAndSend("queue1", "payload");
+        this.template.convertAndSend("queue2", "payload");
+        this.template.convertAndSend("payload");
+        Assertions.assertEquals(3, this.template.purgeAll());
+
+        this.template.convertAndSend("queue1", "payload");
+        this.client.getHandles().put("handle", 10);
+        this.template.reset();
+        Assertions.assertNull(this.template.receive("queue1"));
+        Assertions.assertTrue(this.client.getHandles().isEmpty());
+    }
+
+    @Test
+    void resetDiscardsFailingInFlightMessages() throws InterruptedException {
+        final var deferredBean = new DeferredBean();
+        deferredBean.received = new CountDownLatch(1);
+        this.template.register(deferredBean, getDeferredBeanConsume(), Set.of("deferred"),
+                SqsMessageDeletionPolicy.ON_SUCCESS);
+        this.template.convertAndSend("deferred", "in-flight");
+        Assertions.assertTrue(deferredBean.received.await(1, TimeUnit.SECONDS));
+
+        this.template.reset();
+        deferredBean.results.get(0).completeExceptionally(new IllegalStateException("failed"));
+
+        // given back to a queue reset meanwhile, so it is discarded instead of showing up in the next test
+        Assertions.assertTrue(this.template.awaitIdle("deferred", Duration.ofSeconds(1)));
+        final var statistics = this.template.getStatistics("deferred");
+        Assertions.assertEquals(0, statistics.getOutstanding());
+        Assertions.assertEquals(0, statistics.getVisible() + statistics.getDelayed());
+        Assertions.assertEquals(1L, statistics.getPurged());
+        Assertions.assertEquals(1, deferredBean.results.size());
+    }
+
+    @Test
+    void lifecycleWithDrain() {
+        final var properties = new InMemoryQueueMessagingProperties();
+        properties.getShutdown().setDrain(true);
+        this.template.destroy();
+        this.template = new InMemoryQueueMessagingTemplate(this.client, properties);
+        this.template.start();
+        Assertions.assertTrue(this.template.isRunning());
+
+        final var slowBean = new SlowBean();
+        this.template.register(slowBean, getSlowBeanConsume(), Set.of("slow"), SqsMessageDeletionPolicy.NO_REDRIVE);
+        for (var i = 0; i < 5; i++) {
+            this.template.convertAndSend("slow", "payload" + i);
+        }
+        this.template.stop();
+
+        Assertions.assertFalse(this.template.isRunning());
+        Assertions.assertEquals(5, slowBean.consumed);
+        Assertions.assertFalse(slowBean.consumerThread.isAlive());
+        Assertions.assertThrows(MessagingException.class, () -> this.template.convertAndSend("slow", "payload"));
+
+        this.template.start();
+        this.template.convertAndSend("slow", "payload");
+        Assertions.assertDoesNotThrow(() -> this.template.awaitIdle("slow", Duration.ofSeconds(1)));
+        Assertions.assertEquals(6, slowBean.consumed);
+    }
+
+    @Test
+    void queuesCreatedWhileStopped() {
+        Assertions.assertTrue(this.template.isRunning());
+        this.template.stop();
+
+        final var slowBean = new SlowBean();
+        this.template.register(slowBean, getSlowBeanConsume(), Set.of("late"), SqsMessageDeletionPolicy.NO_REDRIVE);
+        Assertions.assertEquals(0, this.template.getStatistics("late").getWorkers());
+
+        this.template.start();
+        Assertions.assertEquals(1, this.template.getStatistics("late").getWorkers());
+        this.template.convertAndSend("late", "payload");
+        Assertions.assertDoesNotThrow(() -> this.template.awaitIdle("late", Duration.ofSeconds(1)));
+        Assertions.assertEquals(1, slowBean.consumed);
+    }
+
+    @Test
+    void stopWithoutDrain() {
+        final var slowBean = new SlowBean();
+        this.template.register(slowBean, getSlowBeanConsume(), Set.of("slow"), SqsMessageDeletionPolicy.NO_REDRIVE);
+        for (var i = 0; i < 50; i++) {
+            this.template.convertAndSend("slow", "payload" + i);
+        }
+        // sending is faster than starting the consumer thread, so wait for it to be busy
+        final var deadline = System.nanoTime() + Duration.ofSeconds(1).toNanos();
+        while (slowBean.consumerThread == null && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        this.template.stop();
+
+        Assertions.assertTrue(slowBean.consumed < 50);
+        Assertions.assertFalse(slowBean.consumerThread.isAlive());
+    }
+
+    @Test
+    void retentionAndStatistics() throws InterruptedException {
+        final var properties = new InMemoryQueueMessagingProperties();
+        final var queueProperties = new InMemoryQueueMessagingProperties.Queue();
+        queueProperties.setRetentionPeriod(Duration.ofMillis(1));
+        properties.getQueues().put("shortLived", queueProperties);
+        properties.setExpirationInterval(Duration.ofMillis(100));
+        this.template.destroy();
+        this.template = new InMemoryQueueMessagingTemplate(this.client, properties);
+
+        Assertions.assertThrows(MessagingException.class, () -> this.template.getStatistics("shortLived"));
+        this.template.convertAndSend("shortLived", "payload");
+        this.template.convertAndSend("longLived", "payload");
+        Assertions.assertEquals(1, this.template.getStatistics("shortLived").getVisible());
+
+        Assertions.assertTrue(this.template.awaitIdle("shortLived", Duration.ofSeconds(3)));
+        final var statistics = this.template.getStatistics();
+        Assertions.assertEquals(1, statistics.get("shortLived").getExpired());
+        Assertions.assertEquals(0, statistics.get("longLived").getExpired());
+        Assertions.assertEquals(1, statistics.get("longLived").getOutstanding());
+    }
+
+    @Test
+    void deferredOutcomes() throws InterruptedException {
+        final var properties = new InMemoryQueueMessagingProperties();
+        properties.getDefaults().setVisibilityTimeout(Duration.ofMillis(200));
+        this.template.destroy();
+        this.template = new InMemoryQueueMessagingTemplate(this.client, properties);
+
+        final var deferredBean = new DeferredBean();
+        this.template.register(deferredBean, getDeferredBeanConsume(), Set.of("deferred"),
+                SqsMessageDeletionPolicy.ON_SUCCESS);
+        for (var i = 0; i < 3; i++) {
+            this.template.convertAndSend("deferred", "payload" + i);
+        }
+        // the consumer thread doesn't wait for pending outcomes
+        Assertions.assertTrue(deferredBean.received.await(1, TimeUnit.SECONDS));
+        Assertions.assertEquals(3, this.template.getStatistics("deferred").getInFlight());
+
+        deferredBean.results.forEach(result -> result.complete(null));
+        Assertions.assertTrue(this.template.awaitIdle("deferred", Duration.ofSeconds(1)));
+
+        // never completed, so put back once the visibility timeout elapses
+        deferredBean.results.clear();
+        deferredBean.received = new CountDownLatch(2);
+        this.template.convertAndSend("deferred", "forgotten");
+        Assertions.assertTrue(deferredBean.received.await(2, TimeUnit.SECONDS));
+        deferredBean.results.forEach(result -> result.complete(null));
+        Assertions.assertTrue(this.template.awaitIdle("deferred", Duration.ofSeconds(1)));
+    }
+
+    @Test
+    void acknowledgmentsDontHoldUpTheQueue() throws InterruptedException {
+        final var properties = new InMemoryQueueMessagingProperties();
+        properties.getDefaults().setMaxInFlight(1);
+        this.template.destroy();
+        this.template = new InMemoryQueueMessagingTemplate(this.client, properties);
+
+        final var acknowledgingBean = new AcknowledgingBean();
+        this.template.register(acknowledgingBean, getAcknowledgingBeanConsume(), Set.of("acknowledged"),
+                SqsMessageDeletionPolicy.NEVER);
+        for (var i = 0; i < 3; i++) {
+            this.template.convertAndSend("acknowledged", "payload" + i);
+        }
+        // the listener returned without acknowledging, which doesn't keep the next messages from being handed out
+        Assertions.assertTrue(acknowledgingBean.received.await(1, TimeUnit.SECONDS));
+        Assertions.assertEquals(3, this.template.getStatistics("acknowledged").getInFlight());
+
+        acknowledgingBean.acknowledgments.forEach(Acknowledgment::acknowledge);
+        Assertions.assertTrue(this.template.awaitIdle("acknowledged", Duration.ofSeconds(1)));
+    }
+
+    @Test
+    void batchListener() throws InterruptedException {
+        final var properties = new InMemoryQueueMessagingProperties();
+        properties.getDefaults().setBatchSize(4);
+        this.template.destroy();
+        this.template = new InMemoryQueueMessagingTemplate(this.client, properties);
+
+        final var batchBean = new BatchBean();
+        this.template.register(batchBean, getBatchBeanConsume(), Set.of("batch"), SqsMessageDeletionPolicy.ON_SUCCESS);
+        for (var i = 0; i < 10; i++) {
+            this.template.convertAndSend("batch", "payload" + i);
+        }
+        Assertions.assertTrue(this.template.awaitIdle("batch", Duration.ofSeconds(2)));
+
+        Assertions.assertTrue(batchBean.batches.stream().allMatch(batch -> batch.size() <= 4));
+        Assertions.assertTrue(batchBean.batches.stream().anyMatch(batch -> batch.size() > 1));
+        // only the failed message of each batch was handed out again
+        final var received = batchBean.batches.stream().flatMap(List::stream).collect(Collectors.toList());
+        Assertions.assertEquals(10, Set.copyOf(received).size());
+        Assertions.assertEquals(10 + batchBean.failedOnce.size(), received.size());
+    }
+
+    @Test
+    void elasticWorkers() throws InterruptedException {
+        final var properties = new InMemoryQueueMessagingProperties();
+        properties.setScalingInterval(Duration.ofMillis(20));
+        final var workers = properties.getDefaults().getWorkers();
+        workers.setMax(4);
+        workers.setBacklogPerWorker(5);
+        workers.setIdleTimeout(Duration.ofMillis(200));
+        this.template.destroy();
+        this.template = new InMemoryQueueMessagingTemplate(this.client, properties);
+
+        final var slowBean = new SlowBean();
+        this.template.register(slowBean, getSlowBeanConsume(), Set.of("slow"), SqsMessageDeletionPolicy.NO_REDRIVE);
+        Assertions.assertEquals(1, this.template.getStatistics("slow").getWorkers());
+        for (var i = 0; i < 200; i++) {
+            this.template.convertAndSend("slow", "payload" + i);
+        }
+        Assertions.assertTrue(this.template.awaitIdle("slow", Duration.ofSeconds(5)));
+        Assertions.assertEquals(4, slowBean.consumerThreads.size());
+
+        // extra workers retire once idle
+        final var deadline = System.nanoTime() + Duration.ofSeconds(2).toNanos();
+        while (this.template.getStatistics("slow").getWorkers() > 1 && System.nanoTime() < deadline) {
+            Thread.sleep(20L);
+        }
+        Assertions.assertEquals(1, this.template.getStatistics("slow").getWorkers());
+    }
+
+    @Test
+    void flightRecorderEvents() throws IOException, InterruptedException {
+        final List<RecordedEvent> events;
+        try (var recording = new Recording()) {
+            recording.enable(FlightRecorderEvents.MessageEnqueued.class);
+            recording.enable(FlightRecorderEvents.MessageDelivered.class);
+            recording.enable(FlightRecorderEvents.ListenerInvoked.class);
+            recording.start();
+
+            this.template.register(this.bean, getBeanConsume1(), Set.of("consume1"),
+                    SqsMessageDeletionPolicy.NO_REDRIVE);
+            this.template.convertAndSend("consume1", "payload");
+            Assertions.assertTrue(this.template.awaitIdle("consume1", Duration.ofSeconds(1)));
+            this.template.convertAndSend("manual", "payload");
+            Assertions.assertEquals("payload", this.template.receiveAndConvert("manual", String.class));
+
+            recording.stop();
+            final var file = Files.createTempFile("in-memory-sqs", ".jfr");
+            try {
+                recording.dump(file);
+                events = RecordingFile.readAllEvents(file);
+            } finally {
+                Files.delete(file);
+            }
+        }
+
+        final var enqueued = events.stream()
+                .filter(event -> event.getEventType().getName().endsWith("MessageEnqueued"))
+                .collect(Collectors.toList());
+        Assertions.assertEquals(Set.of("consume1", "manual"),
+                enqueued.stream().map(event -> event.getString("queue")).collect(Collectors.toSet()));
+        Assertions.assertEquals(2, events.stream()
+                .filter(event -> event.getEventType().getName().endsWith("MessageDelivered"))
+                .count());
+        final var invoked = events.stream()
+                .filter(event -> event.getEventType().getName().endsWith("ListenerInvoked"))
+                .findFirst().orElseThrow();
+        Assertions.assertEquals("Bean.consume01", invoked.getString("listener"));
+        Assertions.assertEquals("NO_REDRIVE", invoked.getString("deletionPolicy"));
+        Assertions.assertEquals(1, invoked.getInt("removed"));
+    }
+
+    @Test
+    void listenerAccounting() throws InterruptedException {
+        final var properties = new InMemoryQueueMessagingProperties();
+        final var accounted = new InMemoryQueueMessagingProperties.Queue();
+        accounted.setAccounting(true);
+        properties.getQueues().put("batch", accounted);
+        this.template.destroy();
+        this.template = new InMemoryQueueMessagingTemplate(this.client, properties);
+
+        this.template.register(this.bean, getBeanConsume1(), Set.of("consume1"), SqsMessageDeletionPolicy.NO_REDRIVE);
+        final var batchBean = new BatchBean();
+        this.template.register(batchBean, getBatchBeanConsume(), Set.of("batch"), SqsMessageDeletionPolicy.ON_SUCCESS);
+        for (var i = 0; i < 5; i++) {
+            this.template.convertAndSend("consume1", "payload" + i);
+            this.template.convertAndSend("batch", "payload" + i);
+        }
+        Assertions.assertTrue(this.template.awaitAllIdle(Duration.ofSeconds(2)));
+
+        final var plain = this.template.getListenerStatistics("consume1").get(0);
+        Assertions.assertEquals("Bean.consume01", plain.getListener());
+        Assertions.assertEquals(5, plain.getInvocations());
+        Assertions.assertEquals(0, plain.getSampled());
+        Assertions.assertEquals(0, plain.getAllocatedBytes());
+
+        final var sampled = this.template.getListenerStatistics().get("batch").get(0);
+        Assertions.assertEquals(batchBean.batches.size(), sampled.getInvocations());
+        Assertions.assertEquals(sampled.getInvocations(), sampled.getSampled());
+        // every batch is copied, and the failed ones throw
+        Assertions.assertTrue(sampled.getAllocatedBytes() > 0);
+        Assertions.assertFalse(sampled.getCpuTime().isNegative());
+    }
+
+    @Test
+    void stuckListeners() throws InterruptedException {
+        final var properties = new InMemoryQueueMessagingProperties();
+        Assertions.assertTrue(properties.getWatchdog().getThreshold().isZero(), "disabled by default");
+        properties.getWatchdog().setThreshold(Duration.ofMillis(100));
+        properties.getWatchdog().setInterval(Duration.ofMillis(20));
+        this.template.destroy();
+        this.template = new InMemoryQueueMessagingTemplate(this.client, properties);
+
+        final var blockingBean = new BlockingBean();
+        this.template.register(blockingBean, getBlockingBeanConsume(), Set.of("blocking"),
+                SqsMessageDeletionPolicy.ON_SUCCESS);
+        this.template.convertAndSend("blocking", "payload");
+        Assertions.assertTrue(blockingBean.started.await(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(this.template.getStuckListeners().isEmpty());
+
+        Thread.sleep(150L);
+        final var stuckListeners = this.template.getStuckListeners();
+        Assertions.assertEquals(1, stuckListeners.size());
+        final var stuck = stuckListeners.get(0);
+        Assertions.assertEquals("blocking", stuck.getQueue());
+        Assertions.assertEquals("BlockingBean.consume", stuck.getListener());
+        Assertions.assertTrue(stuck.getDuration().toMillis() >= 100);
+        Assertions.assertTrue(stuck.getStackTrace().stream()
+                .anyMatch(element -> element.getMethodName().equals("consume")));
+        // the stack is captured once, when first found
+        Assertions.assertSame(stuck.getStackTrace(), this.template.getStuckListeners().get(0).getStackTrace());
+
+        blockingBean.release.countDown();
+        Assertions.assertTrue(this.template.awaitIdle("blocking", Duration.ofSeconds(1)));
+        Assertions.assertTrue(this.template.getStuckListeners().isEmpty());
+    }
+
+    private Method getBlockingBeanConsume() {
+        return Arrays.stream(BlockingBean.class.getMethods())
+                .filter(method -> method.getName().equalsIgnoreCase("consume"))
+                .findFirst().orElseThrow();
+    }
+
+    private Method getBatchBeanConsume() {
+        return Arrays.stream(BatchBean.class.getMethods())
+                .filter(method -> method.getName().equalsIgnoreCase("consume"))
+                .findFirst().orElseThrow();
+    }
+
+    private Method getAcknowledgingBeanConsume() {
+        return Arrays.stream(AcknowledgingBean.class.getMethods())
+                .filter(method -> method.getName().equalsIgnoreCase("consume"))
+                .findFirst().orElseThrow();
+    }
+
+    private Method getDeferredBeanConsume() {
+        return Arrays.stream(DeferredBean.class.getMethods())
+                .filter(method -> method.getName().equalsIgnoreCase("consume"))
+                .findFirst().orElseThrow();
+    }
+
+    private Method getSlowBeanConsume() {
+        return Arrays.stream(SlowBean.class.getMethods())
+                .filter(method -> method.getName().equalsIgnoreCase("consume"))
+                .findFirst().orElseThrow();
+    }
+
+    @Test
+    void serialization() throws InterruptedException {
+        final var properties = new InMemoryQueueMessagingProperties();
+        properties.getDefaults().setSerialization(true);
+        this.template.destroy();
+        this.template = new InMemoryQueueMessagingTemplate(this.client, properties);
+
+        final var orderBean = new OrderBean();
+        this.template.register(orderBean, getOrderBeanConsume(), Set.of("orders"), SqsMessageDeletionPolicy.ON_SUCCESS);
+        final var order = new Order();
+        order.id = "order-1";
+        order.items = new ArrayList<>(List.of("book"));
+        this.template.convertAndSend("orders", order);
+        // changed once sent, which the listener doesn't see
+        order.items.add("pen");
+        Assertions.assertTrue(this.template.awaitIdle("orders", Duration.ofSeconds(1)));
+        Assertions.assertNotSame(order, orderBean.order);
+        Assertions.assertEquals("order-1", orderBean.order.id);
+        Assertions.assertEquals(List.of("book"), orderBean.order.items);
+
+        this.template.convertAndSend("unheard", order);
+        Assertions.assertEquals(String.class, this.template.peek("unheard", 1).get(0).getPayload().getClass());
+        final var received = this.template.receiveAndConvert("unheard", Order.class);
+        Assertions.assertEquals(List.of("book", "pen"), received.items);
+    }
+
+    @Test
+    void compression() throws InterruptedException {
+        final var properties = new InMemoryQueueMessagingProperties();
+        properties.getDefaults().getCompression().setEnabled(true);
+        properties.getDefaults().getCompression().setThreshold(1024);
+        this.template.destroy();
+        this.template = new InMemoryQueueMessagingTemplate(this.client, properties);
+
+        final var document = "{\"items\":[" + "{\"name\":\"book\",\"price\":10},".repeat(200) + "{}]}";
+        this.template.convertAndSend("consume1", document);
+        this.template.convertAndSend("consume1", "small");
+        var statistics = this.template.getStatistics("consume1");
+        Assertions.assertEquals(1L, statistics.getCompressed());
+        Assertions.assertEquals(document.length(), statistics.getUncompressedBytes());
+        Assertions.assertTrue(statistics.getCompressionRatio() > 5d);
+        // expanded on delivery only
+        Assertions.assertEquals(Duration.ZERO, statistics.getDecompressionTime());
+        Assertions.assertEquals(List.of(document, "small"), this.template.peek("consume1", 2).stream()
+                .map(Message::getPayload)
+                .collect(Collectors.toList()));
+
+        this.template.register(this.bean, getBeanConsume1(), Set.of("consume1"), SqsMessageDeletionPolicy.NO_REDRIVE);
+        Assertions.assertTrue(this.template.awaitIdle("consume1", Duration.ofSeconds(1)));
+        Assertions.assertEquals("small", this.bean.message.getPayload());
+        statistics = this.template.getStatistics("consume1");
+        Assertions.assertFalse(statistics.getCompressionTime().isNegative());
+        Assertions.assertEquals(0, statistics.getOutstanding());
+    }
+
+    @Test
+    void messageSize() {
+        // two, three and four bytes per character in UTF-8
+        this.template.convertAndSend("sized", "\u00e9\u20ac\ud83d\ude00", Map.of("kind", "emoji"));
+        final var headersSize = "kind".length() + "emoji".length() + "ReceiptHandle".length() + 36;
+        var statistics = this.template.getStatistics("sized");
+        Assertions.assertEquals(9 + headersSize, statistics.getHeldBytes());
+        Assertions.assertEquals(9 + headersSize, statistics.getSentBytes());
+        Assertions.assertEquals(statistics.getHeldBytes(), this.template.getHeldBytes());
+
+        final var tooLong = "x".repeat(256 * 1024);
+        Assertions.assertThrows(MessageTooLongException.class, () -> this.template.convertAndSend("sized", tooLong));
+        final var exception = Assertions.assertThrows(AmazonSQSException.class,
+                () -> this.client.sendMessage("sized", tooLong));
+        Assertions.assertEquals("InvalidParameterValue", exception.getErrorCode());
+
+        Assertions.assertNotNull(this.template.receive("sized"));
+        statistics = this.template.getStatistics("sized");
+        Assertions.assertEquals(0L, statistics.getHeldBytes());
+        Assertions.assertEquals(9 + headersSize, statistics.getSentBytes());
+    }
+
+    @Test
+    void sharedQueues(@TempDir final Path directory) throws InterruptedException {
+        // each template maps the files on its own, as separate processes do
+        final var producer = new InMemoryQueueMessagingTemplate(new InMemoryAwsSqsClient(), sharing(directory, "a"));
+        final var consumer = new InMemoryQueueMessagingTemplate(new InMemoryAwsSqsClient(), sharing(directory, "a"));
+        final var other = new InMemoryQueueMessagingTemplate(new InMemoryAwsSqsClient(), sharing(directory, "b"));
+        try {
+            producer.start();
+            consumer.start();
+            other.start();
+            consumer.register(this.bean, getBeanConsume1(), Set.of("consume1"), SqsMessageDeletionPolicy.NO_REDRIVE);
+            other.getOrCreateQueue("consume1");
+            // groups join once they consume, and only get what is sent from then on
+            Assertions.assertNull(other.receive("consume1"));
+            producer.convertAndSend("consume1", "shared", Map.of("kind", "greeting", "attempt", 1));
+            // what other's group didn't take yet keeps it busy, while the producer never consumed
+            Assertions.assertFalse(other.awaitAllIdle(Duration.ofMillis(10L)));
+            Assertions.assertTrue(producer.awaitAllIdle(Duration.ZERO));
+
+            final var deadline = System.nanoTime() + Duration.ofSeconds(1).toNanos();
+            while (this.bean.message == null && System.nanoTime() < deadline) {
+                Thread.sleep(1L);
+            }
+            Assertions.assertNotNull(this.bean.message);
+            Assertions.assertEquals("shared", this.bean.message.getPayload());
+            Assertions.assertEquals("greeting", this.bean.message.getHeaders().get("kind"));
+            Assertions.assertEquals(1, this.bean.message.getHeaders().get("attempt"));
+            // nothing is left behind for the producer, while another consumer group gets its own copy
+            Assertions.assertNull(producer.receive("consume1"));
+            Assertions.assertEquals("shared", other.receive("consume1").getPayload());
+            Assertions.assertNull(other.receive("consume1"));
+
+            Assertions.assertThrows(MessagingException.class,
+                    () -> producer.convertAndSend("consume1", new Object()));
+        } finally {
+            producer.destroy();
+            consumer.destroy();
+            other.destroy();
+        }
+    }
+
+    @Test
+    void recordAndReplay(@TempDir final Path directory) throws IOException, InterruptedException {
+        final var file = directory.resolve("traffic.rec");
+        try (var recorder = this.template.record(file)) {
+            Assertions.assertThrows(IllegalStateException.class, () -> this.template.record(file));
+            this.template.convertAndSend("consume1", "recorded", Map.of("kind", "greeting", "attempt", 1));
+            for (var i = 0; i < 5; i++) {
+                this.template.convertAndSend("slow", "payload" + i);
+            }
+            Assertions.assertEquals(6L, recorder.getRecorded());
+        }
+        // nothing is recorded once closed
+        this.template.convertAndSend("slow", "ignored");
+        Assertions.assertTrue(Files.size(file) > Long.BYTES);
+
+        final var replaying = new InMemoryQueueMessagingTemplate(new InMemoryAwsSqsClient());
+        try {
+            final var slowBean = new SlowBean();
+            replaying.register(this.bean, getBeanConsume1(), Set.of("consume1"), SqsMessageDeletionPolicy.NO_REDRIVE);
+            replaying.register(slowBean, getSlowBeanConsume(), Set.of("slow"), SqsMessageDeletionPolicy.NO_REDRIVE);
+            final var report = new TrafficReplayer(replaying).replay(file, TrafficReplayer.AS_FAST_AS_POSSIBLE,
+                    Duration.ofSeconds(5));
+
+            Assertions.assertEquals(6L, report.getSent());
+            Assertions.assertEquals(6L, report.getCompleted());
+            Assertions.assertEquals(5, slowBean.consumed);
+            Assertions.assertEquals("recorded", this.bean.message.getPayload());
+            Assertions.assertEquals("greeting", this.bean.message.getHeaders().get("kind"));
+            Assertions.assertEquals(1, this.bean.message.getHeaders().get("attempt"));
+            Assertions.assertTrue(report.getThroughput() > 0d);
+            Assertions.assertTrue(report.getLatencyP50().compareTo(report.getLatencyP99()) <= 0);
+            Assertions.assertTrue(report.getLatencyP99().compareTo(report.getLatencyMax()) <= 0);
+            // five slow messages handled one at a time, the last one waits for the others
+            Assertions.assertTrue(report.getLatencyMax().compareTo(Duration.ofMillis(30L)) >= 0);
+        } finally {
+            replaying.destroy();
+        }
+    }
+
+    @Test
+    void faults() throws InterruptedException {
+        final var outcomes = outcomesWithFaults(42L);
+        Assertions.assertEquals(outcomes, outcomesWithFaults(42L));
+        Assertions.assertNotEquals(outcomes, outcomesWithFaults(7L));
+        Assertions.assertTrue(outcomes.stream().anyMatch(outcome -> outcome.startsWith("throttled")));
+        final var delivered = outcomes.stream().filter(outcome -> outcome.startsWith("m")).collect(Collectors.toList());
+        Assertions.assertTrue(delivered.size() > delivered.stream().distinct().count(), "some are duplicated");
+        Assertions.assertNotEquals(delivered.stream().sorted(Comparator.comparingInt(
+                outcome -> Integer.parseInt(outcome.substring(1)))).collect(Collectors.toList()), delivered,
+                "some are reordered");
+
+        final var properties = new InMemoryQueueMessagingProperties();
+        properties.getDefaults().getFaults().setEnabled(true);
+        properties.getDefaults().getFaults().setThrottleRate(1d);
+        final var throttledClient = new InMemoryAwsSqsClient();
+        final var throttled = new InMemoryQueueMessagingTemplate(throttledClient, properties);
+        try {
+            final var exception = Assertions.assertThrows(AmazonSQSException.class,
+                    () -> throttledClient.sendMessage("throttled", "payload"));
+            Assertions.assertEquals("RequestThrottled", exception.getErrorCode());
+            Assertions.assertThrows(QueueThrottledException.class, () -> throttled.receive("throttled"));
+        } finally {
+            throttled.destroy();
+        }
+
+        // a batch is throttled as a whole, none of its entries is sent
+        properties.getDefaults().getFaults().setThrottleRate(0.5d);
+        final var batchClient = new InMemoryAwsSqsClient();
+        final var batches = new InMemoryQueueMessagingTemplate(batchClient, properties);
+        try {
+            final var request = new SendMessageBatchRequest().withQueueUrl("batches").withEntries(
+                    new SendMessageBatchRequestEntry("a", "payload"),
+                    new SendMessageBatchRequestEntry("b", "payload"),
+                    new SendMessageBatchRequestEntry("c", "payload"));
+            var rejected = 0;
+            for (var i = 0; i < 10; i++) {
+                try {
+                    Assertions.assertEquals(3, batchClient.sendMessageBatch(request).getSuccessful().size());
+                } catch (AmazonSQSException e) {
+                    Assertions.assertEquals("RequestThrottled", e.getErrorCode());
+                    rejected++;
+                }
+            }
+            Assertions.assertTrue(rejected > 0);
+            Assertions.assertEquals(3 * (10 - rejected), batches.getStatistics("batches").getOutstanding());
+        } finally {
+            batches.destroy();
+        }
+    }
+
+    @Test
+    void listenersDontChangeFaultOutcomes() throws InterruptedException {
+        final var alone = throttledSends(false);
+        Assertions.assertFalse(alone.isEmpty());
+        Assertions.assertEquals(alone, throttledSends(true));
+    }
+
+    /**
+     * Sends twenty messages through a queue throttling half the calls, with or without a listener taking them.
+     *
+     * @return the messages whose send was throttled
+     */
+    private List<Integer> throttledSends(final boolean listening) throws InterruptedException {
+        final var properties = new InMemoryQueueMessagingProperties();
+        final var faults = properties.getDefaults().getFaults();
+        faults.setEnabled(true);
+        faults.setThrottleRate(0.5d);
+        final var faulty = new InMemoryQueueMessagingTemplate(new InMemoryAwsSqsClient(), properties);
+        try {
+            faulty.start();
+            if (listening) {
+                faulty.register(this.bean, getBeanConsume1(), Set.of("consume1"), SqsMessageDeletionPolicy.NO_REDRIVE);
+            }
+            final var throttled = new ArrayList<Integer>();
+            for (var i = 0; i < 20; i++) {
+                try {
+                    faulty.convertAndSend("consume1", "m" + i);
+                } catch (QueueThrottledException e) {
+                    throttled.add(i);
+                }
+                // gives the workers time to poll in between
+                Thread.sleep(1L);
+            }
+            return throttled;
+        } finally {
+            faulty.destroy();
+        }
+    }
+
+    /**
+     * Sends twenty messages through a queue with faults and receives them back, telling what happened to each call.
+     */
+    private static List<String> outcomesWithFaults(final long seed) throws InterruptedException {
+        final var properties = new InMemoryQueueMessagingProperties();
+        final var faults = properties.getDefaults().getFaults();
+        faults.setEnabled(true);
+        faults.setSeed(seed);
+        faults.setThrottleRate(0.2d);
+        faults.setDuplicateRate(0.2d);
+        faults.setReorderRate(0.3d);
+        // a window much longer than the sends take, so that timing doesn't change the order delays elapse in
+        faults.setReorderWindow(Duration.ofMillis(200L));
+        faults.getReceiveLatency().setMin(Duration.ofMillis(1L));
+        final var faulty = new InMemoryQueueMessagingTemplate(new InMemoryAwsSqsClient(), properties);
+        try {
+            final var outcomes = new ArrayList<String>();
+            for (var i = 0; i < 20; i++) {
+                try {
+                    faulty.convertAndSend("faulty", "m" + i);
+                } catch (QueueThrottledException e) {
+                    outcomes.add("throttled m" + i);
+                }
+            }
+            // every reordered message is visible by now, in the order their delays elapsed
+            Thread.sleep(250L);
+            for (var i = 0; i < 100; i++) {
+                try {
+                    final var received = faulty.receive("faulty");
+                    if (received == null) {
+                        break;
+                    }
+                    outcomes.add((String) received.getPayload());
+                } catch (QueueThrottledException e) {
+                    outcomes.add("throttled receive");
+                }
+            }
+            return outcomes;
+        } finally {
+            faulty.destroy();
+        }
+    }
+
+    private static InMemoryQueueMessagingProperties sharing(final Path directory, final String consumerGroup) {
+        final var properties = new InMemoryQueueMessagingProperties();
+        properties.getShared().setDirectory(directory.toString());
+        properties.getShared().setConsumerGroup(consumerGroup);
+        return properties;
+    }
+
     private Method getBeanConsume1() {
         return Arrays.stream(Bean.class.getMethods())
                 .filter(method -> method.getName().equalsIgnoreCase("consume01"))
@@ -166,6 +916,96 @@ class LocalQueueMessagingTemplateTest {
         }
     }
 
+    private static class SlowBean {
+
+        public volatile int consumed;
+        public volatile Thread consumerThread;
+        public final Set<Thread> consumerThreads = ConcurrentHashMap.newKeySet();
+
+        @SqsListener("slow")
+        public void consume(final Message<String> message) throws InterruptedException {
+            this.consumerThread = Thread.currentThread();
+            this.consumerThreads.add(this.consumerThread);
+            Thread.sleep(10L);
+            this.consumed++;
+        }
+    }
+
+    private static class BlockingBean {
+
+        public final CountDownLatch started = new CountDownLatch(1);
+        public final CountDownLatch release = new CountDownLatch(1);
+
+        @SqsListener("blocking")
+        public void consume(final Message<String> message) throws InterruptedException {
+            this.started.countDown();
+            this.release.await();
+        }
+    }
+
+    private static class DeferredBean {
+
+        public final List<CompletableFuture<Void>> results = new CopyOnWriteArrayList<>();
+        public volatile CountDownLatch received = new CountDownLatch(3);
+
+        @SqsListener("deferred")
+        public CompletableFuture<Void> consume(final Message<String> message) {
+            final var result = new CompletableFuture<Void>();
+            this.results.add(result);
+            this.received.countDown();
+            return result;
+        }
+    }
+
+    private static class AcknowledgingBean {
+
+        public final List<Acknowledgment> acknowledgments = new CopyOnWriteArrayList<>();
+        public final CountDownLatch received = new CountDownLatch(3);
+
+        @SqsListener("acknowledged")
+        public void consume(final Message<String> message, final Acknowledgment acknowledgment) {
+            this.acknowledgments.add(acknowledgment);
+            this.received.countDown();
+        }
+    }
+
+    private static class BatchBean {
+
+        public final List<List<String>> batches = new CopyOnWriteArrayList<>();
+        private final Set<String> failedOnce = ConcurrentHashMap.newKeySet();
+
+        @SqsListener("batch")
+        public void consume(final List<String> payloads) {
+            this.batches.add(List.copyOf(payloads));
+            // the first message of each batch fails, but only the first time it is seen
+            if (this.failedOnce.add(payloads.get(0))) {
+                throw new BatchListenerFailedException("first message failed", Set.of(0));
+            }
+        }
+    }
+
+    private Method getOrderBeanConsume() {
+        return Arrays.stream(OrderBean.class.getMethods())
+                .filter(method -> method.getName().equals("consume"))
+                .findFirst().orElseThrow();
+    }
+
+    public static class Order {
+
+        public String id;
+        public List<String> items;
+    }
+
+    private static class OrderBean {
+
+        public volatile Order order;
+
+        @SqsListener("orders")
+        public void consume(@Payload final Order order) {
+            this.order = order;
+        }
+    }
+
     private class TestPayload {
 
         public final String content;
@@ -0,0 +1,57 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.support.GenericMessage;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+class PayloadConverterTest {
+
+    @Test
+    void remembersConverterPerType() {
+        final var first = Mockito.mock(MessageConverter.class);
+        final var second = Mockito.mock(MessageConverter.class);
+        final Message<?> serialized = new GenericMessage<>("42");
+        Mockito.doReturn(serialized).when(second).toMessage(ArgumentMatchers.eq(42), ArgumentMatchers.any());
+        Mockito.doReturn(42).when(second).fromMessage(serialized, Integer.class);
+        final var composite = new CompositeMessageConverter(List.of(first, second));
+        final var converter = new PayloadConverter(() -> composite);
+
+        Assertions.assertSame(serialized, converter.serialize(new GenericMessage<>(42)));
+        Assertions.assertSame(serialized, converter.serialize(new GenericMessage<>(42)));
+        Assertions.assertEquals(42, converter.deserialize(serialized, Integer.class));
+        Assertions.assertEquals(42, converter.deserialize(serialized, Integer.class));
+        // the first converter was only asked the first time
+        Mockito.verify(first).toMessage(ArgumentMatchers.any(), ArgumentMatchers.any(MessageHeaders.class));
+        Mockito.verify(first).fromMessage(serialized, Integer.class);
+        Mockito.verify(second, Mockito.times(2)).fromMessage(serialized, Integer.class);
+        // instances of the target type are handed as they are
+        Assertions.assertEquals("42", converter.deserialize(serialized, String.class));
+        Mockito.verifyNoMoreInteractions(first);
+    }
+
+    @Test
+    void forgetsReplacedConverter() {
+        final var first = Mockito.mock(MessageConverter.class);
+        final var second = Mockito.mock(MessageConverter.class);
+        final Message<?> serialized = new GenericMessage<>("42");
+        Mockito.doReturn(serialized).when(first).toMessage(ArgumentMatchers.eq(42), ArgumentMatchers.any());
+        final var current = new AtomicReference<>(first);
+        final var converter = new PayloadConverter(current::get);
+
+        Assertions.assertSame(serialized, converter.serialize(new GenericMessage<>(42)));
+        current.set(second);
+        final var message = new GenericMessage<>(42);
+        Assertions.assertThrows(MessageConversionException.class, () -> converter.serialize(message));
+        Assertions.assertThrows(MessageConversionException.class, () -> converter.deserialize(serialized, Long.class));
+    }
+}
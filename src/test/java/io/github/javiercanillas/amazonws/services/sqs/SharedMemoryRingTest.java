@@ -0,0 +1,165 @@
+package io.github.javiercanillas.amazonws.services.sqs;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+class SharedMemoryRingTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void offerAndPoll() throws IOException {
+        final var writer = open(1024, "a");
+        final var reader = open(1024, "a");
+        Assertions.assertNull(reader.poll());
+        Assertions.assertTrue(writer.offer(bytes("first")));
+        Assertions.assertTrue(writer.offer(bytes("second")));
+        Assertions.assertEquals("first", string(reader.poll()));
+        // both mappings share the offset of the group
+        Assertions.assertEquals("second", string(writer.poll()));
+        Assertions.assertNull(reader.poll());
+        Assertions.assertEquals(0L, reader.pending());
+    }
+
+    @Test
+    void wrapsAround() throws IOException {
+        final var ring = open(256, "a");
+        Assertions.assertEquals(256L, ring.getCapacity());
+        for (var i = 0; i < 1000; i++) {
+            // lengths not aligned to the end of the ring, so that both kinds of padding happen
+            final var payload = "message-" + i + "-".repeat(i % 37);
+            Assertions.assertTrue(ring.offer(bytes(payload)));
+            Assertions.assertEquals(payload, string(ring.poll()));
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ring.offer(new byte[200]));
+    }
+
+    @Test
+    void consumerGroups() throws IOException {
+        final var a = open(256, "a");
+        final var b = open(256, "b");
+        var offered = 0;
+        while (a.offer(new byte[40])) {
+            offered++;
+        }
+        Assertions.assertEquals(4, offered);
+        for (var i = 0; i < offered; i++) {
+            Assertions.assertNotNull(a.poll());
+        }
+        // the slowest group holds the writers back
+        Assertions.assertFalse(a.offer(new byte[40]));
+        Assertions.assertNotNull(b.poll());
+        Assertions.assertTrue(a.offer(new byte[40]));
+        // a group joining late starts from the tail
+        final var c = open(256, "c");
+        Assertions.assertNull(c.poll());
+        Assertions.assertEquals(4, drain(b));
+    }
+
+    @Test
+    void writersDontJoin() throws IOException {
+        final var writer = SharedMemoryRing.open(this.directory.resolve("queue"), 256, Duration.ZERO);
+        final var reader = open(256, "a");
+        Assertions.assertFalse(writer.isJoined());
+        Assertions.assertThrows(IllegalStateException.class, writer::poll);
+        Assertions.assertTrue(writer.offer(new byte[40]));
+        Assertions.assertEquals(0L, writer.pending());
+        Assertions.assertTrue(reader.pending() > 0L);
+        Assertions.assertNotNull(reader.poll());
+    }
+
+    @Test
+    void stoppedGroupIsGivenUp() throws Exception {
+        final var path = this.directory.resolve("queue");
+        final var a = SharedMemoryRing.open(path, 256, Duration.ofMillis(50L)).join("a");
+        final var b = SharedMemoryRing.open(path, 256, Duration.ofMillis(50L)).join("b");
+        while (a.offer(new byte[40])) {
+            Assertions.assertNotNull(a.poll());
+        }
+        Assertions.assertEquals(4, drain(b));
+        // b stops reading while a keeps on
+        while (a.offer(new byte[40])) {
+            Assertions.assertNotNull(a.poll());
+        }
+        final var deadline = System.nanoTime() + 5_000_000_000L;
+        while (!a.offer(new byte[40])) {
+            Assertions.assertTrue(System.nanoTime() < deadline, "group b was never given up");
+            Assertions.assertNull(a.poll());
+            Thread.sleep(5L);
+        }
+        Assertions.assertNotNull(a.poll());
+        // b coming back starts again from the tail, as what it didn't take may be overwritten
+        Assertions.assertNull(b.poll());
+        Assertions.assertTrue(a.offer(bytes("after")));
+        Assertions.assertEquals("after", string(b.poll()));
+        Assertions.assertEquals("after", string(a.poll()));
+    }
+
+    @Test
+    void concurrentWritersAndReaders() throws Exception {
+        final var path = this.directory.resolve("queue");
+        final var received = ConcurrentHashMap.<String>newKeySet();
+        final var threads = new ArrayList<Thread>();
+        for (var w = 0; w < 4; w++) {
+            final var writer = SharedMemoryRing.open(path, 4096, Duration.ZERO).join("a");
+            final var prefix = "w" + w + "-";
+            threads.add(new Thread(() -> {
+                for (var i = 0; i < 5000; i++) {
+                    while (!writer.offer(bytes(prefix + i))) {
+                        Thread.onSpinWait();
+                    }
+                }
+            }));
+        }
+        for (var r = 0; r < 4; r++) {
+            final var reader = SharedMemoryRing.open(path, 4096, Duration.ZERO).join("a");
+            threads.add(new Thread(() -> read(reader, received)));
+        }
+        threads.forEach(Thread::start);
+        for (final var thread : threads) {
+            thread.join(10_000L);
+        }
+        Assertions.assertEquals(20000, received.size());
+    }
+
+    private static void read(final SharedMemoryRing reader, final Set<String> received) {
+        final var deadline = System.nanoTime() + 10_000_000_000L;
+        while (received.size() < 20000 && System.nanoTime() < deadline) {
+            final var record = reader.poll();
+            if (record != null) {
+                Assertions.assertTrue(received.add(string(record)));
+            }
+        }
+    }
+
+    private SharedMemoryRing open(final int capacity, final String consumerGroup) throws IOException {
+        return SharedMemoryRing.open(this.directory.resolve("queue"), capacity, Duration.ZERO).join(consumerGroup);
+    }
+
+    private static int drain(final SharedMemoryRing ring) {
+        var count = 0;
+        while (ring.poll() != null) {
+            count++;
+        }
+        return count;
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(final byte[] value) {
+        return value != null ? StandardCharsets.UTF_8.decode(ByteBuffer.wrap(value)).toString() : null;
+    }
+}
@@ -8,6 +8,8 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.messaging.Message;
 
+import java.time.Duration;
+
 @ExtendWith(MockitoExtension.class)
 class SqsInstanceTest {
 
@@ -35,4 +37,89 @@ class SqsInstanceTest {
         Assertions.assertEquals(msg02, instance.take());
         Assertions.assertEquals(delayedMessage, instance.take());
     }
-}
\ No newline at end of file
+
+    @Test
+    void takeEntries() throws InterruptedException {
+        instance.add(msg01);
+        instance.add(msg02);
+        instance.add(delayedMessage, 200L);
+
+        Assertions.assertEquals(2, instance.takeEntries(2, 0L).size());
+        // every visible one is taken at once, without waiting for more
+        instance.add(msg01);
+        instance.add(msg02);
+        Assertions.assertEquals(2, instance.takeEntries(10, 0L).size());
+        Assertions.assertFalse(instance.hasVisible());
+        // waits for the delayed one, but not beyond the given time
+        final var startTime = System.nanoTime();
+        instance.add(msg01);
+        final var entries = instance.takeEntries(3, Duration.ofSeconds(1).toNanos());
+        Assertions.assertEquals(delayedMessage, entries.get(1).getMessage());
+        Assertions.assertEquals(2, entries.size());
+        Assertions.assertTrue(Duration.ofNanos(System.nanoTime() - startTime).toMillis() >= 900);
+    }
+
+    @Test
+    void closeReleasesConsumers() throws InterruptedException {
+        instance.add(msg01);
+        instance.add(delayedMessage, 60000L);
+        Assertions.assertEquals(2, instance.size());
+
+        final var consumer = new Thread(() -> {
+            try {
+                Assertions.assertEquals(msg01, instance.take());
+                Assertions.assertNull(instance.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        consumer.start();
+        consumer.join(100L);
+        Assertions.assertTrue(consumer.isAlive());
+
+        Assertions.assertEquals(1, instance.close());
+        consumer.join(1000L);
+        Assertions.assertFalse(consumer.isAlive());
+        Assertions.assertFalse(instance.add(msg02));
+        Assertions.assertNull(instance.poll());
+        Assertions.assertEquals(0, instance.close());
+    }
+
+    @Test
+    void expire() throws InterruptedException {
+        this.instance = new SqsInstance(Duration.ofMillis(1));
+        instance.add(msg01);
+        instance.add(delayedMessage, 60000L);
+        instance.add(msg02);
+        final var inFlight = instance.takeEntry();
+        Assertions.assertEquals(msg01, inFlight.getMessage());
+        Assertions.assertEquals(0, instance.expire());
+        Assertions.assertEquals(2, instance.size());
+
+        Thread.sleep(1100L);
+        Assertions.assertEquals(2, instance.expire());
+        Assertions.assertEquals(0, instance.size());
+        Assertions.assertEquals(0, instance.delayedSize());
+        Assertions.assertNull(instance.poll());
+        Assertions.assertFalse(instance.requeue(inFlight, 0L));
+        Assertions.assertTrue(inFlight.isExpired());
+    }
+
+    @Test
+    void requeueKeepsRetention() throws InterruptedException {
+        this.instance = new SqsInstance(Duration.ofMillis(1));
+        instance.add(msg01);
+        final var taken = instance.takeEntry();
+        Assertions.assertTrue(instance.requeue(taken, 0L));
+        Assertions.assertEquals(1, instance.visibleSize());
+
+        final var other = new SqsInstance();
+        Assertions.assertEquals(taken, instance.takeEntry());
+        Assertions.assertTrue(other.requeue(taken, 0L));
+        Assertions.assertEquals(msg01, other.take());
+
+        Thread.sleep(1100L);
+        Assertions.assertTrue(instance.requeue(taken, 0L));
+        Assertions.assertEquals(1, instance.expire());
+    }
+}
@@ -13,7 +13,9 @@ import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHeaders;
 
 import java.lang.reflect.Method;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -36,18 +38,19 @@ class SqsManagerTest {
         sqsManager.start();
         MessageHeaders messageHeaders = Mockito.mock(MessageHeaders.class);
         Mockito.doReturn(messageHeaders).when(message).getHeaders();
-        Mockito.doReturn(message).when(sqsInstance).poll();
+        Mockito.doReturn(new SqsInstance.Entry(message)).when(sqsInstance).pollEntry();
         sqsManager.send(message);
         Assertions.assertEquals(message, sqsManager.receive());
         sqsManager.stop();
-        Mockito.verify(sqsInstance, Mockito.times(1)).add(message);
+        Mockito.verify(sqsInstance, Mockito.times(1)).add(message, 0L, 0);
     }
 
     @Test
     void automaticActions() throws InterruptedException {
         MessageHeaders messageHeaders = Mockito.mock(MessageHeaders.class);
         Mockito.doReturn(messageHeaders).when(message).getHeaders();
-        Mockito.doReturn(message).when(sqsInstance).take();
+        Mockito.doReturn(List.of(new SqsInstance.Entry(message))).when(sqsInstance)
+                .takeEntries(Mockito.anyInt(), Mockito.anyLong(), Mockito.anyLong());
         final SqsManager sqsManager = new SqsManager(sqsInstance, true, new InMemoryAwsSqsClient());
         sqsManager.start();
         Bean myBean = new Bean();
@@ -56,10 +59,83 @@ class SqsManagerTest {
         myBean.countDownLatch.await(1, TimeUnit.SECONDS);
         Assertions.assertEquals(message, myBean.message);
         sqsManager.stop();
-        Mockito.verify(sqsInstance, Mockito.atLeast(1)).add(message);
+        Mockito.verify(sqsInstance, Mockito.atLeast(1)).add(message, 0L, 0);
 
     }
 
+    @Test
+    void awaitIdleWithoutConsumer() throws InterruptedException {
+        MessageHeaders messageHeaders = Mockito.mock(MessageHeaders.class);
+        Mockito.doReturn(messageHeaders).when(message).getHeaders();
+        final SqsManager sqsManager = new SqsManager(new SqsInstance(), false, new InMemoryAwsSqsClient());
+        Assertions.assertTrue(sqsManager.awaitIdle(Duration.ZERO));
+        sqsManager.send(message);
+        Assertions.assertEquals(1, sqsManager.getOutstandingCount());
+        Assertions.assertFalse(sqsManager.awaitIdle(Duration.ofMillis(50)));
+        Assertions.assertEquals(message, sqsManager.receive());
+        Assertions.assertEquals(0, sqsManager.getOutstandingCount());
+        Assertions.assertTrue(sqsManager.awaitIdle(Duration.ZERO));
+    }
+
+    @Test
+    void awaitIdleWithConsumer() throws InterruptedException {
+        MessageHeaders messageHeaders = Mockito.mock(MessageHeaders.class);
+        Mockito.doReturn(messageHeaders).when(message).getHeaders();
+        final SqsManager sqsManager = new SqsManager(new SqsInstance(), true, new InMemoryAwsSqsClient());
+        sqsManager.start();
+        Bean myBean = new Bean();
+        sqsManager.addListener(myBean, getBeanConsume1(), SqsMessageDeletionPolicy.NO_REDRIVE);
+        sqsManager.send(message);
+        Assertions.assertTrue(sqsManager.awaitIdle(Duration.ofSeconds(1)));
+        Assertions.assertEquals(message, myBean.message);
+        Assertions.assertEquals(0, sqsManager.getOutstandingCount());
+        Assertions.assertEquals(0, sqsManager.getInFlightCount());
+        sqsManager.stop();
+    }
+
+    @Test
+    void purge() throws InterruptedException {
+        MessageHeaders messageHeaders = Mockito.mock(MessageHeaders.class);
+        Mockito.doReturn(messageHeaders).when(message).getHeaders();
+        final SqsManager sqsManager = new SqsManager(new SqsInstance(), true, new InMemoryAwsSqsClient());
+        sqsManager.send(message);
+        sqsManager.send(message);
+        Assertions.assertEquals(2, sqsManager.getOutstandingCount());
+        Assertions.assertEquals(2, sqsManager.purge());
+        Assertions.assertTrue(sqsManager.awaitIdle(Duration.ofSeconds(1)));
+
+        // a consumer blocked on the purged instance goes on with the one replacing it
+        sqsManager.start();
+        Assertions.assertEquals(0, sqsManager.purge());
+
+        Bean myBean = new Bean();
+        sqsManager.addListener(myBean, getBeanConsume1(), SqsMessageDeletionPolicy.NO_REDRIVE);
+        sqsManager.send(message);
+        Assertions.assertTrue(myBean.countDownLatch.await(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(sqsManager.awaitIdle(Duration.ofSeconds(1)));
+        sqsManager.stop();
+    }
+
+    @Test
+    void expire() throws InterruptedException {
+        MessageHeaders messageHeaders = Mockito.mock(MessageHeaders.class);
+        Mockito.doReturn(messageHeaders).when(message).getHeaders();
+        final SqsManager sqsManager = new SqsManager(new SqsInstance(Duration.ofMillis(1)), false,
+                new InMemoryAwsSqsClient());
+        sqsManager.send(message);
+        sqsManager.send(message);
+        Assertions.assertEquals(0, sqsManager.expire());
+        Assertions.assertEquals(2, sqsManager.getStatistics().getVisible());
+
+        Thread.sleep(1100L);
+        Assertions.assertEquals(2, sqsManager.expire());
+        final var statistics = sqsManager.getStatistics();
+        Assertions.assertEquals(0, statistics.getVisible());
+        Assertions.assertEquals(0, statistics.getOutstanding());
+        Assertions.assertEquals(2, statistics.getExpired());
+        Assertions.assertTrue(sqsManager.awaitIdle(Duration.ZERO));
+    }
+
     private Method getBeanConsume1() {
         return Arrays.stream(Bean.class.getMethods())
                 .filter(method -> method.getName().equalsIgnoreCase("consume01"))